@@ -0,0 +1,85 @@
+package com.zaxxer.influx4j;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing a window of samples of one series as one pooled {@link Point} per row
+ * against serializing the same samples from a {@link Columns}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings("unused")
+public class ColumnsBench {
+   private static final int ROW_COUNT = 1024;
+
+   private long[] timestamps;
+   private double[] values;
+   private long[] counts;
+   private Columns columns;
+   private PointFactory pointFactory;
+   private ByteBuffer buffer;
+
+   @Setup(Level.Trial)
+   public void createSamples() {
+      final Random random = new Random(1234);
+      timestamps = new long[ROW_COUNT];
+      values = new double[ROW_COUNT];
+      counts = new long[ROW_COUNT];
+      long millis = 1_560_000_000_000L;
+      for (int i = 0; i < ROW_COUNT; i++) {
+         millis += random.nextInt(2000);
+         timestamps[i] = millis;
+         values[i] = random.nextDouble() * 100;
+         counts[i] = random.nextInt(100_000);
+      }
+
+      columns = Columns.builder("procStats")
+         .tag("host", "server1")
+         .tag("dataCenter", "dc1")
+         .timestamps(timestamps, TimeUnit.MILLISECONDS)
+         .field("cpu", values)
+         .field("processes", counts)
+         .build();
+
+      pointFactory = PointFactory.builder().build();
+      buffer = ByteBuffer.allocate(ROW_COUNT * 128);
+   }
+
+   @Benchmark
+   public ByteBuffer points() {
+      buffer.clear();
+      for (int i = 0; i < ROW_COUNT; i++) {
+         try (final Point point = pointFactory.createPoint("procStats")
+            .tag("host", "server1")
+            .tag("dataCenter", "dc1")
+            .field("cpu", values[i])
+            .field("processes", counts[i])
+            .timestamp(timestamps[i], TimeUnit.MILLISECONDS)) {
+            point.write(buffer, Precision.MILLISECOND);
+         }
+      }
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer columns() {
+      buffer.clear();
+      columns.cursor = 0;
+      columns.writeRows(buffer, ROW_COUNT, Precision.MILLISECOND, DoubleFormat.SHORTEST);
+      return buffer;
+   }
+}
@@ -0,0 +1,101 @@
+package com.zaxxer.influx4j;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.zaxxer.influx4j.util.FastValue2Buffer;
+import com.zaxxer.influx4j.util.fastdouble.FastDtoaBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the shortest round-trip double formatter (Ryu) against Grisu3 with its
+ * {@link String#valueOf(double)} fallback, and against {@link String#valueOf(double)} itself,
+ * along with the float32 and fixed precision formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings("unused")
+public class DoubleFormatBench {
+   private static final int VALUE_COUNT = 1024;
+
+   /** sensor: values with a few significant digits, uniform: Random.nextDouble(), bits: random bit patterns */
+   @Param({ "sensor", "uniform", "bits" })
+   private String distribution;
+
+   private final FastDtoaBuffer dtoaBuffer = new FastDtoaBuffer();
+   private final ByteBuffer buffer = ByteBuffer.allocate(64);
+   private double[] values;
+   private int index;
+
+   @Setup(Level.Trial)
+   public void createValues() {
+      final Random random = new Random(1234);
+      values = new double[VALUE_COUNT];
+      for (int i = 0; i < VALUE_COUNT; i++) {
+         switch (distribution) {
+            case "sensor":
+               values[i] = Math.round(random.nextGaussian() * 100_000d) / 100d;
+               break;
+            case "uniform":
+               values[i] = random.nextDouble();
+               break;
+            default:
+               double value;
+               do {
+                  value = Double.longBitsToDouble(random.nextLong());
+               } while (Double.isNaN(value) || Double.isInfinite(value));
+               values[i] = value;
+         }
+      }
+   }
+
+   @Benchmark
+   public ByteBuffer ryu() {
+      buffer.clear();
+      dtoaBuffer.setBuffer(buffer).format(nextValue());
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer grisu3() {
+      buffer.clear();
+      dtoaBuffer.setBuffer(buffer).formatGrisu3(nextValue());
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer float32() {
+      buffer.clear();
+      dtoaBuffer.setBuffer(buffer).format((float) nextValue());
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer fixed3() {
+      buffer.clear();
+      FastValue2Buffer.writeFixedDoubleToBuffer(nextValue(), 3, buffer);
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer stringValueOf() {
+      buffer.clear();
+      buffer.put(String.valueOf(nextValue()).getBytes());
+      return buffer;
+   }
+
+   private double nextValue() {
+      return values[index++ & (VALUE_COUNT - 1)];
+   }
+}
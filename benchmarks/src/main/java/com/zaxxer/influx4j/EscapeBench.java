@@ -0,0 +1,206 @@
+package com.zaxxer.influx4j;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.zaxxer.influx4j.util.Utf8;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Character.MAX_SURROGATE;
+import static java.lang.Character.MIN_SURROGATE;
+
+/**
+ * Compares escaping encoders for tag and string field values of various lengths and character
+ * distributions: {@link Utf8#writeEscaped}, which encodes and escapes in one pass over a bulk
+ * copy of the string's chars; the same pass through {@link String#charAt(int)}; and a two-pass
+ * encoder that encodes without escaping, then scans the encoded bytes eight at a time (SWAR) and
+ * moves the runs between escapable bytes in bulk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings("unused")
+public class EscapeBench {
+   private static final Utf8.EscapeSet ESCAPES = Utf8.escapeSet(',', '=', ' ');
+
+   @Param({ "16", "256", "2048" })
+   private int length;
+
+   /** ascii: no escapes, sparse: a space every ~64 chars, dense: a space every ~6 chars, unicode: 25% non-ASCII */
+   @Param({ "ascii", "sparse", "dense", "unicode" })
+   private String distribution;
+
+   @Param({ "heap", "direct" })
+   private String bufferType;
+
+   private String string;
+   private ByteBuffer buffer;
+
+   @Setup(Level.Trial)
+   public void createString() {
+      final Random random = new Random(1234);
+      final char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+         final char c = (char) ('a' + random.nextInt(26));
+         switch (distribution) {
+            case "sparse":
+               chars[i] = random.nextInt(64) == 0 ? ' ' : c;
+               break;
+            case "dense":
+               chars[i] = random.nextInt(6) == 0 ? ' ' : c;
+               break;
+            case "unicode":
+               chars[i] = random.nextInt(4) == 0 ? (char) (0x4e00 + random.nextInt(0x100)) : c;
+               break;
+            default:
+               chars[i] = c;
+         }
+      }
+
+      string = new String(chars);
+      buffer = "direct".equals(bufferType) ? ByteBuffer.allocateDirect(length * 3) : ByteBuffer.allocate(length * 3);
+   }
+
+   @Benchmark
+   public ByteBuffer writeEscaped() {
+      buffer.clear();
+      Utf8.writeEscaped(buffer, string, ESCAPES);
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer wordScan() {
+      buffer.clear();
+      final int end;
+      if (buffer.hasArray()) {
+         end = perChar(buffer.array(), 0, string, false);
+      }
+      else {
+         perCharDirect(buffer, string, false);
+         end = buffer.position();
+      }
+
+      int first = end;
+      int i = 0;
+      for (; i < end - 7; i += 8) {
+         if (hasEscape(buffer.getLong(i))) break;
+      }
+      for (; i < end; i++) {
+         if (isEscape(buffer.get(i))) {
+            first = i;
+            break;
+         }
+      }
+
+      int count = 0;
+      for (i = first; i < end; i++) {
+         if (isEscape(buffer.get(i))) count++;
+      }
+      buffer.position(end + count);
+
+      if (buffer.hasArray()) {
+         final byte[] bytes = buffer.array();
+         int runEnd = end;
+         for (i = end - 1; count > 0; i--) {
+            if (isEscape(bytes[i])) {
+               System.arraycopy(bytes, i, bytes, i + count, runEnd - i);
+               bytes[i + --count] = '\\';
+               runEnd = i;
+            }
+         }
+      }
+      else {
+         for (i = end - 1; count > 0; i--) {
+            final byte b = buffer.get(i);
+            buffer.put(i + count, b);
+            if (isEscape(b)) buffer.put(i + --count, (byte) '\\');
+         }
+      }
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer charAt() {
+      buffer.clear();
+      if (buffer.hasArray()) {
+         buffer.position(perChar(buffer.array(), 0, string, true));
+      }
+      else {
+         perCharDirect(buffer, string, true);
+      }
+      return buffer;
+   }
+
+   private static final long ONES = 0x0101010101010101L;
+   private static final long HIGHS = 0x8080808080808080L;
+
+   private static boolean hasEscape(final long word) {
+      final long comma = word ^ (ONES * ',');
+      final long equal = word ^ (ONES * '=');
+      final long space = word ^ (ONES * ' ');
+      return ((((comma - ONES) & ~comma) | ((equal - ONES) & ~equal) | ((space - ONES) & ~space)) & HIGHS) != 0;
+   }
+
+   private static boolean isEscape(final byte b) {
+      return b == ',' || b == '=' || b == ' ';
+   }
+
+   private static int perChar(final byte[] bytes, int pos, final String string, final boolean escape) {
+      for (int i = 0; i < string.length(); i++) {
+         final char c = string.charAt(i);
+         if (c < 0x80) {
+            if (escape && (c == ',' || c == '=' || c == ' ')) {
+               bytes[pos++] = '\\';
+            }
+            bytes[pos++] = (byte) c;
+         }
+         else if (c < 0x800) {
+            bytes[pos++] = (byte) (0xc0 | (c >>> 6));
+            bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+         }
+         else if (c < MIN_SURROGATE || c > MAX_SURROGATE) {
+            bytes[pos++] = (byte) (0xe0 | (c >>> 12));
+            bytes[pos++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+            bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+         }
+         else {
+            bytes[pos++] = '?';
+         }
+      }
+      return pos;
+   }
+
+   private static void perCharDirect(final ByteBuffer buffer, final String string, final boolean escape) {
+      for (int i = 0; i < string.length(); i++) {
+         final char c = string.charAt(i);
+         if (c < 0x80) {
+            if (escape && (c == ',' || c == '=' || c == ' ')) {
+               buffer.put((byte) '\\');
+            }
+            buffer.put((byte) c);
+         }
+         else if (c < 0x800) {
+            buffer.put((byte) (0xc0 | (c >>> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+         }
+         else if (c < MIN_SURROGATE || c > MAX_SURROGATE) {
+            buffer.put((byte) (0xe0 | (c >>> 12)));
+            buffer.put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+         }
+         else {
+            buffer.put((byte) '?');
+         }
+      }
+   }
+}
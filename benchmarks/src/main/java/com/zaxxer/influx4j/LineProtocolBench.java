@@ -27,7 +27,7 @@ import java.util.concurrent.TimeUnit;
 @OutputTimeUnit(TimeUnit.MILLISECONDS)
 @SuppressWarnings("unused")
 public class LineProtocolBench {
-   @Param({ "influx4j", "influxdb" })
+   @Param({ "influx4j", "template", "influxdb" })
    private String driver;
 
    private PointAdapter pointAdapter;
@@ -38,6 +38,9 @@ public class LineProtocolBench {
          case "influx4j":
             pointAdapter = new Influx4jPointAdapter();
             break;
+         case "template":
+            pointAdapter = new Influx4jTemplateAdapter();
+            break;
          case "influxdb":
             pointAdapter = new InfluxDbPointAdapter();
             break;
@@ -83,6 +86,42 @@ public class LineProtocolBench {
       }
    }
 
+   private static class Influx4jTemplateAdapter implements PointAdapter {
+      private static final PointFactory pointFactory = PointFactory.builder().build();
+      private static final PointTemplate template = pointFactory.template("testMeasurement")
+              .tag("zebra")
+              .tag("apple")
+              .tag("table")
+              .tag("mouse")
+              .longField("long")
+              .booleanField("boolean")
+              .doubleField("double")
+              .stringField("string")
+              .build();
+
+      private final ByteBuffer buffer = ByteBuffer.allocate(256);
+
+      @Override
+      public Object createPointLineProtocol() throws IOException {
+         final Point point = template.createPoint()
+                 .setTag(0, "cafe")
+                 .setTag(1, "rare7")
+                 .setTag(2, "tiger")
+                 .setTag(3, "beer")
+                 .setLong(0, 12345)
+                 .setBoolean(1, true)
+                 .setDouble(2, 12345.6789d)
+                 .setString(3, "This is a string")
+                 .timestamp();
+
+         point.write(buffer, Precision.MILLISECOND);
+         buffer.clear();
+         point.close();
+
+        return buffer;
+      }
+   }
+
    private static class InfluxDbPointAdapter implements PointAdapter {
       private final ByteBuffer buffer = ByteBuffer.allocate(256);
 
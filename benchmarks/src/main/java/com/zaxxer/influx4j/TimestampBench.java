@@ -0,0 +1,73 @@
+package com.zaxxer.influx4j;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.zaxxer.influx4j.util.FastValue2Buffer;
+import com.zaxxer.influx4j.util.TimestampFormatter;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares formatting a batch of increasing timestamps from scratch against the incremental
+ * {@link TimestampFormatter}, which reuses the high-order digits shared with the previous timestamp.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings("unused")
+public class TimestampBench {
+   private static final int TIMESTAMP_COUNT = 1024;
+
+   @Param({ "NANOSECOND", "MICROSECOND", "MILLISECOND" })
+   private TimeUnit precision;
+
+   @Param({ "heap", "direct" })
+   private String bufferType;
+
+   private long[] timestamps;
+   private ByteBuffer buffer;
+   private TimestampFormatter formatter;
+
+   @Setup(Level.Trial)
+   public void createTimestamps() {
+      // points arriving every ~1ms on average
+      final Random random = new Random(1234);
+      timestamps = new long[TIMESTAMP_COUNT];
+      long nanos = TimeUnit.MILLISECONDS.toNanos(1_560_000_000_000L);
+      for (int i = 0; i < TIMESTAMP_COUNT; i++) {
+         nanos += random.nextInt(2_000_000);
+         timestamps[i] = precision.convert(nanos, TimeUnit.NANOSECONDS);
+      }
+
+      buffer = "direct".equals(bufferType) ? ByteBuffer.allocateDirect(TIMESTAMP_COUNT * 20) : ByteBuffer.allocate(TIMESTAMP_COUNT * 20);
+      formatter = TimestampFormatter.get();
+   }
+
+   @Benchmark
+   public ByteBuffer full() {
+      buffer.clear();
+      for (final long timestamp : timestamps) {
+         FastValue2Buffer.writeLongToBuffer(timestamp, buffer);
+      }
+      return buffer;
+   }
+
+   @Benchmark
+   public ByteBuffer incremental() {
+      buffer.clear();
+      for (final long timestamp : timestamps) {
+         formatter.write(timestamp, buffer);
+      }
+      return buffer;
+   }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.zaxxer.influx4j.InfluxDB.InfluxDbListener;
+import com.zaxxer.influx4j.InfluxDB.Precision;
+import com.zaxxer.influx4j.util.TimestampFormatter;
+import com.zaxxer.influx4j.util.Utf8;
+
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeLongToBuffer;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeUnsignedLongToBuffer;
+
+/**
+ * A window of samples of one series in columnar form: a measurement and tag set shared by every
+ * row, a column of timestamps, and one primitive array per field.  Row {@code i} is written as
+ * the line {@code measurement,tags field1=values1[i],field2=values2[i] timestamps[i]}.
+ * <p>
+ * Columns are written with {@link InfluxDB#writeColumns(Columns, InfluxDbListener)}, which
+ * reserves one sequence number per row and serializes the rows straight from the arrays on the
+ * flushing thread, without creating a {@link Point} per row.  The arrays are referenced, not
+ * copied, so they must not be modified until the write's outcome has been reported.  After that,
+ * the same {@link Columns} (and its arrays) can be written again.
+ * <pre>
+ * Columns columns = Columns.builder("temperature")
+ *    .tag("sensor", "t1")
+ *    .timestamps(timestamps, TimeUnit.MILLISECONDS)
+ *    .field("celsius", celsius)
+ *    .build();
+ *
+ * influxDB.writeColumns(columns, (success, finalSequence) -&gt; ...);
+ * </pre>
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class Columns {
+   private static final byte LONG = 0;
+   private static final byte UNSIGNED = 1;
+   private static final byte DOUBLE = 2;
+   private static final byte BOOLEAN = 3;
+
+   // the longest serialized value of any field type, ie. a signed fixed-format double
+   private static final int MAX_VALUE_LENGTH = 40;
+   // a space, a negative nineteen digit timestamp, and a newline
+   private static final int MAX_TIMESTAMP_LENGTH = 22;
+
+   private final String measurement;
+   // the measurement and its sorted, escaped tags
+   private final byte[] seriesKey;
+   private final long[] timestamps;
+   private final TimeUnit timeUnit;
+   private final int rows;
+
+   private final String[] fieldNames;
+   // the " key=" bytes of the first field, and the ",key=" bytes of the others
+   private final byte[][] fieldPrefixes;
+   private final byte[] fieldTypes;
+   private final Object[] fieldValues;
+   private final DoubleFormat[] fieldFormats;
+   // an upper bound on the serialized length of a row
+   final int maxRowLength;
+   // selects the writer of the connection that writes the rows
+   final int seriesHash;
+
+   private final AtomicBoolean queued;
+
+   // write state, owned by the flushing thread while queued
+   long firstSequence;
+   InfluxDbListener listener;
+   int cursor;
+   boolean failed;
+
+   private Columns(final Builder builder) {
+      this.measurement = builder.measurement;
+      this.timestamps = builder.timestamps;
+      this.timeUnit = builder.timeUnit;
+      this.rows = builder.rows >= 0 ? builder.rows : timestamps.length;
+      this.seriesKey = serializeSeriesKey(measurement, builder.tags);
+      this.seriesHash = Arrays.hashCode(seriesKey);
+
+      final int fieldCount = builder.fields.size();
+      this.fieldNames = new String[fieldCount];
+      this.fieldPrefixes = new byte[fieldCount][];
+      this.fieldTypes = new byte[fieldCount];
+      this.fieldValues = new Object[fieldCount];
+      this.fieldFormats = new DoubleFormat[fieldCount];
+      int rowLength = seriesKey.length + MAX_TIMESTAMP_LENGTH;
+      for (int i = 0; i < fieldCount; i++) {
+         final Field field = builder.fields.get(i);
+         fieldNames[i] = field.name;
+         fieldTypes[i] = field.type;
+         fieldValues[i] = field.values;
+         fieldFormats[i] = field.format;
+
+         final byte[] key = KeyCache.KEYS.get(field.name);
+         final byte[] prefix = new byte[key.length + 2];
+         prefix[0] = (i == 0) ? (byte) ' ' : (byte) ',';
+         System.arraycopy(key, 0, prefix, 1, key.length);
+         prefix[prefix.length - 1] = '=';
+         fieldPrefixes[i] = prefix;
+         rowLength += prefix.length + MAX_VALUE_LENGTH;
+      }
+      this.maxRowLength = rowLength;
+
+      this.queued = new AtomicBoolean();
+   }
+
+   /**
+    * Obtain a new {@link Columns.Builder} for the specified measurement.
+    *
+    * @param measurement the measurement name
+    * @return a new {@link Columns.Builder} instance
+    */
+   public static Builder builder(final String measurement) {
+      return new Builder(measurement);
+   }
+
+   /**
+    * Get the number of rows, ie. lines, of these columns.
+    *
+    * @return the number of rows
+    */
+   public int getRowCount() {
+      return rows;
+   }
+
+   /**
+    * Get the measurement name of these columns.
+    *
+    * @return the measurement name
+    */
+   public String getMeasurement() {
+      return measurement;
+   }
+
+   @Override
+   public String toString() {
+      return "Columns[" + measurement + ", fields=" + Arrays.toString(fieldNames) + ", rows=" + rows + "]";
+   }
+
+   /**
+    * Claim these columns for a write.
+    *
+    * @return false if these columns are already being written
+    */
+   boolean enqueue(final long firstSequence, final InfluxDbListener listener) {
+      if (!queued.compareAndSet(false, true)) {
+         return false;
+      }
+
+      this.firstSequence = firstSequence;
+      this.listener = listener;
+      this.cursor = 0;
+      this.failed = false;
+      return true;
+   }
+
+   /**
+    * @return true if every row has been serialized
+    */
+   boolean isDrained() {
+      return cursor == rows;
+   }
+
+   long lastSequence() {
+      return firstSequence + rows - 1;
+   }
+
+   /**
+    * Report the outcome of the write, and release these columns for reuse.
+    */
+   void complete(final boolean success) {
+      final InfluxDbListener listener = this.listener;
+      final boolean succeeded = success && !failed;
+      this.listener = null;
+      queued.set(false);
+
+      if (listener != null) {
+         listener.outcome(succeeded, lastSequence());
+      }
+   }
+
+   /**
+    * Get the coarsest precision at which the timestamps of the unwritten rows, at the specified
+    * precision, can be written without loss.
+    */
+   Precision coarsestPrecision(final Precision precision) {
+      Precision coarsest = Precision.coarsest();
+      for (int i = cursor; i < rows && coarsest != precision; i++) {
+         final long timestamp = precision.convert(timestamps[i], timeUnit);
+         while (coarsest != precision && timestamp % precision.unitsPer(coarsest) != 0) {
+            coarsest = coarsest.finer();
+         }
+      }
+      return coarsest;
+   }
+
+   /**
+    * Serialize rows, starting at the cursor, while the buffer has room for another row, and
+    * advance the cursor.
+    *
+    * @param buffer the buffer to write to
+    * @param maxRows the maximum number of rows to write
+    * @param precision the precision of the timestamps
+    * @param doubleFormat the format of double fields without a format of their own
+    * @return the number of rows written
+    */
+   int writeRows(final ByteBuffer buffer, final int maxRows, final Precision precision, final DoubleFormat doubleFormat) {
+      final TimestampFormatter timestampFormatter = TimestampFormatter.get();
+      final int start = cursor;
+      final int end = (int) Math.min(rows, (long) start + maxRows);
+
+      int row = start;
+      for (; row < end && buffer.remaining() >= maxRowLength; row++) {
+         buffer.put(seriesKey);
+
+         for (int f = 0; f < fieldTypes.length; f++) {
+            buffer.put(fieldPrefixes[f]);
+            switch (fieldTypes[f]) {
+               case LONG:
+                  writeLongToBuffer(((long[]) fieldValues[f])[row], buffer);
+                  buffer.put((byte) 'i');
+                  break;
+               case UNSIGNED:
+                  writeUnsignedLongToBuffer(((long[]) fieldValues[f])[row], buffer);
+                  buffer.put((byte) 'u');
+                  break;
+               case DOUBLE:
+                  final DoubleFormat format = fieldFormats[f];
+                  (format != null ? format : doubleFormat).write(((double[]) fieldValues[f])[row], buffer);
+                  break;
+               default:
+                  buffer.put(((boolean[]) fieldValues[f])[row] ? (byte) 't' : (byte) 'f');
+            }
+         }
+
+         buffer.put((byte) ' ');
+         timestampFormatter.write(precision.convert(timestamps[row], timeUnit), buffer);
+         buffer.put((byte) '\n');
+      }
+
+      cursor = row;
+      return row - start;
+   }
+
+   private static byte[] serializeSeriesKey(final String measurement, final List<String[]> tags) {
+      final byte[] measurementBytes = KeyCache.MEASUREMENTS.get(measurement);
+
+      final byte[][] keys = new byte[tags.size()][];
+      final Integer[] order = new Integer[tags.size()];
+      int length = measurementBytes.length;
+      for (int i = 0; i < keys.length; i++) {
+         keys[i] = KeyCache.KEYS.get(tags.get(i)[0]);
+         order[i] = i;
+         length += 2 + keys[i].length + Utf8.escapedLength(tags.get(i)[1], Point.TAG_VALUE_ESCAPES);
+      }
+      Arrays.sort(order, (a, b) -> KeyCache.compare(keys[a], keys[b]));
+
+      final ByteBuffer buffer = ByteBuffer.allocate(length);
+      buffer.put(measurementBytes);
+      for (final int i : order) {
+         buffer.put((byte) ',').put(keys[i]).put((byte) '=');
+         Utf8.writeEscaped(buffer, tags.get(i)[1], Point.TAG_VALUE_ESCAPES);
+      }
+      return buffer.array();
+   }
+
+   private static final class Field {
+      private final String name;
+      private final byte type;
+      private final Object values;
+      private final int length;
+      private final DoubleFormat format;
+
+      private Field(final String name, final byte type, final Object values, final int length, final DoubleFormat format) {
+         this.name = name;
+         this.type = type;
+         this.values = values;
+         this.length = length;
+         this.format = format;
+      }
+   }
+
+   /**
+    * Builder for a {@link Columns} instance.  Call {@link Columns#builder(String)} to create an
+    * instance of the {@link Columns.Builder}.
+    */
+   public static final class Builder {
+      private final String measurement;
+      private final List<String[]> tags = new ArrayList<>();
+      private final Set<String> tagNames = new HashSet<>();
+      private final List<Field> fields = new ArrayList<>();
+      private final Set<String> fieldNames = new HashSet<>();
+      private long[] timestamps;
+      private TimeUnit timeUnit;
+      private int rows = -1;
+
+      private Builder(final String measurement) {
+         if (measurement == null || measurement.isEmpty()) {
+            throw new IllegalArgumentException("measurement cannot be null or empty");
+         }
+         this.measurement = measurement;
+      }
+
+      /**
+       * Tag every row with the specified string value.
+       *
+       * @param tag the name of the tag
+       * @param value the string value associated with the tag
+       * @return this {@link Builder}
+       */
+      public Builder tag(final String tag, final String value) {
+         if (tag == null || tag.isEmpty() || value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("tag and value cannot be null or empty");
+         }
+         if (!tagNames.add(tag)) {
+            throw new IllegalArgumentException("Duplicate tag '" + tag + "'");
+         }
+         tags.add(new String[] { tag, value });
+         return this;
+      }
+
+      /**
+       * Set the timestamp column.  Its length is the number of rows, unless set with
+       * {@link #rows(int)}.
+       *
+       * @param timestamps the timestamps of the rows
+       * @param timeUnit the resolution of the timestamps
+       * @return this {@link Builder}
+       */
+      public Builder timestamps(final long[] timestamps, final TimeUnit timeUnit) {
+         if (timestamps == null || timeUnit == null) {
+            throw new IllegalArgumentException("timestamps and timeUnit cannot be null");
+         }
+         this.timestamps = timestamps;
+         this.timeUnit = timeUnit;
+         return this;
+      }
+
+      /**
+       * Set the number of rows, for columns whose arrays are longer than the rows to write.
+       *
+       * @param rows the number of rows, from index zero
+       * @return this {@link Builder}
+       */
+      public Builder rows(final int rows) {
+         if (rows < 1) {
+            throw new IllegalArgumentException("rows must be greater than zero");
+         }
+         this.rows = rows;
+         return this;
+      }
+
+      /**
+       * Add a long integer field column.
+       *
+       * @param field the name of the field
+       * @param values the values of the field, by row
+       * @return this {@link Builder}
+       */
+      public Builder field(final String field, final long[] values) {
+         return add(field, LONG, values, values != null ? values.length : 0, null);
+      }
+
+      /**
+       * Add an unsigned 64-bit integer field column.
+       *
+       * @param field the name of the field
+       * @param values the unsigned values of the field, by row
+       * @return this {@link Builder}
+       */
+      public Builder fieldUnsigned(final String field, final long[] values) {
+         return add(field, UNSIGNED, values, values != null ? values.length : 0, null);
+      }
+
+      /**
+       * Add a double field column, written in the connection's default format.
+       *
+       * @param field the name of the field
+       * @param values the values of the field, by row
+       * @return this {@link Builder}
+       */
+      public Builder field(final String field, final double[] values) {
+         return add(field, DOUBLE, values, values != null ? values.length : 0, null);
+      }
+
+      /**
+       * Add a double field column, written in the specified format.
+       *
+       * @param field the name of the field
+       * @param values the values of the field, by row
+       * @param format the format used to serialize the values
+       * @return this {@link Builder}
+       */
+      public Builder field(final String field, final double[] values, final DoubleFormat format) {
+         if (format == null) {
+            throw new IllegalArgumentException("format cannot be null");
+         }
+         return add(field, DOUBLE, values, values != null ? values.length : 0, format);
+      }
+
+      /**
+       * Add a boolean field column.
+       *
+       * @param field the name of the field
+       * @param values the values of the field, by row
+       * @return this {@link Builder}
+       */
+      public Builder field(final String field, final boolean[] values) {
+         return add(field, BOOLEAN, values, values != null ? values.length : 0, null);
+      }
+
+      public Columns build() {
+         if (timestamps == null) throw new IllegalStateException("A timestamp column must be specified");
+         if (fields.isEmpty()) throw new IllegalStateException("At least one field column must be specified");
+
+         final int rowCount = rows >= 0 ? rows : timestamps.length;
+         if (rowCount == 0) throw new IllegalStateException("Columns must have at least one row");
+         if (timestamps.length < rowCount) throw new IllegalStateException("The timestamp column is shorter than " + rowCount + " rows");
+         for (final Field field : fields) {
+            if (field.length < rowCount) {
+               throw new IllegalStateException("Field column '" + field.name + "' is shorter than " + rowCount + " rows");
+            }
+         }
+
+         return new Columns(this);
+      }
+
+      private Builder add(final String field, final byte type, final Object values, final int length, final DoubleFormat format) {
+         if (field == null || field.isEmpty() || values == null) {
+            throw new IllegalArgumentException("field and values cannot be null or empty");
+         }
+         if (!fieldNames.add(field)) {
+            throw new IllegalArgumentException("Duplicate field '" + field + "'");
+         }
+         fields.add(new Field(field, type, values, length, format));
+         return this;
+      }
+   }
+}
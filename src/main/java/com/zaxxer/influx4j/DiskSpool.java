@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A spool of write batches on disk, in memory-mapped segment files of a fixed size, which are
+ * created as batches are appended and deleted once their batches have been replayed.
+ * <p>
+ * Each record is a batch of line protocol, preceded by its length, precision and the sequence
+ * number of its last point.  The length is written last, and the length slot following a record
+ * is cleared before it, so a zero length marks the end of the records of the segment.  Each
+ * record is forced to disk as it is committed, and the replay position is kept in a separate
+ * memory-mapped watermark file, which is forced to disk as records are acknowledged, so that
+ * spooled batches survive a restart, or a crash of the operating system.
+ * <p>
+ * Callers synchronize on the spool.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+final class DiskSpool implements AutoCloseable {
+   private static final Logger LOGGER = Logger.getLogger(DiskSpool.class.getName());
+   private static final Precision[] PRECISIONS = Precision.values();
+
+   // the record length, precision and last sequence number
+   static final int HEADER_SIZE = 4 + 1 + 8;
+   private static final String SEGMENT_PREFIX = "spool-";
+   private static final String SEGMENT_SUFFIX = ".log";
+
+   private final Path directory;
+   private final int segmentSize;
+   private final int maxSegments;
+   private final FileChannel watermarkChannel;
+   private final FileLock lock;
+   private final MappedByteBuffer watermark;
+   // the ids of the segments, from the head (replay) to the tail (append)
+   private final ArrayDeque<Long> segmentIds;
+
+   private MappedByteBuffer head;
+   private int readOffset;
+   private MappedByteBuffer tail;
+   private int writeOffset;
+
+   // the record being appended
+   private int recordStart;
+   private int recordEnd;
+
+   // the record read by peek()
+   private ByteBuffer replayBuffer;
+   private Precision replayPrecision;
+   private long replaySequence;
+
+   /**
+    * Open the spool in the specified directory, resuming from its watermark.
+    *
+    * @param directory the spool directory, created if it does not exist
+    * @param sizeLimit the maximum size of the segment files
+    * @param segmentSize the size of a segment file
+    * @throws IOException if the spool cannot be opened, or is in use by another process
+    */
+   DiskSpool(final Path directory, final long sizeLimit, final int segmentSize) throws IOException {
+      this.directory = directory;
+      this.segmentSize = segmentSize;
+      this.maxSegments = (int) Math.max(2L, Math.min(Integer.MAX_VALUE, sizeLimit / segmentSize));
+      this.segmentIds = new ArrayDeque<>();
+
+      Files.createDirectories(directory);
+      watermarkChannel = FileChannel.open(directory.resolve("watermark"), CREATE, READ, WRITE);
+      lock = watermarkChannel.tryLock();
+      if (lock == null) {
+         watermarkChannel.close();
+         throw new IOException("Spool directory " + directory + " is in use");
+      }
+      watermark = watermarkChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8 + 4);
+
+      final long watermarkId = watermark.getLong(0);
+      final int watermarkOffset = watermark.getInt(8);
+
+      // segments before the watermark have been replayed
+      for (final long id : existingSegmentIds()) {
+         if (id < watermarkId) {
+            Files.deleteIfExists(segmentPath(id));
+         }
+         else {
+            segmentIds.add(id);
+         }
+      }
+
+      if (segmentIds.isEmpty()) {
+         segmentIds.add(watermarkId);
+      }
+
+      final long headId = segmentIds.getFirst();
+      head = map(headId);
+      readOffset = (headId == watermarkId) ? watermarkOffset : 0;
+      tail = (segmentIds.size() == 1) ? head : map(segmentIds.getLast());
+      writeOffset = scan(tail, (tail == head) ? readOffset : 0);
+      saveWatermark();
+
+      if (!isEmpty()) {
+         LOGGER.log(Level.INFO, "Resuming spool {0} with {1} segments", new Object[] { directory, segmentIds.size() });
+      }
+   }
+
+   /**
+    * @return true if every appended record has been acknowledged
+    */
+   boolean isEmpty() {
+      return head == tail && readOffset == writeOffset;
+   }
+
+   /**
+    * Start appending a record.
+    */
+   void begin() {
+      recordStart = writeOffset;
+      recordEnd = recordStart + HEADER_SIZE;
+   }
+
+   /**
+    * Append the remaining bytes of the buffer to the record, and advance its position.
+    *
+    * @return false if the record does not fit in the spool, in which case it must be aborted
+    */
+   boolean put(final ByteBuffer src) {
+      final int length = src.remaining();
+      if (!reserve(length)) {
+         return false;
+      }
+      final ByteBuffer target = tail.duplicate();
+      target.position(recordEnd);
+      target.put(src);
+      recordEnd += length;
+      return true;
+   }
+
+   /**
+    * Append bytes to the record.
+    *
+    * @return false if the record does not fit in the spool, in which case it must be aborted
+    */
+   boolean put(final byte[] bytes, final int offset, final int length) {
+      if (!reserve(length)) {
+         return false;
+      }
+      final ByteBuffer target = tail.duplicate();
+      target.position(recordEnd);
+      target.put(bytes, offset, length);
+      recordEnd += length;
+      return true;
+   }
+
+   /**
+    * Complete the record being appended, and force it to disk.
+    *
+    * @param precision the precision of the timestamps of the record
+    * @param lastSequence the sequence number of the last point of the record
+    */
+   void commit(final Precision precision, final long lastSequence) {
+      if (recordEnd + 4 <= segmentSize) {
+         // any bytes beyond the record are left over from an aborted record
+         tail.putInt(recordEnd, 0);
+      }
+      tail.put(recordStart + 4, (byte) precision.ordinal());
+      tail.putLong(recordStart + 5, lastSequence);
+      tail.putInt(recordStart, recordEnd - recordStart - HEADER_SIZE);
+      writeOffset = recordEnd;
+      // a spooled batch is reported as safe, so it must not be lost with the page cache
+      tail.force();
+   }
+
+   /**
+    * Read the record at the head of the spool, without removing it.
+    *
+    * @return the bytes of the record, or null if the spool is empty
+    * @throws IOException if advancing to the next segment fails
+    */
+   ByteBuffer peek() throws IOException {
+      for (;;) {
+         final int length = (readOffset + 4 <= segmentSize) ? head.getInt(readOffset) : 0;
+         if (length > 0) {
+            if (replayBuffer == null || replayBuffer.capacity() < length) {
+               replayBuffer = ByteBuffer.allocate(Math.max(length, 64 * 1024));
+            }
+            replayBuffer.clear();
+            final ByteBuffer source = head.duplicate();
+            source.limit(readOffset + HEADER_SIZE + length).position(readOffset + HEADER_SIZE);
+            replayBuffer.put(source).flip();
+
+            replayPrecision = PRECISIONS[head.get(readOffset + 4)];
+            replaySequence = head.getLong(readOffset + 5);
+            return replayBuffer;
+         }
+
+         if (head == tail) {
+            return null;
+         }
+
+         // the end of a segment that is no longer appended to
+         final long replayedId = segmentIds.removeFirst();
+         head = (segmentIds.size() == 1) ? tail : map(segmentIds.getFirst());
+         readOffset = 0;
+         saveWatermark();
+         Files.deleteIfExists(segmentPath(replayedId));
+      }
+   }
+
+   /**
+    * @return the precision of the record returned by {@link #peek()}
+    */
+   Precision peekPrecision() {
+      return replayPrecision;
+   }
+
+   /**
+    * @return the sequence number of the last point of the record returned by {@link #peek()}
+    */
+   long peekSequence() {
+      return replaySequence;
+   }
+
+   /**
+    * Remove the record returned by {@link #peek()}, and persist the watermark.
+    */
+   void acknowledge() {
+      readOffset += HEADER_SIZE + head.getInt(readOffset);
+      saveWatermark();
+   }
+
+   @Override
+   public void close() throws IOException {
+      tail.force();
+      watermark.force();
+      lock.release();
+      watermarkChannel.close();
+   }
+
+   private boolean reserve(final int length) {
+      if (recordEnd + length <= segmentSize) {
+         return true;
+      }
+
+      final int recordLength = recordEnd - recordStart;
+      if (recordLength + length > segmentSize || segmentIds.size() == maxSegments) {
+         return false;
+      }
+
+      // move the record to a new segment
+      try {
+         final long id = segmentIds.getLast() + 1;
+         final MappedByteBuffer segment = map(id);
+         segmentIds.add(id);
+
+         final ByteBuffer partial = tail.duplicate();
+         partial.limit(recordEnd).position(recordStart);
+         final ByteBuffer target = segment.duplicate();
+         target.put(partial);
+
+         tail.force();
+         tail = segment;
+         writeOffset = 0;
+         recordStart = 0;
+         recordEnd = recordLength;
+         return true;
+      }
+      catch (final IOException e) {
+         LOGGER.log(Level.SEVERE, "Unable to create a spool segment in " + directory, e);
+         return false;
+      }
+   }
+
+   /**
+    * @return the offset of the end of the records of the segment
+    */
+   private int scan(final MappedByteBuffer segment, int offset) {
+      while (offset + 4 <= segmentSize) {
+         final int length = segment.getInt(offset);
+         if (length <= 0 || offset + HEADER_SIZE + length > segmentSize) break;
+         offset += HEADER_SIZE + length;
+      }
+      return offset;
+   }
+
+   private void saveWatermark() {
+      watermark.putLong(0, segmentIds.getFirst());
+      watermark.putInt(8, readOffset);
+      watermark.force();
+   }
+
+   private MappedByteBuffer map(final long id) throws IOException {
+      try (final FileChannel channel = FileChannel.open(segmentPath(id), CREATE, READ, WRITE)) {
+         return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      }
+   }
+
+   private Path segmentPath(final long id) {
+      return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+   }
+
+   private List<Long> existingSegmentIds() throws IOException {
+      final List<Long> ids = new ArrayList<>();
+      try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+         for (final Path path : stream) {
+            final String name = path.getFileName().toString();
+            try {
+               ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+            catch (final NumberFormatException e) {
+               // not a segment
+            }
+         }
+      }
+      Collections.sort(ids);
+      return ids;
+   }
+}
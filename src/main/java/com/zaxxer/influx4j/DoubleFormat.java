@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.nio.ByteBuffer;
+
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeDoubleToBuffer;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeFixedDoubleToBuffer;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeFloatToBuffer;
+
+/**
+ * The textual representation used when serializing double fields.  A format can be set for
+ * a connection with {@link InfluxDB.Builder#setDoubleFormat(DoubleFormat)}, and overridden
+ * for individual fields with {@link Point#field(String, double, DoubleFormat)}.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class DoubleFormat {
+   /** The maximum number of fractional digits of a {@link #fixed(int)} format. */
+   public static final int MAX_FRACTION_DIGITS = 17;
+
+   /** The shortest representation that reads back as the same double (the default). */
+   public static final DoubleFormat SHORTEST = new DoubleFormat(-1);
+
+   /** The shortest representation that reads back as the same float, ie. about 7 significant digits. */
+   public static final DoubleFormat FLOAT32 = new DoubleFormat(-2);
+
+   private static final DoubleFormat[] FIXED = new DoubleFormat[MAX_FRACTION_DIGITS + 1];
+
+   static {
+      for (int i = 0; i < FIXED.length; i++) {
+         FIXED[i] = new DoubleFormat(i);
+      }
+   }
+
+   private final int fractionDigits;
+
+   private DoubleFormat(final int fractionDigits) {
+      this.fractionDigits = fractionDigits;
+   }
+
+   /**
+    * Get a format that rounds values to the specified number of fractional digits, omitting
+    * trailing zeros.  Values whose precision is coarser than the requested digits are written
+    * as {@link #SHORTEST}.
+    *
+    * @param fractionDigits the number of fractional digits, 0 to {@value #MAX_FRACTION_DIGITS}
+    * @return the fixed precision format
+    */
+   public static DoubleFormat fixed(final int fractionDigits) {
+      if (fractionDigits < 0 || fractionDigits > MAX_FRACTION_DIGITS) {
+         throw new IllegalArgumentException("fractionDigits must be between 0 and " + MAX_FRACTION_DIGITS);
+      }
+      return FIXED[fractionDigits];
+   }
+
+   void write(final double value, final ByteBuffer buffer) {
+      if (fractionDigits >= 0) {
+         writeFixedDoubleToBuffer(value, fractionDigits, buffer);
+      }
+      else if (this == FLOAT32) {
+         writeFloatToBuffer((float) value, buffer);
+      }
+      else {
+         writeDoubleToBuffer(value, buffer);
+      }
+   }
+
+   @Override
+   public String toString() {
+      if (this == SHORTEST) return "SHORTEST";
+      if (this == FLOAT32) return "FLOAT32";
+      return "FIXED(" + fractionDigits + ")";
+   }
+}
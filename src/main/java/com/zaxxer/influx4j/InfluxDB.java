@@ -17,11 +17,16 @@
 package com.zaxxer.influx4j;
 
 import com.zaxxer.influx4j.util.DaemonThreadFactory;
+import com.zaxxer.influx4j.util.GzipEncoder;
 import com.zaxxer.influx4j.util.HexDumpElf;
 import com.zaxxer.influx4j.util.TimeUtil;
 import okhttp3.*;
+import okio.Buffer;
 import okio.BufferedSink;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.MpmcArrayQueue;
 import org.jctools.queues.MpscArrayQueue;
+import org.jctools.queues.SpscArrayQueue;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -31,19 +36,29 @@ import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
-import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import static java.lang.System.nanoTime;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -101,6 +116,8 @@ public class InfluxDB implements AutoCloseable {
       MINUTE("m", TimeUnit.MINUTES),
       HOUR("h", TimeUnit.HOURS);
 
+      private static final Precision[] PRECISIONS = values();
+
       private final String precision;
       private final TimeUnit converter;
 
@@ -109,8 +126,28 @@ public class InfluxDB implements AutoCloseable {
          this.converter = converter;
       }
 
+      TimeUnit timeUnit() {
+         return converter;
+      }
+
       long convert(final long t, final TimeUnit sourceUnit) {
-         return converter.convert(t, sourceUnit);
+         return (sourceUnit == converter) ? t : converter.convert(t, sourceUnit);
+      }
+
+      /**
+       * @param coarser a precision no finer than this precision
+       * @return the number of units of this precision per unit of the coarser precision
+       */
+      long unitsPer(final Precision coarser) {
+         return converter.convert(1, coarser.converter);
+      }
+
+      Precision finer() {
+         return PRECISIONS[ordinal() - 1];
+      }
+
+      static Precision coarsest() {
+         return PRECISIONS[PRECISIONS.length - 1];
       }
 
       @Override
@@ -119,23 +156,56 @@ public class InfluxDB implements AutoCloseable {
       }
    }
 
+   /*****************************************************************************************
+    * The behavior of {@link InfluxDB#write(Point)} when the write queue is full.
+    */
+   public enum BackpressurePolicy {
+      /** Wait for space in the queue, up to the configured timeout, then drop the point. */
+      BLOCK,
+      /** Drop the point being written. */
+      DROP_NEWEST,
+      /** Drop the oldest queued points to make room for the point being written. */
+      DROP_OLDEST,
+      /** Above the retry watermark, queue only a sample of the points written, and drop the rest. */
+      SAMPLE,
+      /** Hand the point being written to the configured {@link OverflowHandler}. */
+      FALLBACK
+   }
+
    public interface InfluxDbListener {
       void outcome(boolean success, long finalSequence);
    }
 
+   /**
+    * Receives the points that do not fit in the write queue, with {@link BackpressurePolicy#FALLBACK}.
+    */
+   public interface OverflowHandler {
+      /**
+       * Called on the writing thread with a point that was not queued.  The handler takes
+       * ownership of the point, and is responsible for closing it.
+       *
+       * @param point the point that was not queued
+       */
+      void overflow(Point point);
+   }
+
    public static final int MAXIMUM_SERIALIZED_POINT_SIZE;
    private static final int MAXIMUM_POINT_BATCH_SIZE;
    private static final int SEND_BUFFER_SIZE;
-   private static final int HTTP_CONNECT_TIMEOUT;
-   private static final int HTTP_READ_TIMEOUT;
+   private static final boolean DIRECT_SEND_BUFFER;
+   private static final int SEGMENT_SIZE;
+   static final int HTTP_CONNECT_TIMEOUT;
+   static final int HTTP_READ_TIMEOUT;
    private static final int HTTP_WRITE_TIMEOUT;
-   private static final int MAX_IDLE_CONNECTIONS;
-   private static final int KEEP_ALIVE_DURATION;
+   static final int MAX_IDLE_CONNECTIONS;
+   static final int KEEP_ALIVE_DURATION;
 
    private static final ConcurrentHashMap<URL, SocketConnection> CONNECTIONS = new ConcurrentHashMap<>();
 
    private final AtomicLong sequence;
    private final SocketConnection connection;
+   // the HTTP client of the connection, so that queries share its (possibly multiplexed) connections
+   private final OkHttpClient client;
    private final String baseUrl;
    private final String credentials;
    private static final OkHttpClient OK_HTTP_CLIENT;
@@ -149,6 +219,8 @@ public class InfluxDB implements AutoCloseable {
 
       MAXIMUM_SERIALIZED_POINT_SIZE = Integer.getInteger("com.zaxxer.influx4j.maxSerializedPointSize", 32 * 1024);
       MAXIMUM_POINT_BATCH_SIZE = Integer.getInteger("com.zaxxer.influx4j.maxPointBatchSize", 5000);
+      DIRECT_SEND_BUFFER = Boolean.parseBoolean(System.getProperty("com.zaxxer.influx4j.directSendBuffer", "true"));
+      SEGMENT_SIZE = Math.max(Integer.getInteger("com.zaxxer.influx4j.segmentSize", 32 * 1024), MAXIMUM_SERIALIZED_POINT_SIZE);
       OK_HTTP_CLIENT = new OkHttpClient.Builder()
          .connectTimeout(HTTP_CONNECT_TIMEOUT, SECONDS)
          .readTimeout(HTTP_READ_TIMEOUT, SECONDS)
@@ -174,6 +246,7 @@ public class InfluxDB implements AutoCloseable {
                     final String baseUrl,
                     final String credentials) {
       this.connection = connection;
+      this.client = (connection != null) ? connection.client : OK_HTTP_CLIENT;
       this.baseUrl = baseUrl;
       this.credentials = credentials;
       this.sequence = new AtomicLong();
@@ -195,6 +268,40 @@ public class InfluxDB implements AutoCloseable {
       connection.write(point);
    }
 
+   /**
+    * Write the rows of a {@link Columns} to the database, one point per row.  The rows are
+    * assigned a contiguous range of sequence numbers, and the outcome of the write is reported
+    * once, with the sequence number of the last row, to the listener configured with
+    * {@link Builder#setInfluxDbListener(InfluxDbListener)}.
+    *
+    * @param columns the columns to write to the database
+    * @return the sequence number of the last row
+    * @see #writeColumns(Columns, InfluxDbListener)
+    */
+   public long writeColumns(final Columns columns) {
+      return writeColumns(columns, null);
+   }
+
+   /**
+    * Write the rows of a {@link Columns} to the database, one point per row.  The rows are
+    * assigned a contiguous range of sequence numbers, and the outcome of the write is reported
+    * once, with the sequence number of the last row, to the specified listener.  A write that is
+    * spread over several HTTP batches succeeds only if all of them succeed.
+    * <p>
+    * The arrays of the columns must not be modified until the outcome has been reported.
+    *
+    * @param columns the columns to write to the database
+    * @param listener the listener notified of the outcome of the write, or null to notify the
+    *        connection's write listener
+    * @return the sequence number of the last row
+    */
+   public long writeColumns(final Columns columns, final InfluxDbListener listener) {
+      final int rows = columns.getRowCount();
+      final long lastSequence = sequence.addAndGet(rows);
+      connection.write(columns, lastSequence - rows + 1, listener);
+      return lastSequence;
+   }
+
    /**
     * Execute a {@link Query}, with the result JSON being returned as a String.
     *
@@ -276,6 +383,43 @@ public class InfluxDB implements AutoCloseable {
       }
    }
 
+   /**
+    * Execute a {@link Query} asynchronously, with the result JSON completing the returned future
+    * as a String.  The query is bounded by the maximum requests in flight of an asynchronous
+    * connection, see {@link Builder#setMaximumRequestsInFlight(int)}.
+    *
+    * @param query the query to execute
+    * @return a future completed with the query result, or exceptionally if the query fails
+    */
+   public CompletableFuture<String> queryAsync(final Query query) {
+      final String url = this.baseUrl + "/query?db=" + query.getDatabase() + "&q=" + query.getCommandWithUrlEncoded();
+
+      final Request request = new Request.Builder()
+         .url(url)
+         .addHeader("Authorization", this.credentials)
+         .build();
+
+      final CompletableFuture<String> future = new CompletableFuture<>();
+      client.newCall(request).enqueue(new Callback() {
+         @Override
+         public void onFailure(final Call call, final IOException e) {
+            future.completeExceptionally(e);
+         }
+
+         @Override
+         public void onResponse(final Call call, final Response response) {
+            //noinspection ConstantConditions
+            try (final ResponseBody body = response.body()) {
+               future.complete(body.string());
+            }
+            catch (final IOException e) {
+               future.completeExceptionally(e);
+            }
+         }
+      });
+      return future;
+   }
+
    /**
     * Close the connection to the database.
     */
@@ -364,7 +508,7 @@ public class InfluxDB implements AutoCloseable {
             .addHeader("Authorization", this.credentials)
             .build();
 
-         try (final Response response = OK_HTTP_CLIENT.newCall(request).execute()) {
+         try (final Response response = client.newCall(request).execute()) {
             //noinspection ConstantConditions
             return response.body().string();
          }
@@ -383,7 +527,7 @@ public class InfluxDB implements AutoCloseable {
             .addHeader("Authorization", this.credentials)
             .build();
 
-         final Response response = OK_HTTP_CLIENT.newCall(request).execute();
+         final Response response = client.newCall(request).execute();
 
          //noinspection ConstantConditions
          try (final ResponseBody body = response.body();
@@ -424,12 +568,39 @@ public class InfluxDB implements AutoCloseable {
       private String password;
       private String credentials;
       private long autoFlushPeriod = SECONDS.toNanos(1);
+      private long maxFlushDelay = -1L;
+      private int flushThresholdPoints = -1;
+      private int flushThresholdBytes = -1;
       private URL baseURL;
       private Consistency consistency = Consistency.ONE;
       private Precision precision = Precision.NANOSECOND;
+      private boolean adaptivePrecision;
       private ThreadFactory threadFactory;
       private InfluxDbListener listener;
       private boolean failOnConnectionValidationFailure = true;
+      private boolean streaming;
+      private boolean eagerSerialization;
+      private int writerThreads = 1;
+      private int sendBuffers = 2;
+      private boolean asyncWrites;
+      private int maxRequestsInFlight = 4;
+      private boolean http2PriorKnowledge;
+      private Transport.Factory transportFactory;
+      private int queueCapacity = 64 * 1024;
+      private int retryWatermark = -1;
+      private BackpressurePolicy backpressurePolicy = BackpressurePolicy.DROP_NEWEST;
+      private long blockTimeout = MILLISECONDS.toNanos(100);
+      private int sampleRate = 10;
+      private OverflowHandler overflowHandler;
+      private Path spoolDirectory;
+      private long spoolSizeLimit = 1024L * 1024 * 1024;
+      private boolean seriesOrdering;
+      private int maxBatchPoints = MAXIMUM_POINT_BATCH_SIZE;
+      private int maxBatchBytes = SEND_BUFFER_SIZE - 512;
+      private boolean gzip;
+      private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+      private int compressionThreshold = 4096;
+      private DoubleFormat doubleFormat = DoubleFormat.SHORTEST;
 
       private Builder() {
       }
@@ -474,6 +645,21 @@ public class InfluxDB implements AutoCloseable {
          return this;
       }
 
+      /**
+       * Enable or disable per-batch precision coarsening.  When enabled, the precision set with
+       * {@link #setPrecision(Precision)} is the finest precision, and each batch is written at the
+       * coarsest precision that represents the timestamps of all of its points without loss.
+       * For example, points timestamped with {@link Point#timestamp()} are written at millisecond
+       * rather than nanosecond precision, six fewer digits per line.
+       *
+       * @param adaptivePrecision true to enable precision coarsening, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setAdaptivePrecision(final boolean adaptivePrecision) {
+         this.adaptivePrecision = adaptivePrecision;
+         return this;
+      }
+
       public Builder setAutoFlushPeriod(final long periodMs) {
          if (periodMs < 100L) {
             throw new IllegalArgumentException("autoFlushPeriod must be greater than 100ms");
@@ -482,6 +668,195 @@ public class InfluxDB implements AutoCloseable {
          return this;
       }
 
+      /**
+       * Set the maximum time a point waits in the write queue before it is flushed (the
+       * auto-flush period by default).  A writer thread that is waiting for the next auto-flush
+       * is woken by the first point queued after a flush, and flushes when that point has waited
+       * for the delay, so a delay of zero writes points as soon as they are queued when the
+       * connection is lightly loaded.
+       *
+       * @param delay the maximum flush delay, zero or greater
+       * @param unit the unit of the delay
+       * @return this {@link Builder}
+       */
+      public Builder setMaximumFlushDelay(final long delay, final TimeUnit unit) {
+         if (delay < 0) {
+            throw new IllegalArgumentException("maximumFlushDelay cannot be negative");
+         }
+         this.maxFlushDelay = unit.toNanos(delay);
+         return this;
+      }
+
+      /**
+       * Set the number of queued points that wakes the writer thread to flush them immediately,
+       * rather than at the next auto-flush (the maximum batch size by default).
+       *
+       * @param points the number of queued points that triggers a flush
+       * @return this {@link Builder}
+       */
+      public Builder setFlushThreshold(final int points) {
+         if (points < 1) {
+            throw new IllegalArgumentException("flushThreshold must be greater than zero");
+         }
+         this.flushThresholdPoints = points;
+         return this;
+      }
+
+      /**
+       * Set the serialized size, in bytes, of the queued points that wakes the writer thread to
+       * flush them immediately (the maximum batch bytes by default).  The size of queued points
+       * is estimated from the average size of the points of previous batches.  With eager
+       * serialization, each filled segment triggers a flush.
+       *
+       * @param bytes the serialized size of queued points that triggers a flush
+       * @return this {@link Builder}
+       */
+      public Builder setFlushThresholdBytes(final int bytes) {
+         if (bytes < 1) {
+            throw new IllegalArgumentException("flushThresholdBytes must be greater than zero");
+         }
+         this.flushThresholdBytes = bytes;
+         return this;
+      }
+
+      /**
+       * Set the capacity of the write queue of each writer thread, in points (65536 default).
+       * The capacity is rounded up to a power of two.
+       *
+       * @param points the capacity of the write queue
+       * @return this {@link Builder}
+       */
+      public Builder setQueueCapacity(final int points) {
+         if (points < 2) {
+            throw new IllegalArgumentException("queueCapacity must be at least 2");
+         }
+         this.queueCapacity = points;
+         return this;
+      }
+
+      /**
+       * Set the number of queued points above which a failed write is dropped rather than
+       * retried, and above which {@link BackpressurePolicy#SAMPLE} starts sampling (75% of the
+       * queue capacity by default).
+       *
+       * @param points the retry watermark
+       * @return this {@link Builder}
+       */
+      public Builder setRetryWatermark(final int points) {
+         if (points < 1) {
+            throw new IllegalArgumentException("retryWatermark must be greater than zero");
+         }
+         this.retryWatermark = points;
+         return this;
+      }
+
+      /**
+       * Set the behavior of {@link InfluxDB#write(Point)} when the write queue is full
+       * ({@link BackpressurePolicy#DROP_NEWEST} default).  Dropped points are returned to their
+       * {@link PointFactory}, and counted, and the count is logged at most every ten seconds.
+       * <p>
+       * With {@link #setEagerSerialization(boolean)} the policy applies to the queue of filled
+       * segments (1024 segments).  {@code BLOCK} and {@code FALLBACK} act on the point being
+       * written while the queue is full, before it is serialized.  {@code DROP_NEWEST} and
+       * {@code DROP_OLDEST} drop whole segments, whose points have already been accepted, so
+       * their failure is also reported to the {@link InfluxDbListener}.
+       *
+       * @param policy the backpressure policy
+       * @return this {@link Builder}
+       * @see #setBlockTimeout(long, TimeUnit)
+       * @see #setSampleRate(int)
+       * @see #setOverflowHandler(OverflowHandler)
+       */
+      public Builder setBackpressurePolicy(final BackpressurePolicy policy) {
+         if (policy == null) {
+            throw new IllegalArgumentException("backpressurePolicy cannot be null");
+         }
+         this.backpressurePolicy = policy;
+         return this;
+      }
+
+      /**
+       * Set the maximum time a write waits for space in the queue with
+       * {@link BackpressurePolicy#BLOCK} (100ms default).
+       *
+       * @param timeout the maximum time to wait
+       * @param unit the unit of the timeout
+       * @return this {@link Builder}
+       */
+      public Builder setBlockTimeout(final long timeout, final TimeUnit unit) {
+         if (timeout < 0) {
+            throw new IllegalArgumentException("blockTimeout cannot be negative");
+         }
+         this.blockTimeout = unit.toNanos(timeout);
+         return this;
+      }
+
+      /**
+       * Set the sampling rate of {@link BackpressurePolicy#SAMPLE}, where one in {@code rate}
+       * points written above the retry watermark is queued (10 default).
+       *
+       * @param rate the sampling rate
+       * @return this {@link Builder}
+       */
+      public Builder setSampleRate(final int rate) {
+         if (rate < 1) {
+            throw new IllegalArgumentException("sampleRate must be greater than zero");
+         }
+         this.sampleRate = rate;
+         return this;
+      }
+
+      /**
+       * Set the handler of points that do not fit in the write queue, with
+       * {@link BackpressurePolicy#FALLBACK}.
+       *
+       * @param handler the overflow handler
+       * @return this {@link Builder}
+       */
+      public Builder setOverflowHandler(final OverflowHandler handler) {
+         this.overflowHandler = handler;
+         return this;
+      }
+
+      /**
+       * Spool write batches to memory-mapped files in the specified directory while the server is
+       * unavailable, rather than retrying them on the writer thread and dropping them once the
+       * queue passes its retry watermark.  A batch that fails with a server or connection error
+       * is appended to the spool, as are the batches written after it until the spool has
+       * drained, and a replay thread sends the spooled batches in order once the server recovers.
+       * Each batch is forced to disk as it is spooled, and the replay position is persisted as
+       * each batch is acknowledged, so batches still spooled when the connection is closed, or
+       * the process or operating system crashes, are replayed when a connection is next opened
+       * on the same directory.
+       * <p>
+       * The outcome of a spooled batch is reported to the {@link InfluxDbListener} when it has
+       * been replayed.  Batches rejected by the server with a client error are dropped rather
+       * than spooled, and columns are not spooled.  The segment file size is set with the
+       * {@code com.zaxxer.influx4j.spoolSegmentSize} system property (64MB default).
+       *
+       * @param directory the spool directory, created if it does not exist
+       * @return this {@link Builder}
+       */
+      public Builder setSpoolDirectory(final Path directory) {
+         this.spoolDirectory = directory;
+         return this;
+      }
+
+      /**
+       * Set the maximum size, in bytes, of the spool files (1GB default).  Batches that do not fit
+       * in the spool are dropped.
+       *
+       * @param bytes the maximum size of the spool
+       * @return this {@link Builder}
+       */
+      public Builder setSpoolSizeLimit(final long bytes) {
+         if (bytes < 1) {
+            throw new IllegalArgumentException("spoolSizeLimit must be greater than zero");
+         }
+         this.spoolSizeLimit = bytes;
+         return this;
+      }
+
       public Builder setThreadFactory(final ThreadFactory threadFactory) {
          this.threadFactory = threadFactory;
          return this;
@@ -497,9 +872,257 @@ public class InfluxDB implements AutoCloseable {
           return this;
        }
 
+      /**
+       * Serialize points straight into the HTTP request (using chunked transfer encoding) as they
+       * are drained from the write queue, rather than into a fixed size staging buffer.  Drained
+       * points are retained until their batch has been persisted, so that a retry can re-serialize
+       * them.
+       *
+       * @param streaming true to enable streaming writes, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setStreamingWrites(final boolean streaming) {
+         this.streaming = streaming;
+         return this;
+      }
+
+      /**
+       * Serialize points on the calling thread of {@link InfluxDB#write(Point)}, into a buffer
+       * segment owned by that thread, and return them to the {@link PointFactory} pool
+       * immediately.  Only filled segments are queued to the flushing thread, which sends them
+       * as-is, so serialization scales with the number of writing threads.  A segment that is
+       * still filling is handed over at the next flush.
+       * <p>
+       * Points are serialized at the configured precision, so eager serialization cannot be
+       * combined with {@link #setAdaptivePrecision(boolean)}, and it supersedes
+       * {@link #setStreamingWrites(boolean)}.  Points are written in order per writing thread,
+       * but the segments of different threads may be interleaved in any order.  The segment size
+       * is set with the {@code com.zaxxer.influx4j.segmentSize} system property (32KB default).
+       * Filled segments that do not fit in the segment queue are handled by the backpressure
+       * policy, see {@link #setBackpressurePolicy(BackpressurePolicy)}.
+       *
+       * @param eagerSerialization true to enable eager serialization, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setEagerSerialization(final boolean eagerSerialization) {
+         this.eagerSerialization = eagerSerialization;
+         return this;
+      }
+
+      /**
+       * Set the number of writer threads of the connection (1 default).  Each writer has its own
+       * queue, batch buffer and in-flight request, so that a slow write does not hold up the
+       * other writers.  Points are distributed over the writers round-robin, unless
+       * {@link #setSeriesOrdering(boolean)} is enabled.  The outcome of each batch is reported to
+       * the {@link InfluxDbListener} by the writer thread that wrote it, so with more than one
+       * writer the listener is called concurrently, and the final sequence numbers it is passed
+       * are not in order across writers.
+       *
+       * @param threads the number of writer threads
+       * @return this {@link Builder}
+       */
+      public Builder setWriterThreads(final int threads) {
+         if (threads < 1) {
+            throw new IllegalArgumentException("writerThreads must be greater than zero");
+         }
+         this.writerThreads = threads;
+         return this;
+      }
+
+      /**
+       * Set the number of send buffers of each writer thread (2 default).  With more than one
+       * buffer each writer has a sender thread that sends the filled batches, in order, while
+       * the writer drains and serializes the queued points into the next free buffer, so that
+       * serialization overlaps the HTTP round-trip, and a batch being retried does not stop the
+       * writer from preparing the batches behind it.  Streaming writes serialize points as they
+       * are sent, so with {@link #setStreamingWrites(boolean)} batches are always sent by the
+       * writer thread.
+       *
+       * @param buffers the number of send buffers per writer thread
+       * @return this {@link Builder}
+       */
+      public Builder setSendBuffers(final int buffers) {
+         if (buffers < 1) {
+            throw new IllegalArgumentException("sendBuffers must be greater than zero");
+         }
+         this.sendBuffers = buffers;
+         return this;
+      }
+
+      /**
+       * Send write batches with asynchronous HTTP calls ({@code Call.enqueue()}), rather than
+       * from a sender thread per writer.  A writer keeps up to
+       * {@link #setMaximumRequestsInFlight(int)} batches in flight (at least
+       * {@link #setSendBuffers(int)} buffers are allocated per writer), so a single writer can keep
+       * a high-latency link busy, but its batches may be persisted, and their outcomes reported
+       * to the {@link InfluxDbListener}, out of order.  A batch whose asynchronous write fails with
+       * a server error or a timeout, or before its request was sent, is handed back to the writer
+       * thread and sent again synchronously, with the usual retries (or spooling); a batch rejected
+       * with a client error, or whose connection failed after its request was sent, is dropped.
+       * Streaming writes are always sent synchronously by the writer thread.
+       *
+       * @param async true to send batches asynchronously, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setAsynchronousWrites(final boolean async) {
+         this.asyncWrites = async;
+         return this;
+      }
+
+      /**
+       * Set the maximum number of asynchronous requests, writes and queries, in flight on the
+       * connection (4 default).  Further requests wait in the HTTP dispatcher until an earlier
+       * request completes.
+       *
+       * @param requests the maximum number of asynchronous requests in flight
+       * @return this {@link Builder}
+       */
+      public Builder setMaximumRequestsInFlight(final int requests) {
+         if (requests < 1) {
+            throw new IllegalArgumentException("maximumRequestsInFlight must be greater than zero");
+         }
+         this.maxRequestsInFlight = requests;
+         return this;
+      }
+
+      /**
+       * Speak HTTP/2 over cleartext (h2c) with prior knowledge, without an upgrade from HTTP/1.1,
+       * so that the write batches and queries of the connection are multiplexed over a single
+       * TCP connection.  The server must accept HTTP/2 prior knowledge connections, and the
+       * connection protocol must be {@link Protocol#HTTP}; over HTTPS, HTTP/2 is negotiated
+       * automatically.
+       *
+       * @param priorKnowledge true to use HTTP/2 with prior knowledge, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setHttp2PriorKnowledge(final boolean priorKnowledge) {
+         this.http2PriorKnowledge = priorKnowledge;
+         return this;
+      }
+
+      /**
+       * Send write batches through a {@link Transport} created by the specified factory, rather
+       * than the OkHttp client, for example the keep-alive HTTP/1.1 {@link Transport#nio()}
+       * transport, or the {@link Transport#noop()} transport to benchmark the write path.
+       * Queries, and the replay of spooled batches, still use the OkHttp client.  A transport
+       * sends serialized batches, so it cannot be combined with streaming or asynchronous writes.
+       *
+       * @param factory the factory of the transport of the connection
+       * @return this {@link Builder}
+       */
+      public Builder setTransport(final Transport.Factory factory) {
+         this.transportFactory = factory;
+         return this;
+      }
+
+      /**
+       * Distribute points over the writer threads by the hash of their series (measurement and
+       * tags), so that the points of a series are written in order.  Has no effect with a single
+       * writer thread, and cannot be combined with {@link #setEagerSerialization(boolean)}, whose
+       * segments hold the points of many series.
+       *
+       * @param seriesOrdering true to keep the points of a series in order, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setSeriesOrdering(final boolean seriesOrdering) {
+         this.seriesOrdering = seriesOrdering;
+         return this;
+      }
+
+      /**
+       * Set the maximum number of points in a single write batch (5000 default).
+       *
+       * @param points the maximum number of points per batch
+       * @return this {@link Builder}
+       */
+      public Builder setMaximumBatchSize(final int points) {
+         if (points < 1) {
+            throw new IllegalArgumentException("maximumBatchSize must be greater than zero");
+         }
+         this.maxBatchPoints = points;
+         return this;
+      }
+
+      /**
+       * Set the maximum size, in bytes, of a single write batch.  Without streaming writes this is
+       * the size of the staging buffer, and defaults to the socket send buffer size (minimum 1MB).
+       *
+       * @param bytes the maximum number of serialized bytes per batch
+       * @return this {@link Builder}
+       */
+      public Builder setMaximumBatchBytes(final int bytes) {
+         if (bytes < MAXIMUM_SERIALIZED_POINT_SIZE) {
+            throw new IllegalArgumentException("maximumBatchBytes must be at least " + MAXIMUM_SERIALIZED_POINT_SIZE);
+         }
+         this.maxBatchBytes = bytes;
+         return this;
+      }
+
+      /**
+       * Compress write batches with gzip ({@code Content-Encoding: gzip}).  Each connection reuses
+       * a single {@link Deflater} for all of its batches.
+       *
+       * @param gzip true to compress write batches, false (default) otherwise
+       * @return this {@link Builder}
+       */
+      public Builder setGzipCompression(final boolean gzip) {
+         this.gzip = gzip;
+         return this;
+      }
+
+      /**
+       * Set the gzip compression level, from 1 (fastest) to 9 (smallest), or -1 for the default
+       * {@link Deflater} level.
+       *
+       * @param level the compression level
+       * @return this {@link Builder}
+       */
+      public Builder setCompressionLevel(final int level) {
+         if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel must be between -1 and 9");
+         }
+         this.compressionLevel = level;
+         return this;
+      }
+
+      /**
+       * Set the minimum size, in bytes, of a write batch to be compressed (4096 default).  Smaller
+       * batches are sent uncompressed.  Streaming writes do not know the size of a batch until it
+       * has been sent, so with streaming writes every batch is compressed.
+       *
+       * @param bytes the minimum batch size to compress
+       * @return this {@link Builder}
+       */
+      public Builder setCompressionThreshold(final int bytes) {
+         this.compressionThreshold = bytes;
+         return this;
+      }
+
+      /**
+       * Set the default format of double fields ({@link DoubleFormat#SHORTEST} default).  The
+       * format of individual fields can be overridden with
+       * {@link Point#field(String, double, DoubleFormat)}.
+       *
+       * @param format the default double format
+       * @return this {@link Builder}
+       */
+      public Builder setDoubleFormat(final DoubleFormat format) {
+         if (format == null) {
+            throw new IllegalArgumentException("doubleFormat cannot be null");
+         }
+         this.doubleFormat = format;
+         return this;
+      }
+
       public InfluxDB build() {
          if (username == null) throw new IllegalStateException("Influx 'username' must be specified.");
          if (password == null) throw new IllegalStateException("Influx 'password' must be specified.");
+         if (eagerSerialization && adaptivePrecision) throw new IllegalStateException("Eager serialization cannot be combined with adaptive precision.");
+         if (eagerSerialization && seriesOrdering && writerThreads > 1) throw new IllegalStateException("Eager serialization cannot be combined with series ordering.");
+         if (backpressurePolicy == BackpressurePolicy.FALLBACK && overflowHandler == null) throw new IllegalStateException("The FALLBACK backpressure policy requires an overflow handler.");
+         if (retryWatermark > queueCapacity) throw new IllegalStateException("The retry watermark cannot exceed the queue capacity.");
+         if (http2PriorKnowledge && !"http".equalsIgnoreCase(baseURL.getProtocol())) throw new IllegalStateException("HTTP/2 prior knowledge requires the HTTP protocol.");
+         if (transportFactory != null && ((streaming && !eagerSerialization) || asyncWrites)) throw new IllegalStateException("A transport cannot be combined with streaming or asynchronous writes.");
          if (threadFactory == null) threadFactory = new DaemonThreadFactory("InfluxDB flusher " + baseURL.getHost() + ":" + baseURL.getPort() + "-" + database);
 
          this.credentials = Credentials.basic(username, password);
@@ -556,7 +1179,7 @@ public class InfluxDB implements AutoCloseable {
 
       private SocketConnection createConnection(final URL url) {
          try {
-            return new SocketConnection(url, credentials, precision, autoFlushPeriod, threadFactory, listener);
+            return new SocketConnection(url, this);
          }
          catch (final Exception e) {
             throw new RuntimeException(e);
@@ -590,36 +1213,117 @@ public class InfluxDB implements AutoCloseable {
    /*****************************************************************************************
     * SocketConnection is used for HTTP/S protocol interactions.
     */
-   private static class SocketConnection implements Runnable {
+   private static class SocketConnection {
       private static final MediaType MEDIA_TYPE_TEXT = MediaType.parse("text/plain; charset=utf-8");
-      private static final int QUEUE_SIZE = 64 * 1024;
-      private static final int QUEUE_RETRY_LIMIT = 48 * 1024;
+      private static final int COLUMN_QUEUE_SIZE = 1024;
+      private static final int SEGMENT_QUEUE_SIZE = 1024;
+      private static final int SEGMENT_QUEUE_RETRY_LIMIT = 768;
+      private static final long DROP_LOG_INTERVAL = MILLISECONDS.toNanos(Integer.getInteger("com.zaxxer.influx4j.dropLogInterval", 10_000));
+      private static final long BLOCK_PARK_NS = TimeUnit.MICROSECONDS.toNanos(100);
+      private static final int SPOOL_SEGMENT_SIZE = Integer.getInteger("com.zaxxer.influx4j.spoolSegmentSize", 64 * 1024 * 1024);
 
       private final OkHttpClient client;
+      // the transport of write batches, or null to send them with the client
+      private final Transport transport;
       private final Semaphore shutdownSemaphore;
       private final Precision precision;
-      private final MpscArrayQueue<Point> pointQueue;
+      private final boolean adaptivePrecision;
+      // the writers of the connection, each with its own queues and thread
+      private final Flusher[] flushers;
+      private final boolean seriesOrdering;
+      private final AtomicInteger nextFlusher;
+      private final int queueCapacity;
+      private final int retryWatermark;
+      private final BackpressurePolicy backpressurePolicy;
+      private final long blockTimeout;
+      private final int sampleRate;
+      private final OverflowHandler overflowHandler;
+      // the points dropped since the drop count was last logged, at dropLogNs
+      private final AtomicLong droppedPoints;
+      private final AtomicLong dropLogNs;
+      // the spool of batches that failed while the server was unavailable, and its replay thread, or null
+      private final DiskSpool spool;
+      private final Thread replayer;
+      private final boolean eagerSerialization;
+      // with eager serialization, segments filled by producer threads, and a pool of empty segments
+      private final MpmcArrayQueue<Segment> segmentQueue;
+      private final MpmcArrayQueue<Segment> segmentPool;
+      private final ThreadLocal<Producer> threadProducer;
+      private final CopyOnWriteArrayList<Producer> producers;
+      private final int segmentSize;
       private final URL url;
       private final String credentials;
       private final long autoFlushPeriod;
+      // the flush triggers, besides the auto-flush period
+      private final long maxFlushDelay;
+      private final boolean delayTriggered;
+      private final int flushThresholdPoints;
+      private final int flushThresholdBytes;
+      private final boolean streaming;
+      private final int sendBuffers;
+      private final boolean asyncWrites;
+      private final int maxRequestsInFlight;
+      private final int maxBatchPoints;
+      private final int maxBatchBytes;
+      private final boolean gzip;
+      private final int compressionLevel;
+      private final int compressionThreshold;
+      private final DoubleFormat doubleFormat;
       private volatile boolean shutdown;
       private final InfluxDbListener listener;
 
-      SocketConnection(final URL url,
-                       final String credentials,
-                       final Precision precision,
-                       final long autoFlushPeriod,
-                       final ThreadFactory threadFactory,
-                       final InfluxDbListener listener) {
+      SocketConnection(final URL url, final Builder builder) throws IOException {
          this.url = url;
-         this.credentials = credentials;
-         this.precision = precision;
-         this.autoFlushPeriod = autoFlushPeriod;
-         this.listener = listener;
-         this.pointQueue = new MpscArrayQueue<>(QUEUE_SIZE);
-         this.shutdownSemaphore = new Semaphore(1);
-         this.shutdownSemaphore.acquireUninterruptibly();
-         this.client = OK_HTTP_CLIENT.newBuilder()
+         this.credentials = builder.credentials;
+         this.precision = builder.precision;
+         this.adaptivePrecision = builder.adaptivePrecision;
+         this.autoFlushPeriod = builder.autoFlushPeriod;
+         this.maxFlushDelay = (builder.maxFlushDelay >= 0) ? Math.min(builder.maxFlushDelay, autoFlushPeriod) : autoFlushPeriod;
+         this.delayTriggered = maxFlushDelay < autoFlushPeriod;
+         this.listener = builder.listener;
+         this.streaming = builder.streaming;
+         this.sendBuffers = builder.sendBuffers;
+         this.asyncWrites = builder.asyncWrites;
+         this.maxRequestsInFlight = builder.maxRequestsInFlight;
+         this.maxBatchPoints = builder.maxBatchPoints;
+         this.maxBatchBytes = builder.maxBatchBytes;
+         this.flushThresholdPoints = (builder.flushThresholdPoints > 0) ? builder.flushThresholdPoints : maxBatchPoints;
+         this.flushThresholdBytes = (builder.flushThresholdBytes > 0) ? builder.flushThresholdBytes : maxBatchBytes;
+         this.gzip = builder.gzip;
+         this.compressionLevel = builder.compressionLevel;
+         this.compressionThreshold = builder.compressionThreshold;
+         this.doubleFormat = builder.doubleFormat;
+         this.seriesOrdering = builder.seriesOrdering;
+         this.nextFlusher = new AtomicInteger();
+         this.queueCapacity = builder.queueCapacity;
+         this.retryWatermark = (builder.retryWatermark > 0) ? builder.retryWatermark : queueCapacity / 4 * 3;
+         this.backpressurePolicy = builder.backpressurePolicy;
+         this.blockTimeout = builder.blockTimeout;
+         this.sampleRate = builder.sampleRate;
+         this.overflowHandler = builder.overflowHandler;
+         this.droppedPoints = new AtomicLong();
+         this.dropLogNs = new AtomicLong(nanoTime() - DROP_LOG_INTERVAL);
+         this.eagerSerialization = builder.eagerSerialization;
+         this.segmentQueue = eagerSerialization ? new MpmcArrayQueue<>(SEGMENT_QUEUE_SIZE) : null;
+         this.segmentPool = eagerSerialization ? new MpmcArrayQueue<>(SEGMENT_QUEUE_SIZE) : null;
+         this.threadProducer = new ThreadLocal<>();
+         this.producers = new CopyOnWriteArrayList<>();
+         this.segmentSize = Math.min(SEGMENT_SIZE, maxBatchBytes);
+         this.shutdownSemaphore = new Semaphore(0);
+         this.transport = (builder.transportFactory != null) ? builder.transportFactory.create(url, credentials) : null;
+
+         final OkHttpClient.Builder clientBuilder = OK_HTTP_CLIENT.newBuilder();
+         if (asyncWrites) {
+            // a dispatcher of its own, whose threads are created by the connection's thread factory
+            final Dispatcher dispatcher = new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, SECONDS, new SynchronousQueue<>(), builder.threadFactory));
+            dispatcher.setMaxRequests(maxRequestsInFlight);
+            dispatcher.setMaxRequestsPerHost(maxRequestsInFlight);
+            clientBuilder.dispatcher(dispatcher);
+         }
+         if (builder.http2PriorKnowledge) {
+            clientBuilder.protocols(Collections.singletonList(okhttp3.Protocol.H2_PRIOR_KNOWLEDGE));
+         }
+         this.client = clientBuilder
             .retryOnConnectionFailure(true)
             .cookieJar(new CookieJar() {
                private List<Cookie> cookies;
@@ -638,161 +1342,1841 @@ public class InfluxDB implements AutoCloseable {
             })
             .build();
 
-         final Thread flusher = threadFactory.newThread(this);
-         flusher.setDaemon(true);
-         flusher.start();
+         if (builder.spoolDirectory != null) {
+            final long segmentSize = Math.max(Math.min(SPOOL_SEGMENT_SIZE, builder.spoolSizeLimit / 2), maxBatchBytes + DiskSpool.HEADER_SIZE);
+            this.spool = new DiskSpool(builder.spoolDirectory, builder.spoolSizeLimit, (int) Math.min(segmentSize, Integer.MAX_VALUE));
+            this.replayer = builder.threadFactory.newThread(new Replayer());
+            replayer.setDaemon(true);
+         }
+         else {
+            this.spool = null;
+            this.replayer = null;
+         }
+
+         this.flushers = new Flusher[builder.writerThreads];
+         for (int i = 0; i < flushers.length; i++) {
+            flushers[i] = new Flusher(builder.threadFactory);
+         }
+         for (final Flusher flusher : flushers) {
+            flusher.thread.start();
+         }
+         if (replayer != null) {
+            replayer.start();
+         }
       }
 
       void write(final Point point) {
          point.check();
 
-         if (!pointQueue.offer(point)) {
-            LOGGER.log(Level.SEVERE, "Point queue overflow.  Exceeded capacity of {0}, point was dropped.", pointQueue.capacity());
+         if (eagerSerialization) {
+            if (admit(point)) {
+               serialize(point);
+            }
+            return;
          }
-      }
-
-      void close() {
-         if (shutdown) return;
 
-         try {
-            shutdown = true;
-            CONNECTIONS.remove(url);
-            shutdownSemaphore.acquire();
-         }
-         catch (final InterruptedException e) {
-            // just exit
+         final Flusher flusher = flusher(point);
+         if (enqueue(flusher.pointQueue, point, flusher)) {
+            flusher.queued(flusher.pointQueue.size());
          }
       }
 
-      @Override
-      public void run() {
-         final ByteBuffer buffer = ByteBuffer.allocate(SEND_BUFFER_SIZE - 512);
+      /**
+       * Queue the point, applying the backpressure policy when the queue is full.
+       *
+       * @return true if the point was queued
+       */
+      private boolean enqueue(final MessagePassingQueue<Point> pointQueue, final Point point, final Flusher flusher) {
+         if (backpressurePolicy == BackpressurePolicy.SAMPLE && pointQueue.size() > retryWatermark
+             && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            dropped(point);
+            return false;
+         }
 
-         class InfluxRequestBody extends RequestBody {
-            private int length;
+         if (pointQueue.offer(point)) {
+            return true;
+         }
 
-            @Override public long contentLength() {
-               if (buffer.position() > 0) {
-                  buffer.flip();
-                  buffer.mark();
-                  length = buffer.remaining();
-               }
-               return length;
-            }
+         switch (backpressurePolicy) {
+            case BLOCK:
+               final long startNs = nanoTime();
+               flusher.signal();
+               do {
+                  LockSupport.parkNanos(BLOCK_PARK_NS);
+                  if (pointQueue.offer(point)) {
+                     return true;
+                  }
+               } while (nanoTime() - startNs < blockTimeout && !shutdown);
+               break;
+            case DROP_OLDEST:
+               // the queue of this policy has multiple consumers
+               do {
+                  final Point oldest = pointQueue.poll();
+                  if (oldest != null) {
+                     dropped(oldest);
+                  }
+               } while (!pointQueue.offer(point));
+               return true;
+            case FALLBACK:
+               overflowHandler.overflow(point);
+               return false;
+            default:
+               break;
+         }
 
-            @Override public MediaType contentType() {
-               return MEDIA_TYPE_TEXT;
-             }
+         dropped(point);
+         return false;
+      }
 
-            @Override public void writeTo(BufferedSink sink) throws IOException {
-               sink.write(buffer.array(), 0, length);
-               sink.flush();
-            }
+      /**
+       * Apply the backpressure policy to a point to be serialized eagerly, while the segment
+       * queue is full.  The policies that drop points drop whole segments, as they are sealed.
+       *
+       * @return true if the point should be serialized
+       */
+      private boolean admit(final Point point) {
+         if (backpressurePolicy == BackpressurePolicy.SAMPLE && segmentQueue.size() > SEGMENT_QUEUE_RETRY_LIMIT
+             && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            dropped(point);
+            return false;
          }
 
-         final InfluxRequestBody requestBody = new InfluxRequestBody();
+         if (segmentQueue.size() < segmentQueue.capacity()) {
+            return true;
+         }
 
-         final Request request = new Request.Builder()
-            .url(url)
-            .post(requestBody)
-            .addHeader("Authorization", credentials)
-            .build();
+         switch (backpressurePolicy) {
+            case BLOCK:
+               // wait outside of the producer monitor, which the flushers take to seal open segments
+               final long startNs = nanoTime();
+               segmentFlusher().signal();
+               do {
+                  LockSupport.parkNanos(BLOCK_PARK_NS);
+                  if (segmentQueue.size() < segmentQueue.capacity()) {
+                     return true;
+                  }
+               } while (nanoTime() - startNs < blockTimeout && !shutdown);
+               dropped(point);
+               return false;
+            case FALLBACK:
+               overflowHandler.overflow(point);
+               return false;
+            default:
+               return true;
+         }
+      }
 
-         final Call httpCall = client.newCall(request);
+      /**
+       * Drop a sealed segment, whose points were accepted by {@link #write(Point)}, and report
+       * its failure.
+       */
+      private void dropped(final Segment segment) {
+         droppedPoints.addAndGet(segment.points);
+         if (listener != null) {
+            listener.outcome(false, segment.lastSequence);
+         }
+         recycle(segment);
+         logDrops(false);
+      }
 
-         final Supplier<Boolean> writeBuffers = () -> {
-            boolean retried = false;
-            boolean succeeded = false;
-            do {
-               final Call call = httpCall.clone();
-               try (Response response = call.execute()) {
-                  if (response.isSuccessful()) {
-                     succeeded = true;
-                     break;
-                  }
+      private void dropped(final Point point) {
+         point.close();
+         droppedPoints.incrementAndGet();
+         logDrops(false);
+      }
 
-                  final String responseBody = response.body().string();
-                  final String message = response.message();
+      /**
+       * Log the number of points dropped since the last time it was logged, at most once per
+       * drop log interval unless forced.
+       */
+      private void logDrops(final boolean force) {
+         final long lastNs = dropLogNs.get();
+         final long nowNs = nanoTime();
+         if ((force || nowNs - lastNs >= DROP_LOG_INTERVAL) && droppedPoints.get() > 0 && dropLogNs.compareAndSet(lastNs, nowNs)) {
+            final long dropped = droppedPoints.getAndSet(0);
+            if (dropped > 0) {
+               LOGGER.log(Level.SEVERE, "Point queue overflow.  {0} points were dropped ({1} policy, queue capacity {2}), drops are logged at most every {3}ms.",
+                          new Object[] { dropped, backpressurePolicy, eagerSerialization ? segmentQueue.capacity() + " segments" : queueCapacity + " points",
+                                         String.valueOf(TimeUnit.NANOSECONDS.toMillis(DROP_LOG_INTERVAL)) });
+            }
+         }
+      }
 
-                  //noinspection ConstantConditions
-                  LOGGER.warning("Error persisting points, retrying.  Response code: " + response.code()
-                                 + ", message " + message
-                                 + ".  Response body:\n" + responseBody);
+      private Flusher flusher(final Point point) {
+         if (flushers.length == 1) {
+            return flushers[0];
+         }
+         final int index = seriesOrdering ? point.seriesHash() : nextFlusher.getAndIncrement();
+         return flushers[Math.floorMod(index, flushers.length)];
+      }
 
-                  if (!responseBody.contains("timeout")) {
-                     LOGGER.severe("Insertion failed with a non-recoverable error, dropping point batch.");
-                     break;
-                  }
-               }
-               catch (final IOException io) {
-                  LOGGER.log(Level.SEVERE, "Exception persisting points.  Message: " + io.getLocalizedMessage(), io);
-               }
+      /**
+       * @return the flusher to wake for segments, which are written by any flusher
+       */
+      private Flusher segmentFlusher() {
+         return (flushers.length == 1) ? flushers[0] : flushers[Math.floorMod(nextFlusher.getAndIncrement(), flushers.length)];
+      }
 
-               if (LOGGER.isLoggable(Level.FINEST)) {
-                  LOGGER.finest("Request buffer: \n" + HexDumpElf.dump(0, buffer.array(), 0, requestBody.length));
+      /**
+       * Serialize the point into the open segment of the calling thread, and release it.
+       */
+      private void serialize(final Point point) {
+         final Producer producer = producer();
+         try {
+            synchronized (producer) {
+               Segment segment = producer.segment;
+               if (segment == null) {
+                  segment = producer.segment = takeSegment();
                }
 
-               if (pointQueue.size() > QUEUE_RETRY_LIMIT) {
-                  LOGGER.severe("Retry has not succeeded and the pending queue has exceeded 75% capacity, dropping point batch.");
-                  break;
+               if (segment.points == 0) {
+                  // the first point of a segment starts the flush delay
+                  segmentFlusher().queued(0);
                }
 
-               retried = true;
-               buffer.reset();
-               LockSupport.parkNanos(autoFlushPeriod);
-            } while (!shutdown);
-
-            if (retried && succeeded) LOGGER.info("Retry of point persist succeeded.");
-
-            buffer.clear();
-            return succeeded;
-         };
-
-         try {
-            while (!shutdown) {
-               final long startNs = nanoTime();
-               final boolean debug = LOGGER.isLoggable(Level.FINE);
-
-               int batchSize = 0;
-               long lastPointSequence = 0;
-               do {
-                  try (final Point point = pointQueue.poll()) {
-                     if (point == null) break;
+               final ByteBuffer buffer = segment.buffer;
+               final int start = buffer.position();
+               try {
+                  point.write(buffer, precision, doubleFormat);
+               }
+               catch (final BufferOverflowException e) {
+                  buffer.position(start);
+                  if (start == 0) {
+                     throw new IllegalArgumentException("Point exceeds the segment size of " + segmentSize + " bytes");
+                  }
 
-                     if (debug && batchSize == 0) LOGGER.log(Level.FINE, "First point in batch {0}", point);
-                     point.write(buffer, precision);
-                     lastPointSequence = point.getSequence();
+                  // the segment is full, hand it over and start a new one
+                  seal(producer);
+                  segmentFlusher().signal();
+                  segment = producer.segment = takeSegment();
+                  try {
+                     point.write(segment.buffer, precision, doubleFormat);
                   }
-               } while (buffer.remaining() >= MAXIMUM_SERIALIZED_POINT_SIZE && ++batchSize < MAXIMUM_POINT_BATCH_SIZE);
+                  catch (final BufferOverflowException e2) {
+                     segment.buffer.clear();
+                     throw new IllegalArgumentException("Point exceeds the segment size of " + segmentSize + " bytes");
+                  }
+               }
 
-               if (buffer.position() > 0) {
-                  final boolean again = buffer.remaining() < MAXIMUM_SERIALIZED_POINT_SIZE;
+               segment.lastSequence = point.getSequence();
+               if (++segment.points >= Math.min(maxBatchPoints, flushThresholdPoints)) {
+                  seal(producer);
+                  segmentFlusher().signal();
+               }
+            }
+         }
+         finally {
+            point.close();
+         }
+      }
 
-                  final boolean success = writeBuffers.get();
-                  if (listener != null) {
-                     listener.outcome(success, lastPointSequence);
-                  }
+      private Producer producer() {
+         Producer producer = threadProducer.get();
+         if (producer == null) {
+            producer = new Producer();
+            threadProducer.set(producer);
+            producers.add(producer);
+         }
+         return producer;
+      }
 
-                  if (debug) LOGGER.log(Level.FINE, "InfluxDB HTTP write time: {0}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) + "ms");
+      /**
+       * Queue the open segment of the producer to the flusher.  The caller holds the monitor of
+       * the producer.
+       */
+      private void seal(final Producer producer) {
+         final Segment segment = producer.segment;
+         producer.segment = null;
+         if (segmentQueue.offer(segment)) {
+            return;
+         }
 
-                  if (again) {
-                     // skip parking below, we still have more points to process but just ran out of buffer
-                     continue;
-                  }
+         if (backpressurePolicy == BackpressurePolicy.DROP_OLDEST) {
+            // the segment queue has multiple consumers
+            do {
+               final Segment oldest = segmentQueue.poll();
+               if (oldest != null) {
+                  dropped(oldest);
                }
+            } while (!segmentQueue.offer(segment));
+         }
+         else {
+            // the newest segment is dropped, with the other policies admit() found room for it, but
+            // other producers have filled the queue since
+            dropped(segment);
+         }
+      }
 
-               final long parkNs = autoFlushPeriod - (nanoTime() - startNs);
-               if (parkNs > 10000L) {
-                  LockSupport.parkNanos(parkNs);
+      /**
+       * Hand over the partially filled segments of all producers, and forget producers whose
+       * threads have terminated.
+       */
+      private void sealOpenSegments() {
+         for (final Producer producer : producers) {
+            synchronized (producer) {
+               if (producer.segment != null && producer.segment.points > 0) {
+                  seal(producer);
+               }
+               else if (!producer.thread.isAlive()) {
+                  producers.remove(producer);
                }
             }
          }
-         catch (final Exception e) {
-            LOGGER.log(Level.SEVERE, "Unexpected exception", e);
+      }
+
+      private Segment takeSegment() {
+         final Segment segment = segmentPool.poll();
+         return (segment != null) ? segment : new Segment(segmentSize);
+      }
+
+      private void recycle(final Segment segment) {
+         segment.clear();
+         segmentPool.offer(segment);
+      }
+
+      void write(final Columns columns, final long firstSequence, final InfluxDbListener listener) {
+         if (columns.maxRowLength > MAXIMUM_SERIALIZED_POINT_SIZE) {
+            throw new IllegalArgumentException("The rows of " + columns + " may exceed the maximum serialized point size of " + MAXIMUM_SERIALIZED_POINT_SIZE);
          }
-         finally {
-            shutdownSemaphore.release();
+         if (!columns.enqueue(firstSequence, listener != null ? listener : this.listener)) {
+            throw new IllegalStateException(columns + " are already being written");
+         }
+
+         // the rows of a columns are a single series, and are always written by the same writer
+         final Flusher flusher = flushers[Math.floorMod(columns.seriesHash, flushers.length)];
+         if (flusher.columnQueue.offer(columns)) {
+            flusher.queued(columns.getRowCount());
+         }
+         else {
+            LOGGER.log(Level.SEVERE, "Column queue overflow.  Exceeded capacity of {0}, columns were dropped.", flusher.columnQueue.capacity());
+            columns.complete(false);
          }
       }
+
+      void close() {
+         if (shutdown) return;
+
+         try {
+            shutdown = true;
+            CONNECTIONS.remove(url);
+            for (final Flusher flusher : flushers) {
+               LockSupport.unpark(flusher.thread);
+            }
+            if (replayer != null) {
+               LockSupport.unpark(replayer);
+            }
+            shutdownSemaphore.acquire(flushers.length + (replayer != null ? 1 : 0));
+            logDrops(true);
+
+            if (asyncWrites) {
+               client.dispatcher().executorService().shutdown();
+            }
+            if (transport != null) {
+               transport.close();
+            }
+            if (spool != null) {
+               spool.close();
+            }
+         }
+         catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Exception closing the spool", e);
+         }
+         catch (final InterruptedException e) {
+            // just exit
+         }
+      }
+
+      /**
+       * Send the batch, retrying while the server reports a timeout.  A batch that can be spooled
+       * is not retried, a failure that is not a client error leaves it to be spooled instead.
+       *
+       * @param spoolable true if the batch is spooled if it fails
+       * @return true if the batch was persisted successfully
+       */
+      private boolean writeBatch(final Batch batch, final boolean spoolable) {
+         boolean retried = false;
+         boolean succeeded = false;
+         batch.rejected = false;
+         do {
+            try {
+               final int status = execute(batch);
+               if (status >= 200 && status < 300) {
+                  succeeded = true;
+                  break;
+               }
+
+               final String responseBody = batch.errorBody.toString();
+               LOGGER.warning("Error persisting points, retrying.  Response code: " + status
+                              + ".  Response body:\n" + responseBody);
+
+               if (!responseBody.contains("timeout")) {
+                  if (spoolable && status >= 500) {
+                     break;
+                  }
+                  LOGGER.severe("Insertion failed with a non-recoverable error, dropping point batch.");
+                  batch.rejected = true;
+                  break;
+               }
+            }
+            catch (final IOException io) {
+               LOGGER.log(Level.SEVERE, "Exception persisting points.  Message: " + io.getLocalizedMessage(), io);
+            }
+
+            if (LOGGER.isLoggable(Level.FINEST)) {
+               final byte[] bytes = batch.dump();
+               LOGGER.finest("Request buffer: \n" + HexDumpElf.dump(0, bytes, 0, bytes.length));
+            }
+
+            if (spoolable) {
+               break;
+            }
+
+            if (batch.pointQueue.size() > retryWatermark || (eagerSerialization && segmentQueue.size() > SEGMENT_QUEUE_RETRY_LIMIT)) {
+               LOGGER.severe("Retry has not succeeded and the pending queue has exceeded its retry watermark, dropping point batch.");
+               break;
+            }
+
+            retried = true;
+            LockSupport.parkNanos(autoFlushPeriod);
+         } while (!shutdown);
+
+         if (retried && succeeded) LOGGER.info("Retry of point persist succeeded.");
+
+         return succeeded;
+      }
+
+      /**
+       * Send the batch once, through the transport or the client.
+       *
+       * @return the HTTP status code, with the response body of an unsuccessful write in the
+       *         error body of the batch
+       */
+      private int execute(final Batch batch) throws IOException {
+         batch.errorBody.setLength(0);
+         if (transport != null && batch instanceof SerializedBatch) {
+            return ((SerializedBatch) batch).sendTo(transport);
+         }
+
+         try (Response response = prepareCall(batch).execute()) {
+            if (!response.isSuccessful()) {
+               //noinspection ConstantConditions
+               batch.errorBody.append(response.body().string());
+            }
+            return response.code();
+         }
+      }
+
+      private Call prepareCall(final Batch batch) {
+         final Call[] calls = batch.calls;
+         final int index = 2 * batch.precision.ordinal() + (batch.isCompressed() ? 1 : 0);
+         Call call = calls[index];
+         if (call == null) {
+            final Request.Builder builder = batch.request.newBuilder();
+            if (batch.precision != precision) {
+               builder.url(batch.request.url().newBuilder().setQueryParameter("precision", batch.precision.toString()).build());
+            }
+            if (batch.isCompressed()) {
+               builder.header("Content-Encoding", "gzip");
+            }
+            call = client.newCall(builder.build());
+            calls[index] = call;
+         }
+         return call.clone();
+      }
+
+      /**
+       * @return true while spooled batches await replay, so that later batches are spooled behind them
+       */
+      private boolean isSpooling() {
+         synchronized (spool) {
+            return !spool.isEmpty();
+         }
+      }
+
+      /**
+       * Append the batch to the spool, to be sent by the replayer.
+       *
+       * @return true if the batch was spooled, false if it was dropped because the spool is full
+       */
+      private boolean spool(final Batch batch) {
+         final boolean spooled;
+         synchronized (spool) {
+            spool.begin();
+            spooled = batch.spool(spool);
+         }
+
+         if (spooled) {
+            LockSupport.unpark(replayer);
+         }
+         else {
+            LOGGER.severe("The spool is full, dropping point batch.");
+         }
+         return spooled;
+      }
+
+      /**
+       * Get the coarsest precision at which the timestamps of the points, at the connection
+       * precision, can be written without loss.
+       */
+      private Precision coarsestPrecision(final Point[] points, final int count) {
+         Precision coarsest = Precision.coarsest();
+         for (int i = 0; i < count && coarsest != precision; i++) {
+            final long timestamp = points[i].getTimestamp(precision);
+            while (coarsest != precision && timestamp % precision.unitsPer(coarsest) != 0) {
+               coarsest = coarsest.finer();
+            }
+         }
+         return coarsest;
+      }
+
+      /**
+       * The request body of a write, holding one batch of points.  The body can be written
+       * any number of times, so that the same batch can be re-sent when a write is retried.
+       */
+      private abstract class Batch extends RequestBody implements Callback {
+         final GzipEncoder encoder = gzip ? new GzipEncoder(compressionLevel) : null;
+         // the request whose body is this batch, and its calls by batch precision and compression,
+         // created on first use
+         final Request request = new Request.Builder()
+            .url(url)
+            .post(this)
+            .addHeader("Authorization", credentials)
+            .build();
+         final Call[] calls = new Call[2 * Precision.values().length];
+         // the writer that owns this batch, and its queues
+         final Flusher flusher;
+         final MessagePassingQueue<Point> pointQueue;
+         final MpscArrayQueue<Columns> columnQueue;
+         Precision precision = SocketConnection.this.precision;
+         boolean compressed;
+         // true if the server rejected the last write of the batch with a non-recoverable error
+         boolean rejected;
+         // the response body of the last unsuccessful write
+         final StringBuilder errorBody = new StringBuilder();
+         // true once the body of the asynchronous write has been written to the connection
+         volatile boolean requestWritten;
+         long compressionNs;
+         // the number of points and serialized bytes of the last batch
+         int pointCount;
+         long byteCount;
+
+         Batch(final Flusher flusher) {
+            this.flusher = flusher;
+            pointQueue = flusher.pointQueue;
+            columnQueue = flusher.columnQueue;
+         }
+
+         /**
+          * Drain points from the point queue into this batch.
+          *
+          * @param debug true if the first point of the batch should be logged
+          * @return true if the batch contains points to be written
+          */
+         abstract boolean fill(boolean debug);
+
+         /**
+          * Release the points of the written batch.
+          *
+          * @param success true if the batch was persisted successfully
+          * @return the sequence number of the last point in the batch
+          */
+         abstract long complete(boolean success);
+
+         /**
+          * @return true if the last batch was limited by the batch size caps, rather than by the
+          *         points available in the queue
+          */
+         abstract boolean isFull();
+
+         abstract byte[] dump();
+
+         /**
+          * Append the uncompressed line protocol of the batch to the record begun in the spool,
+          * and commit it.
+          *
+          * @return false if the batch does not fit in the spool
+          */
+         abstract boolean spool(DiskSpool spool);
+
+         /**
+          * @return true if the current batch is sent gzip compressed
+          */
+         boolean isCompressed() {
+            return compressed;
+         }
+
+         void logCompression() {
+            if (compressed) {
+               final long bytesIn = encoder.getBytesIn();
+               final long bytesOut = encoder.getBytesOut();
+               LOGGER.log(Level.FINE, "InfluxDB batch compressed from {0} to {1} bytes (ratio {2}) in {3}",
+                          new Object[] { bytesIn, bytesOut, String.format("%.2f", bytesIn / (double) Math.max(1, bytesOut)),
+                                         TimeUnit.NANOSECONDS.toMicros(compressionNs) + "us" });
+            }
+         }
+
+         void release() {
+            if (encoder != null) {
+               encoder.end();
+            }
+         }
+
+         @Override
+         public MediaType contentType() {
+            return MEDIA_TYPE_TEXT;
+         }
+
+         /**
+          * The asynchronous write of the batch completed.  A write that failed with a server error,
+          * or a timeout, is handed back to the flusher to be sent again on the writer thread, a
+          * write rejected with any other error is dropped.
+          */
+         @Override
+         public void onResponse(final Call call, final Response response) {
+            boolean retry = false;
+            try {
+               int status = 0;
+               errorBody.setLength(0);
+               try (final Response completed = response) {
+                  status = completed.code();
+                  if (!completed.isSuccessful()) {
+                     //noinspection ConstantConditions
+                     errorBody.append(completed.body().string());
+                  }
+               }
+               catch (final IOException e) {
+                  LOGGER.log(Level.FINE, "Exception reading the response body.  Message: " + e.getLocalizedMessage());
+               }
+
+               if (status >= 200 && status < 300) {
+                  flusher.report(this, true, false);
+                  if (LOGGER.isLoggable(Level.FINE)) {
+                     logCompression();
+                  }
+                  return;
+               }
+
+               final String responseBody = errorBody.toString();
+               LOGGER.warning("Error persisting points.  Response code: " + status + ".  Response body:\n" + responseBody);
+
+               if (status >= 500 || responseBody.contains("timeout")) {
+                  retry = true;
+                  flusher.sender.retry(this);
+               }
+               else {
+                  LOGGER.severe("Insertion failed with a non-recoverable error, dropping point batch.");
+                  rejected = true;
+                  flusher.report(this, false, false);
+               }
+            }
+            finally {
+               // a batch handed back is returned by the flusher once it is sent again
+               if (!retry) {
+                  flusher.sender.returned(this);
+               }
+            }
+         }
+
+         /**
+          * The asynchronous write of the batch failed.  A write that failed before its request was
+          * sent is handed back to the flusher to be sent again on the writer thread, a write whose
+          * request may have reached the server is dropped rather than persisted twice.
+          */
+         @Override
+         public void onFailure(final Call call, final IOException e) {
+            if (!requestWritten) {
+               LOGGER.log(Level.FINE, "Asynchronous write failed before the request was sent, sending again.  Message: " + e.getLocalizedMessage());
+               flusher.sender.retry(this);
+               return;
+            }
+
+            try {
+               LOGGER.log(Level.SEVERE, "Asynchronous write failed after the request was sent, dropping point batch.  Message: " + e.getLocalizedMessage(), e);
+               flusher.report(this, false, false);
+            }
+            finally {
+               flusher.sender.returned(this);
+            }
+         }
+      }
+
+      /**
+       * A batch that is serialized before it is sent, and so can be sent by a {@link Transport}.
+       * Streaming batches are serialized as they are sent, and are always sent by the client.
+       */
+      private abstract class SerializedBatch extends Batch {
+         // the buffers of the body sent by a transport, and a copy of the compressed body
+         ByteBuffer[] body = new ByteBuffer[1];
+         private ByteBuffer compressedBody;
+
+         SerializedBatch(final Flusher flusher) {
+            super(flusher);
+         }
+
+         /**
+          * Send the batch once through the transport.
+          *
+          * @return the HTTP status code, with the response body of an unsuccessful write in the
+          *         error body of the batch
+          */
+         int sendTo(final Transport transport) throws IOException {
+            // prepare the body first, it may replace the body array
+            final int count = prepareBody();
+            return transport.write(precision, isCompressed(), body, count, errorBody);
+         }
+
+         /**
+          * Set the buffers of the body, from their start, growing the body array if needed.
+          *
+          * @return the number of buffers of the body
+          */
+         abstract int prepareBody();
+
+         /**
+          * Copy the compressed body into a reusable buffer.
+          */
+         ByteBuffer compressedBody(final Buffer gzipBuffer, final Buffer.UnsafeCursor cursor) {
+            final int size = (int) gzipBuffer.size();
+            if (compressedBody == null || compressedBody.capacity() < size) {
+               compressedBody = ByteBuffer.allocateDirect(Math.max(size, maxBatchBytes));
+            }
+            compressedBody.clear();
+            try (final Buffer.UnsafeCursor segments = gzipBuffer.readUnsafe(cursor)) {
+               while (segments.next() != -1) {
+                  compressedBody.put(segments.data, segments.start, segments.end - segments.start);
+               }
+            }
+            compressedBody.flip();
+            return compressedBody;
+         }
+      }
+
+      /**
+       * A batch that is serialized into a fixed size staging buffer as points are drained from
+       * the queue, and sent with a known content length.
+       */
+      private class StagingBatch extends SerializedBatch {
+         final ByteBuffer buffer;
+         private final ByteBuffer sendView;
+         private final Buffer gzipBuffer;
+         private final Buffer.UnsafeCursor cursor;
+         // true if points are drained ahead of serialization, into the flusher, to coarsen precision
+         private final boolean holdPoints;
+         private long lastPointSequence;
+         boolean full;
+
+         StagingBatch(final Flusher flusher) {
+            this(flusher, adaptivePrecision);
+         }
+
+         StagingBatch(final Flusher flusher, final boolean holdPoints) {
+            super(flusher);
+            buffer = DIRECT_SEND_BUFFER ? ByteBuffer.allocateDirect(maxBatchBytes) : ByteBuffer.allocate(maxBatchBytes);
+            sendView = buffer.duplicate();
+            gzipBuffer = new Buffer();
+            cursor = new Buffer.UnsafeCursor();
+            this.holdPoints = holdPoints;
+         }
+
+         @Override
+         final boolean fill(final boolean debug) {
+            pointCount = 0;
+            drain(debug);
+            byteCount = buffer.position();
+
+            compressed = gzip && buffer.position() >= compressionThreshold;
+            if (compressed) {
+               compress();
+            }
+            return buffer.position() > 0;
+         }
+
+         /**
+          * Serialize queued points into the staging buffer.
+          */
+         void drain(final boolean debug) {
+            if (holdPoints) {
+               fillCoarsened(debug);
+            }
+            else {
+               int batchSize = 0;
+               do {
+                  try (final Point point = pointQueue.poll()) {
+                     if (point == null) break;
+
+                     if (debug && batchSize == 0) LOGGER.log(Level.FINE, "First point in batch {0}", point);
+                     point.write(buffer, precision, doubleFormat);
+                     lastPointSequence = point.getSequence();
+                     pointCount++;
+                  }
+               } while (buffer.remaining() >= MAXIMUM_SERIALIZED_POINT_SIZE && ++batchSize < maxBatchPoints);
+
+               full = buffer.remaining() < MAXIMUM_SERIALIZED_POINT_SIZE || batchSize == maxBatchPoints;
+            }
+         }
+
+         /**
+          * The precision of a batch must be known before its first point is serialized, so drain
+          * the points first, then serialize as many as fit.  Points that do not fit are held over
+          * by the flusher to its next batch.
+          */
+         private void fillCoarsened(final boolean debug) {
+            final Point[] held = flusher.held;
+            int heldCount = flusher.heldCount;
+            while (heldCount < held.length) {
+               final Point point = pointQueue.poll();
+               if (point == null) break;
+               held[heldCount++] = point;
+            }
+
+            if (heldCount == 0) {
+               full = false;
+               return;
+            }
+
+            if (debug) LOGGER.log(Level.FINE, "First point in batch {0}", held[0]);
+
+            precision = coarsestPrecision(held, heldCount);
+
+            int written = 0;
+            do {
+               try (final Point point = held[written]) {
+                  point.write(buffer, precision, doubleFormat);
+                  lastPointSequence = point.getSequence();
+                  pointCount++;
+               }
+            } while (++written < heldCount && buffer.remaining() >= MAXIMUM_SERIALIZED_POINT_SIZE);
+
+            heldCount -= written;
+            System.arraycopy(held, written, held, 0, heldCount);
+            Arrays.fill(held, heldCount, heldCount + written, null);
+            flusher.heldCount = heldCount;
+            full = heldCount > 0 || written == held.length;
+         }
+
+         @Override
+         long complete(final boolean success) {
+            buffer.clear();
+            gzipBuffer.clear();
+            return lastPointSequence;
+         }
+
+         private void compress() {
+            final long startNs = nanoTime();
+            try {
+               sendView.limit(buffer.position()).position(0);
+               encoder.start(gzipBuffer);
+               encoder.write(sendView, gzipBuffer);
+               encoder.finish(gzipBuffer);
+            }
+            catch (final IOException e) {
+               // writing into an in-memory Buffer does not throw
+               throw new IllegalStateException(e);
+            }
+            compressionNs = nanoTime() - startNs;
+         }
+
+         @Override
+         boolean isFull() {
+            return full;
+         }
+
+         @Override
+         public long contentLength() {
+            return compressed ? gzipBuffer.size() : buffer.position();
+         }
+
+         @Override
+         public void writeTo(final BufferedSink sink) throws IOException {
+            if (compressed) {
+               // copy (rather than move) the compressed segments, the batch may need to be sent again
+               try (final Buffer.UnsafeCursor segments = gzipBuffer.readUnsafe(cursor)) {
+                  while (segments.next() != -1) {
+                     sink.write(segments.data, segments.start, segments.end - segments.start);
+                  }
+               }
+            }
+            else if (buffer.hasArray()) {
+               sink.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            }
+            else {
+               // write through a separate view so that repeated writes (retries) see the same content
+               sendView.limit(buffer.position()).position(0);
+               sink.write(sendView);
+            }
+            sink.flush();
+            requestWritten = true;
+         }
+
+         @Override
+         byte[] dump() {
+            final byte[] bytes = new byte[buffer.position()];
+            ((ByteBuffer) sendView.limit(bytes.length).position(0)).get(bytes);
+            return bytes;
+         }
+
+         @Override
+         int prepareBody() {
+            if (compressed) {
+               body[0] = compressedBody(gzipBuffer, cursor);
+            }
+            else {
+               sendView.limit(buffer.position()).position(0);
+               body[0] = sendView;
+            }
+            return 1;
+         }
+
+         @Override
+         boolean spool(final DiskSpool spool) {
+            sendView.limit(buffer.position()).position(0);
+            if (!spool.put(sendView)) {
+               return false;
+            }
+            spool.commit(precision, lastPointSequence);
+            return true;
+         }
+      }
+
+      /**
+       * A batch of rows serialized straight from queued {@link Columns}.  Several columns may
+       * share a batch, and the rows of one columns may span several batches, so the outcome of a
+       * columns is reported when its last row has been sent.
+       */
+      private final class ColumnBatch extends StagingBatch {
+         // the columns with rows in the current batch, the last of which may be partially written
+         private final ArrayList<Columns> batched;
+         private Columns current;
+         // true while the batch is handed over to the sender
+         volatile boolean sending;
+
+         ColumnBatch(final Flusher flusher) {
+            super(flusher, false);
+            batched = new ArrayList<>();
+         }
+
+         @Override
+         void drain(final boolean debug) {
+            int batchSize = 0;
+            full = false;
+            do {
+               if (current == null) {
+                  current = columnQueue.poll();
+                  if (current == null) break;
+               }
+
+               if (buffer.remaining() < current.maxRowLength) {
+                  full = true;
+                  break;
+               }
+
+               if (adaptivePrecision) {
+                  final Precision coarsest = current.coarsestPrecision(SocketConnection.this.precision);
+                  if (batchSize == 0) {
+                     precision = coarsest;
+                  }
+                  else if (coarsest.compareTo(precision) < 0) {
+                     // the rows need a finer precision than the rows already in the batch
+                     full = true;
+                     break;
+                  }
+               }
+
+               if (debug && batchSize == 0) LOGGER.log(Level.FINE, "First columns in batch {0}", current);
+
+               batchSize += current.writeRows(buffer, maxBatchPoints - batchSize, precision, doubleFormat);
+               batched.add(current);
+               if (!current.isDrained()) {
+                  // out of batch space
+                  full = true;
+                  break;
+               }
+               current = null;
+            } while (batchSize < maxBatchPoints);
+
+            full |= current != null || !columnQueue.isEmpty();
+         }
+
+         @Override
+         long complete(final boolean success) {
+            super.complete(success);
+
+            long lastRowSequence = -1L;
+            for (final Columns columns : batched) {
+               lastRowSequence = columns.firstSequence + columns.cursor - 1;
+               if (!success) {
+                  columns.failed = true;
+               }
+               if (columns.isDrained()) {
+                  columns.complete(success);
+               }
+            }
+            batched.clear();
+
+            if (!success && current != null && current.cursor > 0) {
+               // the rows of a failed write are dropped
+               current.complete(false);
+               current = null;
+            }
+            return lastRowSequence;
+         }
+      }
+
+      /**
+       * A batch of the segments serialized by producer threads, sent as-is with a known content
+       * length.
+       */
+      private final class SegmentBatch extends SerializedBatch {
+         private final ArrayList<Segment> segments;
+         private final Buffer gzipBuffer;
+         private final Buffer.UnsafeCursor cursor;
+         private int bytes;
+         private boolean full;
+
+         SegmentBatch(final Flusher flusher) {
+            super(flusher);
+            segments = new ArrayList<>();
+            gzipBuffer = new Buffer();
+            cursor = new Buffer.UnsafeCursor();
+         }
+
+         @Override
+         boolean fill(final boolean debug) {
+            if (flusher.pendingSegment == null && segmentQueue.isEmpty()) {
+               // the flusher has caught up, collect the points of segments that are still filling
+               sealOpenSegments();
+            }
+
+            int points = 0;
+            bytes = 0;
+            full = false;
+            for (;;) {
+               final Segment segment = (flusher.pendingSegment != null) ? flusher.pendingSegment : segmentQueue.poll();
+               flusher.pendingSegment = null;
+               if (segment == null) break;
+
+               final int size = segment.buffer.position();
+               if (!segments.isEmpty() && (bytes + size > maxBatchBytes || points + segment.points > maxBatchPoints)) {
+                  flusher.pendingSegment = segment;
+                  full = true;
+                  break;
+               }
+
+               segments.add(segment);
+               bytes += size;
+               points += segment.points;
+            }
+
+            if (segments.isEmpty()) {
+               return false;
+            }
+            pointCount = points;
+            byteCount = bytes;
+
+            if (debug) LOGGER.log(Level.FINE, "First point in batch {0}", firstLine(segments.get(0)));
+
+            compressed = gzip && bytes >= compressionThreshold;
+            if (compressed) {
+               compress();
+            }
+            return true;
+         }
+
+         private void compress() {
+            final long startNs = nanoTime();
+            try {
+               encoder.start(gzipBuffer);
+               for (final Segment segment : segments) {
+                  final ByteBuffer buffer = segment.buffer;
+                  final int size = buffer.position();
+                  buffer.flip();
+                  encoder.write(buffer, gzipBuffer);
+                  buffer.limit(buffer.capacity()).position(size);
+               }
+               encoder.finish(gzipBuffer);
+            }
+            catch (final IOException e) {
+               // writing into an in-memory Buffer does not throw
+               throw new IllegalStateException(e);
+            }
+            compressionNs = nanoTime() - startNs;
+         }
+
+         @Override
+         long complete(final boolean success) {
+            long lastPointSequence = 0;
+            for (final Segment segment : segments) {
+               lastPointSequence = Math.max(lastPointSequence, segment.lastSequence);
+               recycle(segment);
+            }
+            segments.clear();
+            gzipBuffer.clear();
+            return lastPointSequence;
+         }
+
+         @Override
+         boolean isFull() {
+            return full;
+         }
+
+         @Override
+         public long contentLength() {
+            return compressed ? gzipBuffer.size() : bytes;
+         }
+
+         @Override
+         public void writeTo(final BufferedSink sink) throws IOException {
+            if (compressed) {
+               // copy (rather than move) the compressed segments, the batch may need to be sent again
+               try (final Buffer.UnsafeCursor gzipSegments = gzipBuffer.readUnsafe(cursor)) {
+                  while (gzipSegments.next() != -1) {
+                     sink.write(gzipSegments.data, gzipSegments.start, gzipSegments.end - gzipSegments.start);
+                  }
+               }
+            }
+            else {
+               for (final Segment segment : segments) {
+                  sink.write(segment.buffer.array(), 0, segment.buffer.position());
+               }
+            }
+            sink.flush();
+            requestWritten = true;
+         }
+
+         @Override
+         byte[] dump() {
+            final byte[] bytes = new byte[this.bytes];
+            int offset = 0;
+            for (final Segment segment : segments) {
+               System.arraycopy(segment.buffer.array(), 0, bytes, offset, segment.buffer.position());
+               offset += segment.buffer.position();
+            }
+            return bytes;
+         }
+
+         @Override
+         int prepareBody() {
+            if (compressed) {
+               body[0] = compressedBody(gzipBuffer, cursor);
+               return 1;
+            }
+
+            if (body.length < segments.size()) {
+               body = new ByteBuffer[Math.max(segments.size(), 2 * body.length)];
+            }
+            for (int i = 0; i < segments.size(); i++) {
+               final Segment segment = segments.get(i);
+               segment.sendView.limit(segment.buffer.position()).position(0);
+               body[i] = segment.sendView;
+            }
+            return segments.size();
+         }
+
+         @Override
+         boolean spool(final DiskSpool spool) {
+            long lastPointSequence = 0;
+            for (final Segment segment : segments) {
+               if (!spool.put(segment.buffer.array(), 0, segment.buffer.position())) {
+                  return false;
+               }
+               lastPointSequence = Math.max(lastPointSequence, segment.lastSequence);
+            }
+            spool.commit(precision, lastPointSequence);
+            return true;
+         }
+
+         private String firstLine(final Segment segment) {
+            final byte[] bytes = segment.buffer.array();
+            int end = 0;
+            while (end < segment.buffer.position() && bytes[end] != '\n') end++;
+            return new String(bytes, 0, end, StandardCharsets.UTF_8);
+         }
+      }
+
+      /**
+       * A batch that retains the drained points, rather than serializing them up-front, and
+       * serializes them straight into the HTTP sink (chunked) when the request body is written.
+       * Because the points are held until the outcome of the write is known, a retry simply
+       * serializes them again, and the size of a batch is only limited by the configured point
+       * and byte caps.
+       */
+      private final class StreamingBatch extends Batch {
+         private final Point[] points;
+         private final ByteBuffer staging;
+         private int count;
+         private int written;
+         private boolean full;
+
+         StreamingBatch(final Flusher flusher) {
+            super(flusher);
+            points = new Point[maxBatchPoints];
+            staging = ByteBuffer.allocate(MAXIMUM_SERIALIZED_POINT_SIZE);
+         }
+
+         @Override
+         boolean fill(final boolean debug) {
+            while (count < points.length) {
+               final Point point = pointQueue.poll();
+               if (point == null) break;
+
+               if (debug && count == 0) LOGGER.log(Level.FINE, "First point in batch {0}", point);
+               points[count++] = point;
+            }
+
+            if (adaptivePrecision) {
+               precision = coarsestPrecision(points, count);
+            }
+
+            written = count;
+            full = count == points.length;
+            compressed = gzip;
+            return count > 0;
+         }
+
+         @Override
+         long complete(final boolean success) {
+            // the points that were sent are released, whatever the outcome, points beyond the byte cap are carried over
+            final int released = written;
+            final long lastPointSequence = points[released - 1].getSequence();
+            for (int i = 0; i < released; i++) {
+               points[i].close();
+            }
+
+            count -= released;
+            System.arraycopy(points, released, points, 0, count);
+            Arrays.fill(points, count, count + released, null);
+
+            full |= count > 0;
+            return lastPointSequence;
+         }
+
+         @Override
+         boolean isFull() {
+            return full;
+         }
+
+         @Override
+         public long contentLength() {
+            return -1L;
+         }
+
+         @Override
+         public void writeTo(final BufferedSink sink) throws IOException {
+            final long startNs = nanoTime();
+            if (compressed) {
+               encoder.start(sink);
+            }
+
+            long bytes = 0;
+            int i = 0;
+            try {
+               for (; i < count; i++) {
+                  staging.clear();
+                  points[i].write(staging, precision, doubleFormat);
+                  staging.flip();
+
+                  if (i > 0 && bytes + staging.remaining() > maxBatchBytes) {
+                     break;
+                  }
+
+                  bytes += staging.remaining();
+                  if (compressed) {
+                     encoder.write(staging, sink);
+                  }
+                  else {
+                     sink.write(staging);
+                  }
+               }
+            }
+            finally {
+               // if the request fails while it is streamed, the points that were not sent are carried over
+               written = Math.max(1, i);
+            }
+
+            pointCount = i;
+            byteCount = bytes;
+            if (compressed) {
+               encoder.finish(sink);
+               compressionNs = nanoTime() - startNs;
+            }
+            sink.flush();
+         }
+
+         @Override
+         byte[] dump() {
+            try (final Buffer dump = new Buffer()) {
+               writeTo(dump);
+               return dump.readByteArray();
+            }
+            catch (final IOException e) {
+               throw new RuntimeException(e);
+            }
+         }
+
+         @Override
+         boolean spool(final DiskSpool spool) {
+            // the points of the failed request are spooled, points beyond its byte cap are carried over
+            for (int i = 0; i < written; i++) {
+               staging.clear();
+               points[i].write(staging, precision, doubleFormat);
+               staging.flip();
+               if (!spool.put(staging)) {
+                  return false;
+               }
+            }
+            spool.commit(precision, points[written - 1].getSequence());
+            return true;
+         }
+      }
+
+      /**
+       * A writer of the connection, draining its own queues into its own batches on its own
+       * thread.
+       */
+      private final class Flusher implements Runnable {
+         // only dropping the oldest points requires a queue with multiple consumers
+         final MessagePassingQueue<Point> pointQueue = (backpressurePolicy == BackpressurePolicy.DROP_OLDEST)
+                                                       ? new MpmcArrayQueue<>(queueCapacity)
+                                                       : new MpscArrayQueue<>(queueCapacity);
+         final MpscArrayQueue<Columns> columnQueue = new MpscArrayQueue<>(COLUMN_QUEUE_SIZE);
+         final Thread thread;
+         // sends the filled batches while the next is filled, or null if batches are sent by the flusher
+         final Sender sender;
+         // the state carried over from one batch to the next, whichever batch is filled next
+         final Point[] held;
+         int heldCount;
+         Segment pendingSegment;
+         // true once a point has been queued since the last flush, at oldestNs
+         private volatile boolean pending;
+         private volatile long oldestNs;
+         // true once a producer has woken the flusher to flush immediately
+         private volatile boolean signalled;
+         // the queued point count that triggers a flush, from the point and byte thresholds
+         private volatile int wakeThreshold;
+
+         Flusher(final ThreadFactory threadFactory) {
+            thread = threadFactory.newThread(this);
+            thread.setDaemon(true);
+            wakeThreshold = flushThresholdPoints;
+            held = (adaptivePrecision && !streaming) ? new Point[maxBatchPoints] : null;
+            // streaming batches are serialized as they are sent, and carry points over themselves
+            sender = ((sendBuffers > 1 || asyncWrites) && (eagerSerialization || !streaming)) ? new Sender(this, threadFactory) : null;
+         }
+
+         /**
+          * Called by producers after queueing, to wake the flusher when a flush trigger fires.
+          *
+          * @param queued the number of points now queued
+          */
+         void queued(final int queued) {
+            if (!pending) {
+               oldestNs = nanoTime();
+               pending = true;
+               if (delayTriggered) {
+                  // the flush is now due before the next auto-flush
+                  LockSupport.unpark(thread);
+               }
+            }
+            if (queued >= wakeThreshold && !signalled) {
+               signal();
+            }
+         }
+
+         void signal() {
+            signalled = true;
+            LockSupport.unpark(thread);
+         }
+
+         /**
+          * Estimate the number of queued points that reach the byte threshold from the average
+          * size of the points of the batch.
+          */
+         private void adjustThreshold(final Batch batch) {
+            if (batch.pointCount > 0) {
+               final long pointBytes = Math.max(1L, batch.byteCount / batch.pointCount);
+               wakeThreshold = (int) Math.max(1L, Math.min(flushThresholdPoints, flushThresholdBytes / pointBytes));
+            }
+         }
+
+         /**
+          * Write the batch, or spool it, and report its outcome.
+          */
+         void send(final Batch batch, final boolean debug) {
+            final long startNs = nanoTime();
+            final boolean success;
+            final boolean spooled;
+            if (spool != null && isSpooling()) {
+               success = false;
+               spooled = spool(batch);
+            }
+            else {
+               success = writeBatch(batch, spool != null);
+               spooled = !success && spool != null && !batch.rejected && spool(batch);
+            }
+
+            report(batch, success, spooled);
+
+            if (debug) {
+               LOGGER.log(Level.FINE, "InfluxDB HTTP write time: {0}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) + "ms");
+               batch.logCompression();
+            }
+         }
+
+         /**
+          * Write the column batch.  The outcome of columns is reported to their own listeners as
+          * they complete.
+          */
+         void sendColumns(final ColumnBatch columnBatch, final boolean debug) {
+            columnBatch.complete(writeBatch(columnBatch, false));
+            if (debug) {
+               columnBatch.logCompression();
+            }
+         }
+
+         /**
+          * Release the points of the written batch, and report its outcome.
+          */
+         void report(final Batch batch, final boolean success, final boolean spooled) {
+            // the points of a spooled batch are released, its outcome is reported when it is replayed
+            final long lastPointSequence = batch.complete(success);
+            if (listener != null && !spooled) {
+               listener.outcome(success, lastPointSequence);
+            }
+         }
+
+         private Batch newBatch() {
+            return eagerSerialization ? new SegmentBatch(this) : streaming ? new StreamingBatch(this) : new StagingBatch(this);
+         }
+
+         @Override
+         public void run() {
+            final Batch[] batches = new Batch[sender != null ? sender.batches : 1];
+            for (int i = 0; i < batches.length; i++) {
+               batches[i] = newBatch();
+            }
+            if (sender != null) {
+               for (final Batch free : batches) {
+                  sender.free.offer(free);
+               }
+               sender.start();
+            }
+            // the batch being filled, or null while every batch is being sent
+            Batch batch = (sender != null) ? null : batches[0];
+            // created on the first write of columns
+            ColumnBatch columnBatch = null;
+            boolean more = false;
+
+            try {
+               long flushNs = nanoTime();
+               while (!shutdown) {
+                  if (!more && !signalled) {
+                     // flush at the next auto-flush, or when the oldest queued point has waited the maximum delay
+                     long dueNs = flushNs + autoFlushPeriod;
+                     if (pending) {
+                        dueNs = Math.min(dueNs, oldestNs + maxFlushDelay);
+                     }
+                     final long parkNs = dueNs - nanoTime();
+                     if (parkNs > 10000L) {
+                        LockSupport.parkNanos(parkNs);
+                        continue;
+                     }
+                  }
+
+                  flushNs = nanoTime();
+                  final boolean debug = LOGGER.isLoggable(Level.FINE);
+                  signalled = false;
+                  pending = false;
+                  logDrops(false);
+
+                  if (asyncWrites && sender != null) {
+                     sender.resendFailed(debug);
+                  }
+
+                  boolean full = false;
+                  if (batch == null) {
+                     // the sender signals the flusher when a batch is free
+                     batch = sender.nextFree();
+                  }
+                  if (batch != null && batch.fill(debug)) {
+                     adjustThreshold(batch);
+                     if (sender != null) {
+                        full = batch.isFull();
+                        sender.hand(batch);
+                        batch = null;
+                     }
+                     else {
+                        send(batch, debug);
+                        full = batch.isFull();
+                     }
+                  }
+
+                  if (columnBatch == null && !columnQueue.isEmpty()) {
+                     columnBatch = new ColumnBatch(this);
+                  }
+
+                  if (columnBatch != null && !columnBatch.sending && columnBatch.fill(debug)) {
+                     if (sender != null && !asyncWrites) {
+                        // sent in order after the point batches handed over before it
+                        columnBatch.sending = true;
+                        sender.hand(columnBatch);
+                     }
+                     else {
+                        sendColumns(columnBatch, debug);
+                     }
+                     full |= columnBatch.isFull();
+                  }
+
+                  // skip parking when we still have more points to process but just ran out of batch space
+                  more = full;
+               }
+            }
+            catch (final Exception e) {
+               LOGGER.log(Level.SEVERE, "Unexpected exception", e);
+            }
+            finally {
+               if (sender != null) {
+                  sender.finish();
+               }
+               for (final Batch released : batches) {
+                  released.release();
+               }
+               if (columnBatch != null) {
+                  columnBatch.release();
+               }
+               for (Columns columns = columnQueue.poll(); columns != null; columns = columnQueue.poll()) {
+                  columns.complete(false);
+               }
+               shutdownSemaphore.release();
+            }
+         }
+      }
+
+      /**
+       * Sends the batches filled by a flusher, in order, while the flusher fills the next batch.
+       * Filled batches are handed over through the ready queue, and returned through the free
+       * queue once their outcome is known.  With asynchronous writes there is no sender thread,
+       * filled batches are enqueued to the HTTP dispatcher, and returned by their callbacks, or
+       * handed back to be sent again by the flusher, so that dispatcher threads never block.
+       */
+      private final class Sender implements Runnable {
+         final Flusher flusher;
+         // the number of batches of the flusher
+         final int batches;
+         final Thread thread;
+         final SpscArrayQueue<Batch> ready;
+         final MpscArrayQueue<Batch> free;
+         // with asynchronous writes, the number of batches enqueued and not yet returned
+         private final AtomicInteger inFlight;
+         // with asynchronous writes, the batches whose write failed, to be sent again by the flusher
+         private final MpscArrayQueue<Batch> failed;
+         // true while the flusher waits for a free batch
+         private volatile boolean awaitingBatch;
+         private volatile boolean finished;
+
+         Sender(final Flusher flusher, final ThreadFactory threadFactory) {
+            this.flusher = flusher;
+            this.batches = asyncWrites ? Math.max(sendBuffers, maxRequestsInFlight + 1) : sendBuffers;
+            // room for the column batch of the flusher, besides its point batches
+            this.ready = asyncWrites ? null : new SpscArrayQueue<>(batches + 1);
+            this.free = new MpscArrayQueue<>(batches);
+            this.inFlight = new AtomicInteger();
+            this.failed = asyncWrites ? new MpscArrayQueue<>(batches) : null;
+            if (asyncWrites) {
+               thread = null;
+            }
+            else {
+               thread = threadFactory.newThread(this);
+               thread.setDaemon(true);
+            }
+         }
+
+         void start() {
+            if (thread != null) {
+               thread.start();
+            }
+         }
+
+         /**
+          * Called by the flusher to take a free batch to fill.
+          *
+          * @return a free batch, or null if every batch is being sent
+          */
+         Batch nextFree() {
+            Batch batch = free.poll();
+            if (batch == null) {
+               awaitingBatch = true;
+               // the sender may have freed a batch before it could see the flag
+               batch = free.poll();
+            }
+            if (batch != null) {
+               awaitingBatch = false;
+            }
+            return batch;
+         }
+
+         /**
+          * Called by the flusher to hand over a filled batch.
+          */
+         void hand(final Batch batch) {
+            if (!asyncWrites) {
+               ready.offer(batch);
+               LockSupport.unpark(thread);
+            }
+            else if (spool != null && isSpooling()) {
+               // queue up behind the spooled batches
+               flusher.send(batch, false);
+               free.offer(batch);
+            }
+            else {
+               inFlight.incrementAndGet();
+               batch.requestWritten = false;
+               prepareCall(batch).enqueue(batch);
+            }
+         }
+
+         /**
+          * Called by the callback of a failed asynchronous write, to hand the batch back to the
+          * flusher.  The batch stays in flight until the flusher has sent it again.
+          */
+         void retry(final Batch batch) {
+            failed.offer(batch);
+            flusher.signal();
+         }
+
+         /**
+          * Called by the flusher to send the failed asynchronous writes again (or spool them), and
+          * return them.
+          */
+         void resendFailed(final boolean debug) {
+            for (Batch batch = failed.poll(); batch != null; batch = failed.poll()) {
+               try {
+                  flusher.send(batch, debug);
+               }
+               catch (final RuntimeException e) {
+                  fail(batch, e);
+               }
+               returned(batch);
+            }
+         }
+
+         /**
+          * Called when the outcome of a batch is known, to return it to the flusher.
+          */
+         void returned(final Batch batch) {
+            free.offer(batch);
+            if (asyncWrites) {
+               inFlight.decrementAndGet();
+            }
+            if (awaitingBatch || finished) {
+               flusher.signal();
+            }
+         }
+
+         /**
+          * Called by the flusher when it exits, to wait for the batches already handed over.
+          */
+         void finish() {
+            finished = true;
+            if (thread == null) {
+               while (inFlight.get() > 0) {
+                  resendFailed(false);
+                  LockSupport.parkNanos(autoFlushPeriod);
+               }
+               return;
+            }
+
+            LockSupport.unpark(thread);
+            try {
+               thread.join();
+            }
+            catch (final InterruptedException e) {
+               // just exit
+            }
+         }
+
+         @Override
+         public void run() {
+            try {
+               for (;;) {
+                  final Batch batch = ready.poll();
+                  if (batch == null) {
+                     if (finished && ready.isEmpty()) break;
+                     LockSupport.parkNanos(autoFlushPeriod);
+                     continue;
+                  }
+
+                  if (batch instanceof ColumnBatch) {
+                     final ColumnBatch columnBatch = (ColumnBatch) batch;
+                     try {
+                        flusher.sendColumns(columnBatch, LOGGER.isLoggable(Level.FINE));
+                     }
+                     catch (final RuntimeException e) {
+                        fail(columnBatch, e);
+                     }
+                     columnBatch.sending = false;
+                     if (columnBatch.isFull()) {
+                        // more rows are waiting for the column batch
+                        flusher.signal();
+                     }
+                  }
+                  else {
+                     try {
+                        flusher.send(batch, LOGGER.isLoggable(Level.FINE));
+                     }
+                     catch (final RuntimeException e) {
+                        fail(batch, e);
+                     }
+                     returned(batch);
+                  }
+               }
+            }
+            catch (final Exception e) {
+               LOGGER.log(Level.SEVERE, "Unexpected exception", e);
+            }
+         }
+
+         /**
+          * Drop a batch whose send failed unexpectedly, and report its failure, so that the sender
+          * keeps sending the batches that follow it.
+          */
+         private void fail(final Batch batch, final RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Unexpected exception sending point batch, dropping point batch.", e);
+            try {
+               if (batch instanceof ColumnBatch) {
+                  batch.complete(false);
+               }
+               else {
+                  flusher.report(batch, false, false);
+               }
+            }
+            catch (final RuntimeException e2) {
+               LOGGER.log(Level.SEVERE, "Unexpected exception releasing point batch", e2);
+            }
+         }
+      }
+
+      /**
+       * Sends the spooled batches, in order, once the server is available.  A batch is removed
+       * from the spool only once the server has acknowledged it, or rejected it with a client
+       * error.
+       */
+      private final class Replayer implements Runnable {
+         @Override
+         public void run() {
+            int replayed = 0;
+            try {
+               while (!shutdown) {
+                  final ByteBuffer record;
+                  final Precision recordPrecision;
+                  final long lastPointSequence;
+                  synchronized (spool) {
+                     record = spool.peek();
+                     recordPrecision = spool.peekPrecision();
+                     lastPointSequence = spool.peekSequence();
+                  }
+
+                  if (record == null) {
+                     if (replayed > 0) {
+                        LOGGER.log(Level.INFO, "Replayed {0} spooled batches.", replayed);
+                        replayed = 0;
+                     }
+                     LockSupport.parkNanos(autoFlushPeriod);
+                     continue;
+                  }
+
+                  final Boolean success = replay(record, recordPrecision);
+                  if (success == null) {
+                     // the server is still unavailable
+                     LockSupport.parkNanos(autoFlushPeriod);
+                     continue;
+                  }
+
+                  synchronized (spool) {
+                     spool.acknowledge();
+                  }
+                  replayed++;
+                  if (listener != null) {
+                     listener.outcome(success, lastPointSequence);
+                  }
+               }
+            }
+            catch (final Exception e) {
+               LOGGER.log(Level.SEVERE, "Unexpected exception", e);
+            }
+            finally {
+               shutdownSemaphore.release();
+            }
+         }
+
+         /**
+          * Send a spooled batch.
+          *
+          * @return true if the batch was persisted, false if it was rejected, or null if it
+          *         should be sent again later
+          */
+         private Boolean replay(final ByteBuffer record, final Precision recordPrecision) {
+            HttpUrl writeUrl = HttpUrl.get(url);
+            if (recordPrecision != precision) {
+               writeUrl = writeUrl.newBuilder().setQueryParameter("precision", recordPrecision.toString()).build();
+            }
+            final Request request = new Request.Builder()
+               .url(writeUrl)
+               .post(RequestBody.create(MEDIA_TYPE_TEXT, record.array(), record.arrayOffset() + record.position(), record.remaining()))
+               .addHeader("Authorization", credentials)
+               .build();
+
+            try (Response response = client.newCall(request).execute()) {
+               if (response.isSuccessful()) {
+                  return Boolean.TRUE;
+               }
+
+               //noinspection ConstantConditions
+               final String responseBody = response.body().string();
+               LOGGER.warning("Error replaying spooled points.  Response code: " + response.code()
+                              + ", message " + response.message()
+                              + ".  Response body:\n" + responseBody);
+
+               if (response.code() < 500 && !responseBody.contains("timeout")) {
+                  LOGGER.severe("Replay failed with a non-recoverable error, dropping spooled point batch.");
+                  return Boolean.FALSE;
+               }
+            }
+            catch (final IOException io) {
+               LOGGER.log(Level.FINE, "Exception replaying spooled points.  Message: " + io.getLocalizedMessage(), io);
+            }
+            return null;
+         }
+      }
+
+      /**
+       * A buffer of points serialized by one producer thread.
+       */
+      private static final class Segment {
+         final ByteBuffer buffer;
+         // a view of the buffer sent by a transport
+         final ByteBuffer sendView;
+         int points;
+         long lastSequence;
+
+         Segment(final int size) {
+            buffer = ByteBuffer.allocate(size);
+            sendView = buffer.duplicate();
+         }
+
+         void clear() {
+            buffer.clear();
+            points = 0;
+            lastSequence = 0;
+         }
+      }
+
+      /**
+       * The open segment of a producer thread.  The producer fills it, and the flusher may hand it
+       * over, under the monitor of the producer.
+       */
+      private static final class Producer {
+         final Thread thread = Thread.currentThread();
+         Segment segment;
+      }
    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.zaxxer.influx4j.util.Utf8;
+
+/**
+ * A bounded, concurrent cache of measurement names and tag/field keys to their escaped UTF-8
+ * line protocol encoding.  Key vocabularies are typically small and fixed, so once warm,
+ * serializing a key is a single {@code put(byte[])}.
+ * <p>
+ * When the cache is full, keys that are not already cached are encoded on every call.  The
+ * bound can be set with the {@code com.zaxxer.influx4j.keyCacheSize} system property.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+final class KeyCache {
+   private static final int MAX_CACHE_SIZE = Integer.getInteger("com.zaxxer.influx4j.keyCacheSize", 8192);
+
+   /** Measurement names, with commas and spaces escaped. */
+   static final KeyCache MEASUREMENTS = new KeyCache(Utf8.escapeSet(',', ' '));
+
+   /** Tag and field keys, with commas, equal signs and spaces escaped. */
+   static final KeyCache KEYS = new KeyCache(Utf8.escapeSet(',', '=', ' '));
+
+   private final ConcurrentHashMap<String, byte[]> cache;
+   private final Utf8.EscapeSet escapes;
+
+   private KeyCache(final Utf8.EscapeSet escapes) {
+      this.escapes = escapes;
+      this.cache = new ConcurrentHashMap<>();
+   }
+
+   /**
+    * Get the escaped UTF-8 encoding of the specified key.  The returned array is shared and
+    * must not be modified.
+    *
+    * @param key the measurement name or tag/field key
+    * @return the escaped UTF-8 bytes of the key
+    */
+   byte[] get(final String key) {
+      byte[] bytes = cache.get(key);
+      if (bytes == null) {
+         bytes = encode(key);
+         if (cache.size() < MAX_CACHE_SIZE) {
+            final byte[] existing = cache.putIfAbsent(key, bytes);
+            if (existing != null) {
+               bytes = existing;
+            }
+         }
+      }
+      return bytes;
+   }
+
+   int size() {
+      return cache.size();
+   }
+
+   /**
+    * Compare two encoded keys as unsigned bytes, which is the ordering InfluxDB uses for tag keys.
+    *
+    * @param a the first encoded key
+    * @param b the second encoded key
+    * @return a negative integer, zero, or a positive integer as {@code a} is less than, equal to,
+    *         or greater than {@code b}
+    */
+   static int compare(final byte[] a, final byte[] b) {
+      final int len = Math.min(a.length, b.length);
+      for (int i = 0; i < len; i++) {
+         final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+         if (cmp != 0) {
+            return cmp;
+         }
+      }
+      return a.length - b.length;
+   }
+
+   private byte[] encode(final String key) {
+      final byte[] bytes = new byte[Utf8.escapedLength(key, escapes)];
+      Utf8.writeEscaped(ByteBuffer.wrap(bytes), key, escapes);
+      return bytes;
+   }
+}
@@ -0,0 +1,604 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+import static com.zaxxer.influx4j.InfluxDB.MAXIMUM_SERIALIZED_POINT_SIZE;
+
+/**
+ * A streaming parser of InfluxDB line protocol, which fills {@link Point} instances obtained from a
+ * {@link PointFactory}, or only validates the lines.
+ * <p>
+ * Lines are parsed directly from the input bytes.  Measurement names, keys, tag values and string
+ * field values are resolved through a bounded table of recently seen strings, so a line whose
+ * strings have been seen before allocates nothing, and numbers are parsed without intermediate
+ * strings (except for the rare double that cannot be converted exactly with a single
+ * multiplication or division).  Blank lines and comment lines (starting with {@code #}) are
+ * skipped.  A line without a timestamp is timestamped with {@link Point#timestamp()}.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class LineProtocolParser {
+   private static final int CHANNEL_BUFFER_SIZE = 2 * MAXIMUM_SERIALIZED_POINT_SIZE;
+
+   // the characters that terminate or may be escaped in a token
+   private static final int SPACE = 1;
+   private static final int COMMA = 2;
+   private static final int EQUALS = 4;
+
+   private static final int MEASUREMENT_TERMINATORS = SPACE | COMMA;
+   private static final int MEASUREMENT_ESCAPES = SPACE | COMMA;
+   private static final int KEY_TERMINATORS = SPACE | COMMA | EQUALS;
+   private static final int KEY_ESCAPES = SPACE | COMMA | EQUALS;
+   private static final int TAG_VALUE_TERMINATORS = SPACE | COMMA;
+   private static final int TAG_VALUE_ESCAPES = SPACE | COMMA | EQUALS;
+
+   // the exactly representable powers of ten
+   private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+   };
+   private static final long MAX_EXACT_MANTISSA = 1L << 53;
+   private static final long MAX_UNSIGNED_DIV_10 = 1844674407370955161L;
+
+   private final PointFactory pointFactory;
+   private final TimeUnit timeUnit;
+   private final StringTable strings;
+
+   // the unescaped bytes of the current token
+   private byte[] token;
+
+   // the line being parsed, from pos to end
+   private ByteBuffer input;
+   private int pos;
+   private int end;
+   private long lineNumber;
+
+   private ByteBuffer channelBuffer;
+
+   /**
+    * Create a parser that fills points obtained from the specified {@link PointFactory}.
+    *
+    * @param pointFactory the factory that points are obtained from
+    * @param precision the precision of the timestamps of the parsed lines
+    */
+   public LineProtocolParser(final PointFactory pointFactory, final Precision precision) {
+      if (precision == null) {
+         throw new IllegalArgumentException("precision cannot be null");
+      }
+      this.pointFactory = pointFactory;
+      this.timeUnit = precision.timeUnit();
+      this.strings = new StringTable();
+      this.token = new byte[256];
+   }
+
+   /**
+    * Create a parser that only validates lines, with {@link #validateNext(ByteBuffer)} and
+    * {@link #validate(ReadableByteChannel)}.
+    */
+   public LineProtocolParser() {
+      this(null, Precision.NANOSECOND);
+   }
+
+   /**
+    * Parse the next line of the buffer into a {@link Point}.  The buffer is expected to contain
+    * complete lines, the last of which need not end with a newline.  The position of the buffer
+    * is advanced past the parsed line, or past the invalid line if an exception is thrown.
+    *
+    * @param buffer the buffer to parse
+    * @return a point obtained from the {@link PointFactory}, which the caller is responsible for
+    *         writing or closing, or {@code null} if the buffer contains no further lines
+    * @throws IllegalArgumentException if the line is not valid line protocol
+    */
+   public Point next(final ByteBuffer buffer) {
+      if (pointFactory == null) {
+         throw new IllegalStateException("A parser without a PointFactory can only validate");
+      }
+      return nextLine(buffer) ? parseLine(true) : null;
+   }
+
+   /**
+    * Validate the next line of the buffer, without creating a {@link Point}.  The position of the
+    * buffer is advanced past the line.
+    *
+    * @param buffer the buffer to validate
+    * @return true if a valid line was consumed, or false if the buffer contains no further lines
+    * @throws IllegalArgumentException if the line is not valid line protocol
+    */
+   public boolean validateNext(final ByteBuffer buffer) {
+      if (nextLine(buffer)) {
+         parseLine(false);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Parse all lines read from the channel, until the end of the stream, passing each
+    * {@link Point} to the consumer.  The consumer is responsible for writing or closing the point.
+    * Lines cannot be longer than twice {@link InfluxDB#MAXIMUM_SERIALIZED_POINT_SIZE}.
+    *
+    * @param channel the channel to read from
+    * @param consumer the consumer of the parsed points
+    * @return the number of points parsed
+    * @throws IOException if reading the channel fails
+    * @throws IllegalArgumentException if a line is not valid line protocol, in which case the
+    *         remaining lines are not parsed
+    */
+   public long parse(final ReadableByteChannel channel, final Consumer<Point> consumer) throws IOException {
+      if (pointFactory == null) {
+         throw new IllegalStateException("A parser without a PointFactory can only validate");
+      }
+      return readChannel(channel, consumer);
+   }
+
+   /**
+    * Validate all lines read from the channel, until the end of the stream.
+    *
+    * @param channel the channel to read from
+    * @return the number of valid lines
+    * @throws IOException if reading the channel fails
+    * @throws IllegalArgumentException if a line is not valid line protocol
+    */
+   public long validate(final ReadableByteChannel channel) throws IOException {
+      return readChannel(channel, null);
+   }
+
+   private long readChannel(final ReadableByteChannel channel, final Consumer<Point> consumer) throws IOException {
+      if (channelBuffer == null) {
+         channelBuffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+      }
+
+      final ByteBuffer buffer = channelBuffer;
+      buffer.clear();
+
+      long count = 0;
+      boolean eof = false;
+      while (!eof) {
+         eof = channel.read(buffer) < 0;
+         buffer.flip();
+
+         // only parse complete lines, until the end of the stream
+         final int limit = buffer.limit();
+         if (!eof) {
+            int lastNewline = limit - 1;
+            while (lastNewline >= 0 && buffer.get(lastNewline) != '\n') lastNewline--;
+            if (lastNewline < 0 && limit == buffer.capacity()) {
+               throw new IllegalArgumentException("Line " + (lineNumber + 1) + " exceeds " + buffer.capacity() + " bytes");
+            }
+            buffer.limit(lastNewline + 1);
+         }
+
+         while (nextLine(buffer)) {
+            if (consumer != null) {
+               consumer.accept(parseLine(true));
+            }
+            else {
+               parseLine(false);
+            }
+            count++;
+         }
+
+         buffer.limit(limit);
+         buffer.compact();
+      }
+      return count;
+   }
+
+   /**
+    * Advance the buffer past the next non-blank, non-comment line, and make it the current line.
+    */
+   private boolean nextLine(final ByteBuffer buffer) {
+      final int limit = buffer.limit();
+      int start = buffer.position();
+      while (start < limit) {
+         int eol = start;
+         while (eol < limit && buffer.get(eol) != '\n') eol++;
+         buffer.position(eol < limit ? eol + 1 : limit);
+         lineNumber++;
+
+         int lineEnd = eol;
+         if (lineEnd > start && buffer.get(lineEnd - 1) == '\r') lineEnd--;
+         while (start < lineEnd && isWhitespace(buffer.get(start))) start++;
+
+         if (start < lineEnd && buffer.get(start) != '#') {
+            this.input = buffer;
+            this.pos = start;
+            this.end = lineEnd;
+            return true;
+         }
+         start = buffer.position();
+      }
+      return false;
+   }
+
+   /**
+    * Parse the current line.
+    *
+    * @param create true to create a point, false to validate only
+    * @return the point, or {@code null} if only validating
+    */
+   private Point parseLine(final boolean create) {
+      Point point = null;
+      try {
+         final int measurementLength = readToken(MEASUREMENT_TERMINATORS, MEASUREMENT_ESCAPES);
+         if (measurementLength == 0) throw invalid("missing measurement");
+         if (create) {
+            point = pointFactory.createPoint(strings.get(token, measurementLength));
+         }
+
+         while (pos < end && byteAt(pos) == ',') {
+            pos++;
+            final int keyLength = readToken(KEY_TERMINATORS, KEY_ESCAPES);
+            if (keyLength == 0) throw invalid("missing tag key");
+            final String key = (point != null) ? strings.get(token, keyLength) : null;
+
+            expect('=', "tag key without value");
+            final int valueLength = readToken(TAG_VALUE_TERMINATORS, TAG_VALUE_ESCAPES);
+            if (valueLength == 0) throw invalid("missing tag value");
+            if (point != null) {
+               point.tag(key, strings.get(token, valueLength));
+            }
+         }
+
+         if (skipSpaces() == 0) throw invalid("missing fields");
+
+         for (;;) {
+            final int keyLength = readToken(KEY_TERMINATORS, KEY_ESCAPES);
+            if (keyLength == 0) throw invalid("missing field key");
+            final String key = (point != null) ? strings.get(token, keyLength) : null;
+
+            expect('=', "field key without value");
+            parseFieldValue(point, key);
+
+            if (pos == end || byteAt(pos) != ',') break;
+            pos++;
+         }
+
+         if (pos < end && skipSpaces() == 0) throw invalid("unexpected characters after the fields");
+
+         if (pos < end) {
+            final int start = pos;
+            while (pos < end && byteAt(pos) != ' ') pos++;
+            final long timestamp = parseLong(start, pos, "timestamp");
+            skipSpaces();
+            if (pos < end) throw invalid("unexpected characters after the timestamp");
+            if (point != null) {
+               point.timestamp(timestamp, timeUnit);
+            }
+         }
+         else if (point != null) {
+            point.timestamp();
+         }
+
+         return point;
+      }
+      catch (final RuntimeException e) {
+         if (point != null) {
+            point.close();
+         }
+         throw e;
+      }
+   }
+
+   private void parseFieldValue(final Point point, final String key) {
+      if (pos < end && byteAt(pos) == '"') {
+         pos++;
+         final int length = readString();
+         if (point != null) {
+            point.field(key, strings.get(token, length));
+         }
+         return;
+      }
+
+      final int start = pos;
+      while (pos < end && byteAt(pos) != ',' && byteAt(pos) != ' ') pos++;
+      final int valueEnd = pos;
+      if (valueEnd == start) throw invalid("missing field value");
+
+      final byte last = byteAt(valueEnd - 1);
+      if (last == 'i' && valueEnd - start > 1) {
+         final long value = parseLong(start, valueEnd - 1, "integer field");
+         if (point != null) point.field(key, value);
+      }
+      else if (last == 'u' && valueEnd - start > 1) {
+         final long value = parseUnsignedLong(start, valueEnd - 1);
+         if (point != null) point.fieldUnsigned(key, value);
+      }
+      else if (matches(start, valueEnd, "t", "T", "true", "True", "TRUE")) {
+         if (point != null) point.field(key, true);
+      }
+      else if (matches(start, valueEnd, "f", "F", "false", "False", "FALSE")) {
+         if (point != null) point.field(key, false);
+      }
+      else {
+         final double value = parseDouble(start, valueEnd);
+         if (point != null) point.field(key, value);
+      }
+   }
+
+   /**
+    * Read an unescaped token into the token buffer, up to an unescaped terminator.
+    *
+    * @return the length of the token
+    */
+   private int readToken(final int terminators, final int escapes) {
+      int length = 0;
+      while (pos < end) {
+         byte b = byteAt(pos);
+         if ((charClass(b) & terminators) != 0) break;
+
+         if (b == '\\' && pos + 1 < end && (charClass(byteAt(pos + 1)) & escapes) != 0) {
+            b = byteAt(++pos);
+         }
+         appendToken(length++, b);
+         pos++;
+      }
+      return length;
+   }
+
+   /**
+    * Read the unescaped content of a string field value into the token buffer, through the closing
+    * quote.
+    *
+    * @return the length of the string
+    */
+   private int readString() {
+      int length = 0;
+      while (pos < end) {
+         byte b = byteAt(pos++);
+         if (b == '"') {
+            return length;
+         }
+         if (b == '\\' && pos < end && (byteAt(pos) == '"' || byteAt(pos) == '\\')) {
+            b = byteAt(pos++);
+         }
+         appendToken(length++, b);
+      }
+      throw invalid("unterminated string field value");
+   }
+
+   private long parseLong(int start, final int end, final String what) {
+      final boolean negative = byteAt(start) == '-';
+      if (negative) start++;
+      if (start == end) throw invalid("invalid " + what);
+
+      // accumulate negatively, so that Long.MIN_VALUE can be represented
+      final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+      final long multiplyLimit = limit / 10;
+      long value = 0;
+      for (int i = start; i < end; i++) {
+         final int digit = byteAt(i) - '0';
+         if (digit < 0 || digit > 9) throw invalid("invalid " + what);
+         if (value < multiplyLimit) throw invalid(what + " out of range");
+         value *= 10;
+         if (value < limit + digit) throw invalid(what + " out of range");
+         value -= digit;
+      }
+      return negative ? value : -value;
+   }
+
+   private long parseUnsignedLong(final int start, final int end) {
+      long value = 0;
+      for (int i = start; i < end; i++) {
+         final int digit = byteAt(i) - '0';
+         if (digit < 0 || digit > 9) throw invalid("invalid unsigned field");
+         if (Long.compareUnsigned(value, MAX_UNSIGNED_DIV_10) > 0 || (value == MAX_UNSIGNED_DIV_10 && digit > 5)) {
+            throw invalid("unsigned field out of range");
+         }
+         value = value * 10 + digit;
+      }
+      return value;
+   }
+
+   /**
+    * Parse a decimal floating point number.  Numbers with up to 15 significant digits and a
+    * decimal exponent within +/-22 are converted exactly with one multiplication or division, the
+    * rest by {@link Double#parseDouble(String)}.
+    */
+   private double parseDouble(final int start, final int end) {
+      int i = start;
+      final boolean negative = byteAt(i) == '-';
+      if (negative || byteAt(i) == '+') i++;
+
+      long mantissa = 0;
+      int significantDigits = 0;
+      int exponent = 0;
+      boolean digits = false;
+      boolean exact = true;
+
+      for (; i < end && isDigit(byteAt(i)); i++) {
+         digits = true;
+         if (significantDigits < 18) {
+            mantissa = mantissa * 10 + (byteAt(i) - '0');
+            if (mantissa > 0) significantDigits++;
+         }
+         else {
+            exponent++;
+            exact &= byteAt(i) == '0';
+         }
+      }
+
+      if (i < end && byteAt(i) == '.') {
+         for (i++; i < end && isDigit(byteAt(i)); i++) {
+            digits = true;
+            if (significantDigits < 18) {
+               mantissa = mantissa * 10 + (byteAt(i) - '0');
+               if (mantissa > 0) significantDigits++;
+               exponent--;
+            }
+            else {
+               exact &= byteAt(i) == '0';
+            }
+         }
+      }
+      if (!digits) throw invalid("invalid field value");
+
+      if (i < end && (byteAt(i) == 'e' || byteAt(i) == 'E')) {
+         i++;
+         final boolean negativeExponent = i < end && byteAt(i) == '-';
+         if (i < end && (byteAt(i) == '-' || byteAt(i) == '+')) i++;
+         if (i == end) throw invalid("invalid field value");
+
+         int explicit = 0;
+         for (; i < end && isDigit(byteAt(i)); i++) {
+            explicit = Math.min(explicit * 10 + (byteAt(i) - '0'), 100_000);
+         }
+         exponent += negativeExponent ? -explicit : explicit;
+      }
+      if (i != end) throw invalid("invalid field value");
+
+      if (exact && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+         final double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+         return negative ? -value : value;
+      }
+
+      for (int j = start; j < end; j++) {
+         appendToken(j - start, byteAt(j));
+      }
+      return Double.parseDouble(new String(token, 0, end - start, StandardCharsets.ISO_8859_1));
+   }
+
+   private boolean matches(final int start, final int end, final String... words) {
+      for (final String word : words) {
+         if (word.length() == end - start) {
+            int i = 0;
+            while (i < word.length() && byteAt(start + i) == word.charAt(i)) i++;
+            if (i == word.length()) return true;
+         }
+      }
+      return false;
+   }
+
+   private void expect(final char c, final String message) {
+      if (pos >= end || byteAt(pos) != c) throw invalid(message);
+      pos++;
+   }
+
+   private int skipSpaces() {
+      final int start = pos;
+      while (pos < end && byteAt(pos) == ' ') pos++;
+      return pos - start;
+   }
+
+   private void appendToken(final int index, final byte b) {
+      if (index == token.length) {
+         token = Arrays.copyOf(token, token.length * 2);
+      }
+      token[index] = b;
+   }
+
+   private byte byteAt(final int index) {
+      return input.get(index);
+   }
+
+   private IllegalArgumentException invalid(final String reason) {
+      // find the start of the current line, for the message
+      int start = Math.min(pos, end);
+      while (start > 0 && input.get(start - 1) != '\n') start--;
+
+      final byte[] line = new byte[Math.min(end - start, 256)];
+      for (int i = 0; i < line.length; i++) {
+         line[i] = input.get(start + i);
+      }
+      return new IllegalArgumentException("Invalid line protocol at line " + lineNumber + " (" + reason + "): "
+                                          + new String(line, StandardCharsets.UTF_8));
+   }
+
+   private static int charClass(final byte b) {
+      switch (b) {
+         case ' ':
+            return SPACE;
+         case ',':
+            return COMMA;
+         case '=':
+            return EQUALS;
+         default:
+            return 0;
+      }
+   }
+
+   private static boolean isDigit(final byte b) {
+      return b >= '0' && b <= '9';
+   }
+
+   private static boolean isWhitespace(final byte b) {
+      return b == ' ' || b == '\t';
+   }
+
+   /**
+    * A direct-mapped table of recently decoded strings, keyed by their UTF-8 bytes.  A string
+    * that is found is returned without allocation; a string that is not found is decoded and
+    * replaces the entry in its slot.
+    */
+   private static final class StringTable {
+      private static final int SIZE = Integer.getInteger("com.zaxxer.influx4j.parserStringTableSize", 4096);
+      // longer strings are rarely repeated, and are not retained
+      private static final int MAX_LENGTH = 128;
+
+      private final byte[][] keys;
+      private final String[] values;
+      private final int mask;
+
+      StringTable() {
+         final int size = Integer.highestOneBit(Math.max(SIZE, 16));
+         this.keys = new byte[size][];
+         this.values = new String[size];
+         this.mask = size - 1;
+      }
+
+      String get(final byte[] bytes, final int length) {
+         if (length > MAX_LENGTH) {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+         }
+
+         int hash = length;
+         for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[i];
+         }
+         final int slot = (hash ^ (hash >>> 16)) & mask;
+
+         final byte[] key = keys[slot];
+         if (key != null && key.length == length && equals(key, bytes, length)) {
+            return values[slot];
+         }
+
+         final String value = new String(bytes, 0, length, StandardCharsets.UTF_8);
+         keys[slot] = Arrays.copyOf(bytes, length);
+         values[slot] = value;
+         return value;
+      }
+
+      private static boolean equals(final byte[] key, final byte[] bytes, final int length) {
+         for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[i]) return false;
+         }
+         return true;
+      }
+   }
+}
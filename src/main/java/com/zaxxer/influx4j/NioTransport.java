@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jctools.queues.MpmcArrayQueue;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+/**
+ * A keep-alive HTTP/1.1 {@link Transport} over blocking {@link SocketChannel}s, see
+ * {@link Transport#nio()}.  The request head is prepared per precision and compression when the
+ * transport is created, so a write only formats the content length, and sends the head and the
+ * body buffers with a single gathering write.  Of the response, only the status line and the
+ * headers that frame the body (content length, chunked encoding and connection close) are
+ * parsed.  Idle connections are pooled, and a request that cannot be sent on a pooled connection,
+ * which the server may have closed, is sent once more on a new connection.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+final class NioTransport implements Transport {
+   private static final byte[] CRLF_CRLF = { '\r', '\n', '\r', '\n' };
+   private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] TRANSFER_ENCODING = "transfer-encoding:".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] CONNECTION = "connection:".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] CHUNKED_END = { '0', '\r', '\n', '\r', '\n' };
+   private static final int RESPONSE_BUFFER_SIZE = 8 * 1024;
+   private static final long KEEP_ALIVE_NS = TimeUnit.SECONDS.toNanos(InfluxDB.KEEP_ALIVE_DURATION);
+
+   private final InetSocketAddress address;
+   // the request heads, up to the content length value, by precision and compression
+   private final byte[][] heads;
+   private final int maxHeadLength;
+   private final MpmcArrayQueue<Connection> idle;
+
+   NioTransport(final URL writeUrl, final String authorization) {
+      if (!"http".equalsIgnoreCase(writeUrl.getProtocol())) {
+         throw new IllegalArgumentException("The NIO transport supports the http protocol only, not " + writeUrl.getProtocol());
+      }
+
+      final int port = (writeUrl.getPort() != -1) ? writeUrl.getPort() : writeUrl.getDefaultPort();
+      this.address = new InetSocketAddress(writeUrl.getHost(), port);
+      this.idle = new MpmcArrayQueue<>(Math.max(2, InfluxDB.MAX_IDLE_CONNECTIONS));
+
+      final Precision[] precisions = Precision.values();
+      this.heads = new byte[2 * precisions.length][];
+      int maxLength = 0;
+      for (final Precision precision : precisions) {
+         for (int compressed = 0; compressed < 2; compressed++) {
+            final String head = "POST " + writeUrl.getPath() + "?" + withPrecision(writeUrl.getQuery(), precision) + " HTTP/1.1\r\n"
+                                + "Host: " + writeUrl.getHost() + ":" + port + "\r\n"
+                                + "Authorization: " + authorization + "\r\n"
+                                + "Content-Type: text/plain; charset=utf-8\r\n"
+                                + (compressed == 1 ? "Content-Encoding: gzip\r\n" : "")
+                                + "Content-Length: ";
+            final byte[] bytes = head.getBytes(StandardCharsets.UTF_8);
+            heads[2 * precision.ordinal() + compressed] = bytes;
+            maxLength = Math.max(maxLength, bytes.length);
+         }
+      }
+      // room for the content length and the end of the head
+      this.maxHeadLength = maxLength + 20 + CRLF_CRLF.length;
+   }
+
+   @Override
+   public int write(final Precision precision, final boolean compressed, final ByteBuffer[] body, final int count, final StringBuilder error) throws IOException {
+      long contentLength = 0;
+      for (int i = 0; i < count; i++) {
+         body[i].mark();
+         contentLength += body[i].remaining();
+      }
+      final byte[] head = heads[2 * precision.ordinal() + (compressed ? 1 : 0)];
+
+      Connection connection = pollIdle();
+      boolean pooled = connection != null;
+      for (;;) {
+         if (connection == null) {
+            connection = new Connection();
+         }
+         try {
+            final int status = connection.exchange(head, contentLength, body, count, error);
+            connection.idleSinceNs = System.nanoTime();
+            if (!connection.reusable || !idle.offer(connection)) {
+               connection.close();
+            }
+            return status;
+         }
+         catch (final IOException e) {
+            connection.close();
+            if (!pooled || connection.requestSent) {
+               // once the request is sent the server may have persisted it, leave any retry to the caller
+               throw e;
+            }
+
+            // the server closed the idle connection before the request was sent, send it again on a new one
+            for (int i = 0; i < count; i++) {
+               body[i].reset();
+            }
+            error.setLength(0);
+            connection = null;
+            pooled = false;
+         }
+      }
+   }
+
+   /**
+    * @return an idle connection that is still open, or null if there is none
+    */
+   private Connection pollIdle() {
+      for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+         if (System.nanoTime() - connection.idleSinceNs < KEEP_ALIVE_NS && connection.isOpen()) {
+            return connection;
+         }
+         connection.close();
+      }
+      return null;
+   }
+
+   @Override
+   public void close() {
+      for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+         connection.close();
+      }
+   }
+
+   private static String withPrecision(final String query, final Precision precision) {
+      final StringBuilder sb = new StringBuilder();
+      boolean replaced = false;
+      for (final String parameter : query.split("&")) {
+         if (sb.length() > 0) sb.append('&');
+         if (parameter.startsWith("precision=")) {
+            sb.append("precision=").append(precision);
+            replaced = true;
+         }
+         else {
+            sb.append(parameter);
+         }
+      }
+      if (!replaced) {
+         sb.append("&precision=").append(precision);
+      }
+      return sb.toString();
+   }
+
+   /**
+    * A keep-alive connection, with its own request head and response buffers.
+    */
+   private final class Connection {
+      private final SocketChannel channel;
+      // reads through the socket stream, so that the read timeout applies
+      private final InputStream in;
+      private final ByteBuffer head;
+      private final byte[] response;
+      private ByteBuffer[] gather;
+      boolean reusable;
+      // true once the whole request of the current exchange has been written
+      boolean requestSent;
+      long idleSinceNs;
+      private final ByteBuffer probe = ByteBuffer.allocate(1);
+
+      Connection() throws IOException {
+         channel = SocketChannel.open();
+         try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.socket().connect(address, (int) TimeUnit.SECONDS.toMillis(InfluxDB.HTTP_CONNECT_TIMEOUT));
+            channel.socket().setSoTimeout((int) TimeUnit.SECONDS.toMillis(InfluxDB.HTTP_READ_TIMEOUT));
+            in = channel.socket().getInputStream();
+         }
+         catch (final IOException e) {
+            channel.close();
+            throw e;
+         }
+         head = ByteBuffer.allocateDirect(maxHeadLength);
+         response = new byte[RESPONSE_BUFFER_SIZE];
+         gather = new ByteBuffer[8];
+      }
+
+      int exchange(final byte[] requestHead, final long contentLength, final ByteBuffer[] body, final int count, final StringBuilder error) throws IOException {
+         requestSent = false;
+         head.clear();
+         head.put(requestHead);
+         putDecimal(contentLength);
+         head.put(CRLF_CRLF);
+         head.flip();
+
+         if (gather.length < count + 1) {
+            gather = new ByteBuffer[Math.max(count + 1, 2 * gather.length)];
+         }
+         gather[0] = head;
+         System.arraycopy(body, 0, gather, 1, count);
+         try {
+            long remaining = head.remaining() + contentLength;
+            while (remaining > 0) {
+               remaining -= channel.write(gather, 0, count + 1);
+            }
+         }
+         finally {
+            Arrays.fill(gather, 0, count + 1, null);
+         }
+         requestSent = true;
+
+         return readResponse(error);
+      }
+
+      private int readResponse(final StringBuilder error) throws IOException {
+         int length = 0;
+         int headEnd = -1;
+         while (headEnd < 0) {
+            if (length == response.length) {
+               throw new IOException("The response head exceeds " + response.length + " bytes");
+            }
+            final int from = Math.max(0, length - CRLF_CRLF.length + 1);
+            length += read(length);
+            headEnd = indexOf(CRLF_CRLF, from, length);
+         }
+         headEnd += CRLF_CRLF.length;
+
+         // "HTTP/1.1 204 No Content"
+         if (headEnd < 12 || response[0] != 'H' || response[8] != ' ') {
+            throw new IOException("Malformed response status line");
+         }
+         final int status = (response[9] - '0') * 100 + (response[10] - '0') * 10 + (response[11] - '0');
+         final boolean success = status >= 200 && status < 300;
+
+         // only the framing headers are of interest
+         long contentLength = -1;
+         boolean chunked = false;
+         reusable = true;
+         for (int line = nextLine(0, headEnd); line < headEnd - 2; line = nextLine(line, headEnd)) {
+            if (matchesIgnoreCase(line, CONTENT_LENGTH)) {
+               contentLength = parseDecimal(line + CONTENT_LENGTH.length, headEnd);
+            }
+            else if (matchesIgnoreCase(line, TRANSFER_ENCODING)) {
+               chunked = true;
+            }
+            else if (matchesIgnoreCase(line, CONNECTION) && containsIgnoreCase(line, headEnd, CLOSE)) {
+               reusable = false;
+            }
+         }
+
+         int bodyStart = headEnd;
+         if (chunked) {
+            // the end of a chunked body is found without decoding it, and the connection is not reused
+            reusable = false;
+            int scanFrom = headEnd;
+            while (length - CHUNKED_END.length < scanFrom || indexOf(CHUNKED_END, length - CHUNKED_END.length, length) < 0) {
+               if (!success) error.append(new String(response, bodyStart, length - bodyStart, StandardCharsets.UTF_8));
+               bodyStart = length = keepTail(scanFrom, length);
+               scanFrom = 0;
+               length += read(length);
+            }
+            if (!success) error.append(new String(response, bodyStart, length - bodyStart, StandardCharsets.UTF_8));
+         }
+         else if (contentLength >= 0 || (status != 204 && status != 304 && status >= 200)) {
+            // without a content length the body ends when the server closes the connection
+            long remaining = (contentLength >= 0) ? contentLength - (length - bodyStart) : Long.MAX_VALUE;
+            reusable &= contentLength >= 0;
+            for (;;) {
+               if (!success) error.append(new String(response, bodyStart, length - bodyStart, StandardCharsets.UTF_8));
+               if (remaining <= 0) break;
+               final int read = in.read(response, 0, response.length);
+               if (read < 0) {
+                  if (contentLength >= 0) throw new EOFException("The server closed the connection before the end of the response");
+                  break;
+               }
+               bodyStart = 0;
+               length = read;
+               remaining -= read;
+            }
+         }
+         return status;
+      }
+
+      private int read(final int offset) throws IOException {
+         final int read = in.read(response, offset, response.length - offset);
+         if (read < 0) {
+            throw new EOFException("The server closed the connection");
+         }
+         return read;
+      }
+
+      /**
+       * Keep the last bytes of the body, in which the end of a chunked body may begin.
+       */
+      private int keepTail(final int start, final int end) {
+         final int tail = Math.min(end - start, CHUNKED_END.length - 1);
+         System.arraycopy(response, end - tail, response, 0, tail);
+         return tail;
+      }
+
+      private int nextLine(int offset, final int end) {
+         while (offset < end - 1 && !(response[offset] == '\r' && response[offset + 1] == '\n')) offset++;
+         return offset + 2;
+      }
+
+      private int indexOf(final byte[] pattern, final int from, final int end) {
+         outer:
+         for (int i = from; i <= end - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+               if (response[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+         }
+         return -1;
+      }
+
+      private boolean matchesIgnoreCase(final int offset, final byte[] name) {
+         if (offset + name.length > response.length) return false;
+         for (int i = 0; i < name.length; i++) {
+            if ((response[offset + i] | 0x20) != name[i]) return false;
+         }
+         return true;
+      }
+
+      private boolean containsIgnoreCase(final int offset, final int end, final byte[] value) {
+         for (int i = offset; i < end && response[i] != '\r'; i++) {
+            if (matchesIgnoreCase(i, value)) return true;
+         }
+         return false;
+      }
+
+      private long parseDecimal(int offset, final int end) {
+         while (offset < end && response[offset] == ' ') offset++;
+         long value = 0;
+         while (offset < end && response[offset] >= '0' && response[offset] <= '9') {
+            value = value * 10 + (response[offset++] - '0');
+         }
+         return value;
+      }
+
+      private void putDecimal(final long value) {
+         if (value >= 10) {
+            putDecimal(value / 10);
+         }
+         head.put((byte) ('0' + value % 10));
+      }
+
+      /**
+       * Probe the idle connection without blocking, a server that closed it is read as end of
+       * stream.
+       */
+      boolean isOpen() {
+         try {
+            channel.configureBlocking(false);
+            try {
+               probe.clear();
+               return channel.read(probe) == 0;
+            }
+            finally {
+               channel.configureBlocking(true);
+            }
+         }
+         catch (final IOException e) {
+            return false;
+         }
+      }
+
+      void close() {
+         try {
+            channel.close();
+         }
+         catch (final IOException e) {
+            // nothing
+         }
+      }
+   }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.nio.ByteBuffer;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+/**
+ * A {@link Transport} that discards every batch, see {@link Transport#noop()}.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+final class NoopTransport implements Transport {
+   private static final int NO_CONTENT = 204;
+
+   @Override
+   public int write(final Precision precision, final boolean compressed, final ByteBuffer[] body, final int count, final StringBuilder error) {
+      for (int i = 0; i < count; i++) {
+         body[i].position(body[i].limit());
+      }
+      return NO_CONTENT;
+   }
+
+   @Override
+   public void close() {
+   }
+}
@@ -16,17 +16,25 @@
 
 package com.zaxxer.influx4j;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.zaxxer.influx4j.InfluxDB.Precision;
 import com.zaxxer.influx4j.util.PrimitiveArraySort;
+import com.zaxxer.influx4j.util.TimestampFormatter;
+import com.zaxxer.influx4j.util.Utf8;
 
 import static com.zaxxer.influx4j.InfluxDB.MAXIMUM_SERIALIZED_POINT_SIZE;
-import static com.zaxxer.influx4j.util.FastValue2Buffer.writeDoubleToBuffer;
 import static com.zaxxer.influx4j.util.FastValue2Buffer.writeLongToBuffer;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeUnsignedLongToBuffer;
 
 /**
  * An instance of this class represents a single <i>measurement</i> and associated <i>tags</i>,
@@ -36,19 +44,42 @@ import static com.zaxxer.influx4j.util.FastValue2Buffer.writeLongToBuffer;
  * @author brett.wooldridge at gmail.com
  */
 public class Point implements AutoCloseable {
-   private final static int MAX_TAG_COUNT = Integer.getInteger("com.zaxxer.influx4j.maxTagCount", 64);
-   private final static int MAX_FIELD_COUNT = Integer.getInteger("com.zaxxer.influx4j.maxTagCount", 64);
+   final static int MAX_TAG_COUNT = Integer.getInteger("com.zaxxer.influx4j.maxTagCount", 1024);
+   final static int MAX_FIELD_COUNT = Integer.getInteger("com.zaxxer.influx4j.maxFieldCount", 1024);
+   // the capacity of the tag and field arrays when first used, they double as needed up to the maximum
+   private final static int INITIAL_CAPACITY = Integer.getInteger("com.zaxxer.influx4j.initialPairCapacity", 4);
+
+   private static final String[] NO_STRINGS = new String[0];
+   private static final byte[][] NO_KEYS = new byte[0][];
+   private static final int[] NO_INTS = new int[0];
+   private static final long[] NO_LONGS = new long[0];
+   private static final double[] NO_DOUBLES = new double[0];
+   private static final boolean[] NO_BOOLEANS = new boolean[0];
+   private static final DoubleFormat[] NO_FORMATS = new DoubleFormat[0];
 
    private final ParallelTagArrayComparator tagKeyComparator;
    private final AtomicInteger retentionCount;
 
-   private final StringPair[] tags;
-   private final int[] tagSort;
+   // Tags and fields are stored as parallel arrays of names and values, per type.  The arrays are
+   // allocated on first use and grown on demand, and retain their capacity while the point is pooled.
+   private String[] tagNames;
+   private String[] tagValues;
+   private byte[][] tagKeys;
+   private int[] tagSort;
 
-   private final LongPair[] longFields;
-   private final StringPair[] stringFields;
-   private final DoublePair[] doubleFields;
-   private final BooleanPair[] boolFields;
+   private String[] longNames;
+   private long[] longValues;
+   private boolean[] longUnsigned;
+
+   private String[] stringNames;
+   private String[] stringValues;
+
+   private String[] doubleNames;
+   private double[] doubleValues;
+   private DoubleFormat[] doubleFormats;
+
+   private String[] booleanNames;
+   private boolean[] booleanValues;
 
    private String measurement;
    private long timestamp;
@@ -63,25 +94,32 @@ public class Point implements AutoCloseable {
    private int stringFieldIndex;
    private int booleanFieldIndex;
 
+   // non-null for points created from a template, whose set fields are tracked by index in the mask
+   private PointTemplate template;
+   private long templateFieldMask;
+
    long sequence;
 
    Point(final PointFactory parentFactory) {
       this.parentFactory = parentFactory;
-      this.tags = new StringPair[MAX_TAG_COUNT];
-      this.tagSort = new int[MAX_TAG_COUNT];
       this.retentionCount = new AtomicInteger(1);
-      this.tagKeyComparator = new ParallelTagArrayComparator(tags);
+      this.tagKeyComparator = new ParallelTagArrayComparator();
 
-      this.longFields = new LongPair[MAX_FIELD_COUNT];
-      this.boolFields = new BooleanPair[MAX_FIELD_COUNT];
-      this.stringFields = new StringPair[MAX_FIELD_COUNT];
-      this.doubleFields = new DoublePair[MAX_FIELD_COUNT];
+      this.tagNames = NO_STRINGS;
+      this.tagValues = NO_STRINGS;
+      this.tagKeys = NO_KEYS;
+      this.tagSort = NO_INTS;
 
-      for (int i = 0; i < MAX_FIELD_COUNT; i++) tags[i] = new StringPair();
-      for (int i = 0; i < MAX_FIELD_COUNT; i++) longFields[i] = new LongPair();
-      for (int i = 0; i < MAX_FIELD_COUNT; i++) boolFields[i] = new BooleanPair();
-      for (int i = 0; i < MAX_FIELD_COUNT; i++) stringFields[i] = new StringPair();
-      for (int i = 0; i < MAX_FIELD_COUNT; i++) doubleFields[i] = new DoublePair();
+      this.longNames = NO_STRINGS;
+      this.longValues = NO_LONGS;
+      this.longUnsigned = NO_BOOLEANS;
+      this.stringNames = NO_STRINGS;
+      this.stringValues = NO_STRINGS;
+      this.doubleNames = NO_STRINGS;
+      this.doubleValues = NO_DOUBLES;
+      this.doubleFormats = NO_FORMATS;
+      this.booleanNames = NO_STRINGS;
+      this.booleanValues = NO_BOOLEANS;
    }
 
    /**
@@ -91,8 +129,11 @@ public class Point implements AutoCloseable {
     * @return this {@link Point}
     */
    public Point tag(final String tag, final String value) {
+      checkNotTemplated();
       if (tag != null && value != null) {
-         tags[tagIndex++].setPair(tag, value);
+         if (tagIndex == tagNames.length) growTags(tagIndex + 1);
+         tagNames[tagIndex] = tag;
+         tagValues[tagIndex++] = value;
       }
       return this;
    }
@@ -104,8 +145,11 @@ public class Point implements AutoCloseable {
     * @return this {@link Point}
     */
    public Point field(final String field, final String value) {
+      checkNotTemplated();
       if (field != null && value != null) {
-         stringFields[stringFieldIndex++].setPair(field, value);
+         if (stringFieldIndex == stringNames.length) growStringFields(stringFieldIndex + 1);
+         stringNames[stringFieldIndex] = field;
+         stringValues[stringFieldIndex++] = value;
       }
       return this;
    }
@@ -117,8 +161,26 @@ public class Point implements AutoCloseable {
     * @return this {@link Point}
     */
    public Point field(final String field, final long value) {
+      checkNotTemplated();
       if (field != null) {
-         longFields[longFieldIndex++].setPair(field, value);
+         setLongField(field, value, false);
+      }
+      return this;
+   }
+
+   /**
+    * Add an unsigned 64-bit integer field to the {@link Point} with the specified value.  The
+    * value is interpreted as unsigned, so negative values represent values of 2<sup>63</sup>
+    * and above, and is written with the line protocol {@code u} suffix.  Unsigned fields are
+    * returned by the long integer field accessors, as the same 64 bits.
+    * @param field the name of the field
+    * @param value the unsigned long value associated with the field
+    * @return this {@link Point}
+    */
+   public Point fieldUnsigned(final String field, final long value) {
+      checkNotTemplated();
+      if (field != null) {
+         setLongField(field, value, true);
       }
       return this;
    }
@@ -130,8 +192,28 @@ public class Point implements AutoCloseable {
     * @return this {@link Point}
     */
    public Point field(final String field, final double value) {
+      checkNotTemplated();
       if (field != null) {
-         doubleFields[doubleFieldIndex++].setPair(field, value);
+         setDoubleField(field, value, null);
+      }
+      return this;
+   }
+
+   /**
+    * Add a floating point double field to the {@link Point} with the specified value, serialized
+    * with the specified {@link DoubleFormat} rather than the connection's default format.
+    * @param field the name of the field
+    * @param value the double value associated with the field
+    * @param format the format used to serialize the value
+    * @return this {@link Point}
+    */
+   public Point field(final String field, final double value, final DoubleFormat format) {
+      checkNotTemplated();
+      if (format == null) {
+         throw new IllegalArgumentException("format cannot be null");
+      }
+      if (field != null) {
+         setDoubleField(field, value, format);
       }
       return this;
    }
@@ -143,12 +225,105 @@ public class Point implements AutoCloseable {
     * @return this {@link Point}
     */
    public Point field(final String field, final boolean value) {
+      checkNotTemplated();
       if (field != null) {
-         boolFields[booleanFieldIndex++].setPair(field, value);
+         if (booleanFieldIndex == booleanNames.length) growBooleanFields(booleanFieldIndex + 1);
+         booleanNames[booleanFieldIndex] = field;
+         booleanValues[booleanFieldIndex++] = value;
+      }
+      return this;
+   }
+
+   /**
+    * Set the value of a tag of a {@link Point} created from a {@link PointTemplate}.
+    * @param index the index of the tag in the template
+    * @param value the string value of the tag, or {@code null} to omit the tag
+    * @return this {@link Point}
+    */
+   public Point setTag(final int index, final String value) {
+      checkTemplate();
+      if (index < 0 || index >= template.tagNames.length) {
+         throw new IndexOutOfBoundsException("Tag index " + index + " out of range for " + template);
       }
+      tagValues[index] = value;
       return this;
    }
 
+   /**
+    * Set the value of a long integer (or unsigned) field of a {@link Point} created from a
+    * {@link PointTemplate}.
+    * @param index the index of the field in the template
+    * @param value the long value of the field
+    * @return this {@link Point}
+    */
+   public Point setLong(final int index, final long value) {
+      final int type = templateFieldType(index);
+      if (type != PointTemplate.LONG && type != PointTemplate.UNSIGNED) {
+         throw new IllegalArgumentException("Field " + index + " of " + template + " is not a long field");
+      }
+      longValues[template.fieldSlots[index]] = value;
+      templateFieldMask |= 1L << index;
+      return this;
+   }
+
+   /**
+    * Set the value of a double field of a {@link Point} created from a {@link PointTemplate}.
+    * @param index the index of the field in the template
+    * @param value the double value of the field
+    * @return this {@link Point}
+    */
+   public Point setDouble(final int index, final double value) {
+      if (templateFieldType(index) != PointTemplate.DOUBLE) {
+         throw new IllegalArgumentException("Field " + index + " of " + template + " is not a double field");
+      }
+      doubleValues[template.fieldSlots[index]] = value;
+      templateFieldMask |= 1L << index;
+      return this;
+   }
+
+   /**
+    * Set the value of a string field of a {@link Point} created from a {@link PointTemplate}.
+    * @param index the index of the field in the template
+    * @param value the string value of the field, or {@code null} to omit the field
+    * @return this {@link Point}
+    */
+   public Point setString(final int index, final String value) {
+      if (templateFieldType(index) != PointTemplate.STRING) {
+         throw new IllegalArgumentException("Field " + index + " of " + template + " is not a string field");
+      }
+      stringValues[template.fieldSlots[index]] = value;
+      if (value != null) {
+         templateFieldMask |= 1L << index;
+      }
+      else {
+         templateFieldMask &= ~(1L << index);
+      }
+      return this;
+   }
+
+   /**
+    * Set the value of a boolean field of a {@link Point} created from a {@link PointTemplate}.
+    * @param index the index of the field in the template
+    * @param value the boolean value of the field
+    * @return this {@link Point}
+    */
+   public Point setBoolean(final int index, final boolean value) {
+      if (templateFieldType(index) != PointTemplate.BOOLEAN) {
+         throw new IllegalArgumentException("Field " + index + " of " + template + " is not a boolean field");
+      }
+      booleanValues[template.fieldSlots[index]] = value;
+      templateFieldMask |= 1L << index;
+      return this;
+   }
+
+   /**
+    * Get the {@link PointTemplate} this {@link Point} was created from.
+    * @return the template, or {@code null}
+    */
+   public PointTemplate getTemplate() {
+      return template;
+   }
+
    /**
     * Timestamp the {@link Point} with the millisecond resolution time value returned
     * by {@link System#currentTimeMillis()}.
@@ -180,6 +355,10 @@ public class Point implements AutoCloseable {
       return timeUnit.toMillis(timestamp);
    }
 
+   long getTimestamp(final Precision precision) {
+      return precision.convert(timestamp, timeUnit);
+   }
+
    /**
     * Set the measurement name of this {@link Point}.
     * @param measurement the new measurement name
@@ -206,14 +385,14 @@ public class Point implements AutoCloseable {
     * @return this {@link Point}
     */
    public Point removeTag(final String tag) {
+      checkNotTemplated();
       for (int i = 0; i < tagIndex; i++) {
-         if (tag.equals(tags[i].name)) {
-            if (tagIndex > 1) {
-               final StringPair removed = tags[i];
-               System.arraycopy(tags, i + 1, tags, i, tagIndex - i - 1);
-               tags[tagIndex - 1] = removed;
-            }
+         if (tag.equals(tagNames[i])) {
+            System.arraycopy(tagNames, i + 1, tagNames, i, tagIndex - i - 1);
+            System.arraycopy(tagValues, i + 1, tagValues, i, tagIndex - i - 1);
             --tagIndex;
+            tagNames[tagIndex] = null;
+            tagValues[tagIndex] = null;
             break;
          }
       }
@@ -228,8 +407,8 @@ public class Point implements AutoCloseable {
     */
    public Long longField(final String field) {
       for (int i = 0; i < longFieldIndex; i++) {
-         if (field.equals(longFields[i].name)) {
-            return longFields[i].value;
+         if (field.equals(longNames[i])) {
+            return longValues[i];
          }
       }
       return null;
@@ -243,7 +422,7 @@ public class Point implements AutoCloseable {
     * @return the long integer field value or {@code null}
     */
     public Long longField(final int index) {
-      return (index < longFieldIndex) ? longFields[index].value : null;
+      return (index < longFieldIndex) ? longValues[index] : null;
    }
 
    /**
@@ -253,7 +432,17 @@ public class Point implements AutoCloseable {
     * @return the name of the long integer field or {@code null}
     */
    public String longFieldName(final int index) {
-      return (longFieldIndex > 0) ? longFields[index].name() : null;
+      return (index < longFieldIndex) ? longNames[index] : null;
+   }
+
+   /**
+    * Determine whether the long integer field at the specified internal index was set with
+    * {@link #fieldUnsigned(String, long)}.
+    * @param index the internal index of the long integer field
+    * @return true if the field is an unsigned integer field
+    */
+   public boolean isUnsignedLongField(final int index) {
+      return index < longFieldIndex && longUnsigned[index];
    }
 
    /**
@@ -264,8 +453,8 @@ public class Point implements AutoCloseable {
     */
    public Double doubleField(final String field) {
       for (int i = 0; i < doubleFieldIndex; i++) {
-         if (field.equals(doubleFields[i].name)) {
-            return doubleFields[i].value;
+         if (field.equals(doubleNames[i])) {
+            return doubleValues[i];
          }
       }
       return null;
@@ -279,7 +468,7 @@ public class Point implements AutoCloseable {
     * @return the double field value or {@code null}
     */
     public Double doubleField(final int index) {
-      return (index < doubleFieldIndex) ? doubleFields[index].value : null;
+      return (index < doubleFieldIndex) ? doubleValues[index] : null;
    }
 
    /**
@@ -289,7 +478,7 @@ public class Point implements AutoCloseable {
     * @return the name of the double field or {@code null}
     */
     public String doubleFieldName(final int index) {
-      return (doubleFieldIndex > 0) ? doubleFields[index].name() : null;
+      return (index < doubleFieldIndex) ? doubleNames[index] : null;
    }
 
    /**
@@ -300,8 +489,8 @@ public class Point implements AutoCloseable {
     */
     public Boolean booleanField(final String field) {
       for (int i = 0; i < booleanFieldIndex; i++) {
-         if (field.equals(boolFields[i].name)) {
-            return boolFields[i].value;
+         if (field.equals(booleanNames[i])) {
+            return booleanValues[i];
          }
       }
       return null;
@@ -315,7 +504,7 @@ public class Point implements AutoCloseable {
     * @return the boolean field value or {@code null}
     */
     public Boolean booleanField(final int index) {
-      return (index < booleanFieldIndex) ? boolFields[index].value : null;
+      return (index < booleanFieldIndex) ? booleanValues[index] : null;
    }
 
    /**
@@ -325,7 +514,7 @@ public class Point implements AutoCloseable {
     * @return the name of the boolean field or {@code null}
     */
     public String booleanFieldName(final int index) {
-      return (booleanFieldIndex > 0) ? boolFields[index].name() : null;
+      return (index < booleanFieldIndex) ? booleanNames[index] : null;
    }
 
    /**
@@ -336,8 +525,8 @@ public class Point implements AutoCloseable {
     */
    public String stringField(final String field) {
       for (int i = 0; i < stringFieldIndex; i++) {
-         if (field.equals(stringFields[i].name)) {
-            return stringFields[i].value;
+         if (field.equals(stringNames[i])) {
+            return stringValues[i];
          }
       }
       return null;
@@ -350,7 +539,7 @@ public class Point implements AutoCloseable {
     * @return the String field value or {@code null}
     */
     public String stringField(final int index) {
-      return (index < stringFieldIndex) ? stringFields[index].value : null;
+      return (index < stringFieldIndex) ? stringValues[index] : null;
    }
 
    /**
@@ -360,7 +549,7 @@ public class Point implements AutoCloseable {
     * @return the name of the string field or {@code null}
     */
     public String stringFieldName(final int index) {
-      return (stringFieldIndex > 0) ? stringFields[index].name() : null;
+      return (index < stringFieldIndex) ? stringNames[index] : null;
    }
 
    /**
@@ -371,8 +560,8 @@ public class Point implements AutoCloseable {
     */
    public String tag(final String tag) {
       for (int i = 0; i < tagIndex; i++) {
-         if (tag.equals(tags[i].name)) {
-            return tags[i].value;
+         if (tag.equals(tagNames[i])) {
+            return tagValues[i];
          }
       }
       return null;
@@ -385,8 +574,7 @@ public class Point implements AutoCloseable {
     */
    public String[] tag(final int index) {
       if (index >= 0 && index < tagIndex) {
-         final StringPair pair = tags[index];
-         return new String[] {pair.name, pair.value};
+         return new String[] {tagNames[index], tagValues[index]};
       }
       return null;
    }
@@ -463,7 +651,7 @@ public class Point implements AutoCloseable {
     */
    public int getLongFieldIndex(final String field) {
       for (int i = 0; i < longFieldIndex; i++) {
-         if (field.equals(longFields[i].name)) return i;
+         if (field.equals(longNames[i])) return i;
       }
       return -1;
    }
@@ -478,7 +666,7 @@ public class Point implements AutoCloseable {
     */
     public int getDoubleFieldIndex(final String field) {
       for (int i = 0; i < doubleFieldIndex; i++) {
-         if (field.equals(doubleFields[i].name)) return i;
+         if (field.equals(doubleNames[i])) return i;
       }
       return -1;
    }
@@ -493,7 +681,7 @@ public class Point implements AutoCloseable {
     */
     public int getStringFieldIndex(final String field) {
       for (int i = 0; i < stringFieldIndex; i++) {
-         if (field.equals(stringFields[i].name)) return i;
+         if (field.equals(stringNames[i])) return i;
       }
       return -1;
    }
@@ -508,7 +696,7 @@ public class Point implements AutoCloseable {
     */
     public int getBooleanFieldIndex(final String field) {
       for (int i = 0; i < booleanFieldIndex; i++) {
-         if (field.equals(boolFields[i].name)) return i;
+         if (field.equals(booleanNames[i])) return i;
       }
       return -1;
    }
@@ -579,10 +767,11 @@ public class Point implements AutoCloseable {
    public Point copy(final String measurement) {
       final Point copy = parentFactory.createPoint(measurement);
 
-      final int tagCount = tagIndex;
-      copy.tagIndex = tagCount;
-      for (int i = 0; i < tagCount; i++) {
-         copy.tags[i].setPair(tags[i]);
+      for (int i = 0; i < tagIndex; i++) {
+         // the unset tags of a templated point have no value
+         if (tagValues[i] != null) {
+            copy.tag(tagNames[i], tagValues[i]);
+         }
       }
 
       copy.timestamp = timestamp;
@@ -591,70 +780,113 @@ public class Point implements AutoCloseable {
       return copy;
    }
 
+   /**
+    * Write this {@link Point} as a line of line protocol, terminated by a newline, into the
+    * specified buffer.  Nothing is allocated.  If the remaining space of the buffer is not enough
+    * for the line, the position of the buffer is left unchanged and the number of bytes required
+    * is returned negated, so that the caller can provide a larger buffer.
+    *
+    * @param buffer the buffer to write into
+    * @param precision the precision of the written timestamp
+    * @return the number of bytes written, or the negated number of bytes required
+    */
+   public int writeTo(final ByteBuffer buffer, final Precision precision) {
+      return writeTo(buffer, precision, false);
+   }
+
+   /**
+    * Write this {@link Point} as a JSON object, in the format of {@link #toJson()}, into the
+    * specified buffer as UTF-8.  Nothing is allocated.  If the remaining space of the buffer is
+    * not enough for the object, the position of the buffer is left unchanged and the number of
+    * bytes required is returned negated.
+    *
+    * @param buffer the buffer to write into
+    * @return the number of bytes written, or the negated number of bytes required
+    */
+   public int writeJsonTo(final ByteBuffer buffer) {
+      return writeTo(buffer, Precision.MILLISECOND, true);
+   }
+
+   /**
+    * Append this {@link Point} as a JSON object, in the format of {@link #toJson()}, to the
+    * specified {@link Appendable}.  The object is rendered into per-thread scratch buffers, which
+    * are passed to {@link Writer#write(char[], int, int)} or {@link Appendable#append(CharSequence)}
+    * without copying.
+    *
+    * @param appendable the appendable to append to
+    * @return the number of characters appended
+    * @throws IOException if appending fails
+    */
+   public int writeJsonTo(final Appendable appendable) throws IOException {
+      final CharBuffer chars = TextScratch.get().render(this, Precision.MILLISECOND, true);
+      if (appendable instanceof Writer) {
+         ((Writer) appendable).write(chars.array(), 0, chars.limit());
+      }
+      else {
+         appendable.append(chars);
+      }
+      return chars.limit();
+   }
+
    /**
     * {@inheritDoc}
     */
    @Override
    public String toString() {
-      final ByteBuffer buf = ByteBuffer.allocate(MAXIMUM_SERIALIZED_POINT_SIZE);
-      write(buf, Precision.MILLISECOND);
-      buf.flip();
-      return StandardCharsets.UTF_8.decode(buf).toString();
+      final CharBuffer chars = TextScratch.get().render(this, Precision.MILLISECOND, false);
+      return new String(chars.array(), 0, chars.limit());
    }
 
-   private void appendName(StringBuilder sb, String name) {
-      sb.append("\"");
-      escapeForJson(sb, name);
-      sb.append("\":");
+   /**
+    * Get this {@link Point} as a JSON object, with the measurement, the timestamp in milliseconds,
+    * and objects of the tags and fields.
+    *
+    * @return the JSON representation of this point
+    */
+   public String toJson() {
+      final CharBuffer chars = TextScratch.get().render(this, Precision.MILLISECOND, true);
+      return new String(chars.array(), 0, chars.limit());
    }
 
-   public String toJson() {
-      final StringBuilder sb = new StringBuilder(256)
-         .append("{")
-         .append("\"measurement\":\"")
-         .append(measurement.replace("\"", "\\\""))
-         .append("\", \"timestamp\":")
-         .append(Precision.MILLISECOND.convert(timestamp, timeUnit))
-         .append(", \"tags\": {");
-      for (int i = 0; i < tagIndex; i++) {
-         appendName(sb, tags[i].name);
-         sb.append("\"");
-         escapeForJson(sb, tags[i].value);
-         sb.append("\",");
-      }
-      if (tagIndex > 0) sb.setLength(sb.length() - 1);
-      boolean fieldWritten = false;
-      sb.append("}, \"fields\": {");
-      for (int i = 0; i < stringFieldIndex; i++) {
-         appendName(sb, stringFields[i].name);
-         sb.append("\"");
-         escapeForJson(sb, stringFields[i].value);
-         sb.append("\",");
-         fieldWritten = true;
+   private int writeTo(final ByteBuffer buffer, final Precision precision, final boolean json) {
+      final int start = buffer.position();
+      try {
+         render(buffer, precision, json);
+         return buffer.position() - start;
       }
-      for (int i = 0; i < longFieldIndex; i++) {
-         appendName(sb, longFields[i].name);
-         sb.append(longFields[i].value).append(",");
-         fieldWritten = true;
+      catch (final BufferOverflowException e) {
+         buffer.position(start);
+         return -TextScratch.get().renderBytes(this, precision, json).remaining();
       }
-      for (int i = 0; i < doubleFieldIndex; i++) {
-         appendName(sb, doubleFields[i].name);
-         sb.append(doubleFields[i].value).append(",");
-         fieldWritten = true;
+   }
+
+   private void render(final ByteBuffer buffer, final Precision precision, final boolean json) {
+      if (json) {
+         writeJson(buffer);
       }
-      for (int i = 0; i < booleanFieldIndex; i++) {
-         appendName(sb, boolFields[i].name);
-         sb.append(boolFields[i].value).append(",");
-         fieldWritten = true;
+      else {
+         write(buffer, precision);
+      }
+   }
+
+   /**
+    * A hash of the measurement and tags of this point, independent of the order in which the
+    * tags were added.
+    */
+   int seriesHash() {
+      int hash = measurement.hashCode();
+      for (int i = 0; i < tagIndex; i++) {
+         if (tagValues[i] != null) {
+            final int tag = 31 * tagNames[i].hashCode() + tagValues[i].hashCode();
+            hash += (tag ^ (tag >>> 16)) * 0x45d9f3b;
+         }
       }
-      if (fieldWritten) sb.setLength(sb.length() - 1);
-      sb.append("}");
-      sb.append("}");
-      return sb.toString();
+      return hash;
    }
 
    void check() throws IllegalStateException {
-      final int fieldCount = longFieldIndex + booleanFieldIndex + stringFieldIndex + doubleFieldIndex;
+      final int fieldCount = (template != null) ? Long.bitCount(templateFieldMask)
+                                                : longFieldIndex + booleanFieldIndex + stringFieldIndex + doubleFieldIndex;
 
       if (fieldCount == 0) {
          throw new IllegalStateException("Point must have at least one field");
@@ -665,40 +897,54 @@ public class Point implements AutoCloseable {
    }
 
    void write(final ByteBuffer buffer, final Precision precision) {
-      serializeMeasurement(buffer, measurement);
+      write(buffer, precision, DoubleFormat.SHORTEST);
+   }
+
+   void write(final ByteBuffer buffer, final Precision precision, final DoubleFormat doubleFormat) {
+      if (template != null) {
+         writeTemplated(buffer, precision, doubleFormat);
+         return;
+      }
 
       if (tagIndex > 0) {
-         final int tagCount = tagIndex;
-         for (int i = 0; i < tagCount; i++) {
-            tagSort[i] = i;
+         final SeriesKeyCache seriesCache = SeriesKeyCache.get();
+         final byte[] prefix = (seriesCache != null) ? seriesCache.lookup(measurement, tagNames, tagValues, tagIndex) : null;
+         if (prefix != null) {
+            buffer.put(prefix);
          }
-
-         PrimitiveArraySort.sort(tagSort, tagCount, tagKeyComparator);
-         for (int i = 0; i < tagCount; i++) {
-            final int ndx = tagSort[i];
-            serializeTag(buffer, tags[ndx]);
+         else {
+            final int start = buffer.position();
+            serializeSeriesKey(buffer);
+            if (seriesCache != null) {
+               seriesCache.store(buffer, start);
+            }
          }
       }
+      else {
+         serializeMeasurement(buffer, measurement);
+      }
 
       boolean firstFieldWritten = false;
 
       for (int i = 0; i < stringFieldIndex; i++) {
-         serializeStringField(buffer, stringFields[i], firstFieldWritten);
+         serializeStringField(buffer, stringNames[i], stringValues[i], firstFieldWritten);
          firstFieldWritten = true;
       }
 
       for (int i = 0; i < longFieldIndex; i++) {
-         serializeLongField(buffer, longFields[i], firstFieldWritten);
+         serializeLongField(buffer, longNames[i], longValues[i], longUnsigned[i], firstFieldWritten);
          firstFieldWritten = true;
       }
 
       for (int i = 0; i < doubleFieldIndex; i++) {
-         serializeDoubleField(buffer, doubleFields[i], firstFieldWritten);
+         final DoubleFormat format = doubleFormats[i];
+         serializeDoubleField(buffer, doubleNames[i], doubleValues[i], format != null ? format : doubleFormat, firstFieldWritten);
          firstFieldWritten = true;
       }
 
       for (int i = 0; i < booleanFieldIndex; i++) {
-         serializeBooleanField(buffer, boolFields[i], firstFieldWritten);
+         serializeBooleanField(buffer, booleanNames[i], booleanValues[i], firstFieldWritten);
+         firstFieldWritten = true;
       }
 
       serializeTimestamp(buffer, precision.convert(timestamp, timeUnit));
@@ -706,338 +952,495 @@ public class Point implements AutoCloseable {
       buffer.put((byte) '\n');
    }
 
-   private void release() {
-      // Reset important point state (and bits necessary to aid garbage collection)
-      final int tagCount = tagIndex;
-      for (int i = 0; i < tagCount; i++) {
-         tags[i].reset();
+   /**
+    * Serialize a templated point from the precompiled key bytes of its template, in the declared
+    * field order.
+    */
+   private void writeTemplated(final ByteBuffer buffer, final Precision precision, final DoubleFormat doubleFormat) {
+      final PointTemplate template = this.template;
+
+      // the series cache applies when every tag is set, its keys would be ambiguous otherwise
+      boolean allTagsSet = tagIndex > 0;
+      for (int i = 0; i < tagIndex && allTagsSet; i++) {
+         allTagsSet = tagValues[i] != null;
+      }
+
+      final SeriesKeyCache seriesCache = allTagsSet ? SeriesKeyCache.get() : null;
+      final byte[] prefix = (seriesCache != null) ? seriesCache.lookup(template.measurement, tagNames, tagValues, tagIndex) : null;
+      if (prefix != null) {
+         buffer.put(prefix);
+      }
+      else {
+         final int start = buffer.position();
+         buffer.put(template.measurementBytes);
+
+         final int[] tagOrder = template.tagOrder;
+         for (int i = 0; i < tagOrder.length; i++) {
+            final String value = tagValues[tagOrder[i]];
+            if (value != null) {
+               buffer.put(template.sortedTagPrefixes[i]);
+               escapeTagValue(buffer, value);
+            }
+         }
+
+         if (seriesCache != null) {
+            seriesCache.store(buffer, start);
+         }
       }
 
-      final int strFieldCount = stringFieldIndex;
-      for (int i = 0; i < strFieldCount; i++) {
-         stringFields[i].reset();
+      byte separator = ' ';
+      long mask = templateFieldMask;
+      while (mask != 0) {
+         final int index = Long.numberOfTrailingZeros(mask);
+         mask &= mask - 1;
+
+         buffer.put(separator);
+         separator = ',';
+         buffer.put(template.fieldPrefixes[index]);
+
+         final int slot = template.fieldSlots[index];
+         switch (template.fieldTypes[index]) {
+            case PointTemplate.LONG:
+               writeLongToBuffer(longValues[slot], buffer);
+               buffer.put((byte) 'i');
+               break;
+            case PointTemplate.UNSIGNED:
+               writeUnsignedLongToBuffer(longValues[slot], buffer);
+               buffer.put((byte) 'u');
+               break;
+            case PointTemplate.DOUBLE:
+               final DoubleFormat format = template.fieldFormats[index];
+               (format != null ? format : doubleFormat).write(doubleValues[slot], buffer);
+               break;
+            case PointTemplate.STRING:
+               buffer.put((byte) '"');
+               escapeFieldValue(buffer, stringValues[slot]);
+               buffer.put((byte) '"');
+               break;
+            default:
+               buffer.put(booleanValues[slot] ? (byte) 't' : (byte) 'f');
+         }
       }
 
+      serializeTimestamp(buffer, precision.convert(timestamp, timeUnit));
+
+      buffer.put((byte) '\n');
+   }
+
+   void applyTemplate(final PointTemplate template) {
+      this.template = template;
+
+      final int tagCount = template.tagNames.length;
+      if (tagNames.length < tagCount) growTags(tagCount);
+      System.arraycopy(template.tagNames, 0, tagNames, 0, tagCount);
+      Arrays.fill(tagValues, 0, tagCount, null);
+      tagIndex = tagCount;
+
+      if (longNames.length < template.longCount) growLongFields(template.longCount);
+      if (doubleNames.length < template.doubleCount) growDoubleFields(template.doubleCount);
+      if (stringNames.length < template.stringCount) growStringFields(template.stringCount);
+      if (booleanNames.length < template.booleanCount) growBooleanFields(template.booleanCount);
+
+      final String[] fieldNames = template.fieldNames;
+      for (int i = 0; i < fieldNames.length; i++) {
+         final int slot = template.fieldSlots[i];
+         switch (template.fieldTypes[i]) {
+            case PointTemplate.LONG:
+            case PointTemplate.UNSIGNED:
+               longNames[slot] = fieldNames[i];
+               longValues[slot] = 0L;
+               longUnsigned[slot] = template.fieldTypes[i] == PointTemplate.UNSIGNED;
+               break;
+            case PointTemplate.DOUBLE:
+               doubleNames[slot] = fieldNames[i];
+               doubleValues[slot] = 0d;
+               doubleFormats[slot] = template.fieldFormats[i];
+               break;
+            case PointTemplate.STRING:
+               stringNames[slot] = fieldNames[i];
+               stringValues[slot] = null;
+               break;
+            default:
+               booleanNames[slot] = fieldNames[i];
+               booleanValues[slot] = false;
+         }
+      }
+      longFieldIndex = template.longCount;
+      doubleFieldIndex = template.doubleCount;
+      stringFieldIndex = template.stringCount;
+      booleanFieldIndex = template.booleanCount;
+   }
+
+   private void setLongField(final String field, final long value, final boolean unsigned) {
+      if (longFieldIndex == longNames.length) growLongFields(longFieldIndex + 1);
+      longNames[longFieldIndex] = field;
+      longValues[longFieldIndex] = value;
+      longUnsigned[longFieldIndex++] = unsigned;
+   }
+
+   private void setDoubleField(final String field, final double value, final DoubleFormat format) {
+      if (doubleFieldIndex == doubleNames.length) growDoubleFields(doubleFieldIndex + 1);
+      doubleNames[doubleFieldIndex] = field;
+      doubleValues[doubleFieldIndex] = value;
+      doubleFormats[doubleFieldIndex++] = format;
+   }
+
+   private void growTags(final int required) {
+      final int capacity = capacity(tagNames.length, required, MAX_TAG_COUNT, "tags");
+      tagNames = Arrays.copyOf(tagNames, capacity);
+      tagValues = Arrays.copyOf(tagValues, capacity);
+      tagKeys = Arrays.copyOf(tagKeys, capacity);
+      tagSort = new int[capacity];
+   }
+
+   private void growLongFields(final int required) {
+      final int capacity = capacity(longNames.length, required, MAX_FIELD_COUNT, "long fields");
+      longNames = Arrays.copyOf(longNames, capacity);
+      longValues = Arrays.copyOf(longValues, capacity);
+      longUnsigned = Arrays.copyOf(longUnsigned, capacity);
+   }
+
+   private void growDoubleFields(final int required) {
+      final int capacity = capacity(doubleNames.length, required, MAX_FIELD_COUNT, "double fields");
+      doubleNames = Arrays.copyOf(doubleNames, capacity);
+      doubleValues = Arrays.copyOf(doubleValues, capacity);
+      doubleFormats = Arrays.copyOf(doubleFormats, capacity);
+   }
+
+   private void growStringFields(final int required) {
+      final int capacity = capacity(stringNames.length, required, MAX_FIELD_COUNT, "string fields");
+      stringNames = Arrays.copyOf(stringNames, capacity);
+      stringValues = Arrays.copyOf(stringValues, capacity);
+   }
+
+   private void growBooleanFields(final int required) {
+      final int capacity = capacity(booleanNames.length, required, MAX_FIELD_COUNT, "boolean fields");
+      booleanNames = Arrays.copyOf(booleanNames, capacity);
+      booleanValues = Arrays.copyOf(booleanValues, capacity);
+   }
+
+   private static int capacity(final int length, final int required, final int maximum, final String kind) {
+      if (required > maximum) {
+         throw new IllegalStateException("Point cannot have more than " + maximum + " " + kind);
+      }
+      return Math.min(maximum, Math.max(required, Math.max(INITIAL_CAPACITY, length * 2)));
+   }
+
+   private void checkTemplate() {
+      if (template == null) {
+         throw new IllegalStateException("Indexed setters require a Point created from a PointTemplate");
+      }
+   }
+
+   private void checkNotTemplated() {
+      if (template != null) {
+         throw new IllegalStateException("Tags and fields of a Point created from a PointTemplate are set by index");
+      }
+   }
+
+   private int templateFieldType(final int index) {
+      checkTemplate();
+      if (index < 0 || index >= template.fieldNames.length) {
+         throw new IndexOutOfBoundsException("Field index " + index + " out of range for " + template);
+      }
+      return template.fieldTypes[index];
+   }
+
+   private void release() {
+      // Reset important point state (and bits necessary to aid garbage collection)
+      Arrays.fill(tagNames, 0, tagIndex, null);
+      Arrays.fill(tagValues, 0, tagIndex, null);
+      Arrays.fill(tagKeys, 0, tagIndex, null);
+      Arrays.fill(stringValues, 0, stringFieldIndex, null);
+
       tagIndex = 0;
       longFieldIndex = 0;
       stringFieldIndex = 0;
       doubleFieldIndex = 0;
       booleanFieldIndex = 0;
+      template = null;
+      templateFieldMask = 0;
       timestamp = 0;
       retentionCount.set(1);
 
       parentFactory.returnPoint(this);
    }
 
-   private static final String[] HEX_PAD = {"", "000", "00", "0", ""};
+   /*********************************************************************************************
+    * Serialization
+    */
 
-   private void escapeForJson(final StringBuilder sb, final String string) {
-      boolean needsEscape = false;
-      for (int i = 0; i < string.length(); i++) {
-         final char c = string.charAt(i);
-         if (c < ' ' || c == '"' || c == '\\') {
-            needsEscape = true;
-            break;
-         }
-      }
+   private void serializeSeriesKey(final ByteBuffer buffer) {
+      serializeMeasurement(buffer, measurement);
 
-      if (needsEscape) {
-         for (int i = 0; i < string.length(); i++) {
-            final char c = string.charAt(i);
-            switch (c) {
-               case '\\':
-                  sb.append("\\\\");
-                  break;
-               case '"':
-                  sb.append("\\\"");
-                  break;
-               case '\b':
-                  sb.append("\\b");
-                  break;
-               case '\f':
-                  sb.append("\\f");
-                  break;
-               case '\n':
-                  sb.append("\\n");
-                  break;
-               case '\r':
-                  sb.append("\\r");
-                  break;
-               case '\t':
-                  sb.append("\\t");
-                  break;
-               default:
-                  if (c < ' ') {
-                     final String hex = Integer.toHexString(c);
-                     final int len = hex.length();
-                     sb.append('\\').append('u').append(HEX_PAD[len]).append(hex);
-                  }
-                  else {
-                     sb.append(c);
-                  }
-                  break;
-            }
-         }
+      final int tagCount = tagIndex;
+      for (int i = 0; i < tagCount; i++) {
+         tagSort[i] = i;
+         tagKeys[i] = KeyCache.KEYS.get(tagNames[i]);
       }
-      else {
-         sb.append(string);
+
+      tagKeyComparator.tagKeys = tagKeys;
+      PrimitiveArraySort.sort(tagSort, tagCount, tagKeyComparator);
+      for (int i = 0; i < tagCount; i++) {
+         final int ndx = tagSort[i];
+         serializeTag(buffer, tagKeys[ndx], tagValues[ndx]);
       }
    }
 
-   /*********************************************************************************************
-    * Serialization
-    */
-
    private void serializeMeasurement(final ByteBuffer buffer, final String measurement) {
-      escapeCommaSpace(buffer, measurement);
+      buffer.put(KeyCache.MEASUREMENTS.get(measurement));
    }
 
-   private void serializeTag(final ByteBuffer buffer, final StringPair pair) {
+   private void serializeTag(final ByteBuffer buffer, final byte[] key, final String value) {
       buffer.put((byte) ',');
-      escapeTagKeyOrValue(buffer, pair.name());
+      buffer.put(key);
       buffer.put((byte) '=');
-      escapeTagKeyOrValue(buffer, pair.value());
+      escapeTagValue(buffer, value);
    }
 
-   private void serializeStringField(final ByteBuffer buffer, final StringPair pair, final boolean firstFieldWritten) {
+   private void serializeStringField(final ByteBuffer buffer, final String name, final String value, final boolean firstFieldWritten) {
       addFieldSeparator(buffer, firstFieldWritten);
-      escapeFieldKey(buffer, pair.name());
+      escapeFieldKey(buffer, name);
       buffer.put((byte) '=');
       buffer.put((byte) '"');
-      escapeFieldValue(buffer, pair.value());
+      escapeFieldValue(buffer, value);
       buffer.put((byte) '"');
    }
 
-   private void serializeLongField(final ByteBuffer buffer, final LongPair pair, final boolean firstFieldWritten) {
+   private void serializeLongField(final ByteBuffer buffer, final String name, final long value, final boolean unsigned, final boolean firstFieldWritten) {
       addFieldSeparator(buffer, firstFieldWritten);
-      escapeFieldKey(buffer, pair.name());
+      escapeFieldKey(buffer, name);
       buffer.put((byte) '=');
-      writeLongToBuffer(pair.value(), buffer);
-      buffer.put((byte) 'i');
+      if (unsigned) {
+         writeUnsignedLongToBuffer(value, buffer);
+         buffer.put((byte) 'u');
+      }
+      else {
+         writeLongToBuffer(value, buffer);
+         buffer.put((byte) 'i');
+      }
    }
 
-   private void serializeDoubleField(final ByteBuffer buffer, final DoublePair pair, final boolean firstFieldWritten) {
+   private void serializeDoubleField(final ByteBuffer buffer, final String name, final double value, final DoubleFormat format, final boolean firstFieldWritten) {
       addFieldSeparator(buffer, firstFieldWritten);
-      escapeFieldKey(buffer, pair.name());
+      escapeFieldKey(buffer, name);
       buffer.put((byte) '=');
-      writeDoubleToBuffer(pair.value(), buffer);
+      format.write(value, buffer);
    }
 
-   private void serializeBooleanField(final ByteBuffer buffer, final BooleanPair pair, final boolean firstFieldWritten) {
+   private void serializeBooleanField(final ByteBuffer buffer, final String name, final boolean value, final boolean firstFieldWritten) {
       addFieldSeparator(buffer, firstFieldWritten);
-      escapeFieldKey(buffer, pair.name());
+      escapeFieldKey(buffer, name);
       buffer.put((byte) '=');
-      buffer.put(pair.value() ? (byte) 't' : (byte) 'f');
+      buffer.put(value ? (byte) 't' : (byte) 'f');
    }
 
    private void serializeTimestamp(final ByteBuffer buffer, final long timestamp) {
       buffer.put((byte) ' ');
-      writeLongToBuffer(timestamp, buffer);
-   }
-
-   /*********************************************************************************************
-    * Escape handling
-    */
-
-   private static void escapeTagKeyOrValue(final ByteBuffer buffer, final String string) {
-      escapeCommaEqualSpace(string, buffer);
+      TimestampFormatter.get().write(timestamp, buffer);
    }
 
-   private static void escapeFieldKey(final ByteBuffer buffer, final String key) {
-      escapeCommaEqualSpace(key, buffer);
-   }
+   private void writeJson(final ByteBuffer buffer) {
+      buffer.put(JSON_MEASUREMENT);
+      Utf8.writeJsonEscaped(buffer, measurement);
+      buffer.put(JSON_TIMESTAMP);
+      writeLongToBuffer(Precision.MILLISECOND.convert(timestamp, timeUnit), buffer);
 
-   private static void escapeFieldValue(final ByteBuffer buffer, final String value) {
-      escapeDoubleQuote(value, buffer);
-   }
-
-   private static void escapeCommaSpace(final ByteBuffer buffer, final String string) {
-      if (containsCommaSpace(string)) {
-         final byte[] bytes = string.getBytes();
-         for (int i = 0; i < bytes.length; i++) {
-            switch (bytes[i]) {
-               case ',':
-               case ' ':
-                  buffer.put((byte) '\\');
-                  buffer.put(bytes[i]);
-                  break;
-               default:
-                  buffer.put(bytes[i]);
-            }
+      buffer.put(JSON_TAGS);
+      byte separator = '{';
+      for (int i = 0; i < tagIndex; i++) {
+         if (tagValues[i] != null) {
+            writeJsonName(buffer, separator, tagNames[i]);
+            buffer.put((byte) '"');
+            Utf8.writeJsonEscaped(buffer, tagValues[i]);
+            buffer.put((byte) '"');
+            separator = ',';
          }
       }
-      else {
-         final int pos = buffer.position();
-         string.getBytes(0, string.length(), buffer.array(), pos);
-         buffer.position(pos + string.length());
-      }
-   }
-
-   private static void escapeCommaEqualSpace(final String string, final ByteBuffer buffer) {
-      if (containsCommaEqualSpace(string)) {
-         final byte[] bytes = string.getBytes();
-         for (int i = 0; i < bytes.length; i++) {
-            switch (bytes[i]) {
-               case ',':
-               case '=':
-               case ' ':
-                  buffer.put((byte) '\\');
-                  buffer.put(bytes[i]);
+      if (separator == '{') buffer.put(separator);
+
+      buffer.put(JSON_FIELDS);
+      separator = '{';
+      if (template != null) {
+         long mask = templateFieldMask;
+         while (mask != 0) {
+            final int index = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+
+            writeJsonName(buffer, separator, template.fieldNames[index]);
+            separator = ',';
+
+            final int slot = template.fieldSlots[index];
+            switch (template.fieldTypes[index]) {
+               case PointTemplate.LONG:
+                  writeLongToBuffer(longValues[slot], buffer);
+                  break;
+               case PointTemplate.UNSIGNED:
+                  writeUnsignedLongToBuffer(longValues[slot], buffer);
+                  break;
+               case PointTemplate.DOUBLE:
+                  writeJsonDouble(buffer, doubleValues[slot], template.fieldFormats[index]);
+                  break;
+               case PointTemplate.STRING:
+                  buffer.put((byte) '"');
+                  Utf8.writeJsonEscaped(buffer, stringValues[slot]);
+                  buffer.put((byte) '"');
                   break;
                default:
-                  buffer.put(bytes[i]);
+                  buffer.put(booleanValues[slot] ? JSON_TRUE : JSON_FALSE);
             }
          }
       }
       else {
-         final int pos = buffer.position();
-         string.getBytes(0, string.length(), buffer.array(), pos);
-         buffer.position(pos + string.length());
-      }
-   }
-
-   private static void escapeDoubleQuote(final String string, final ByteBuffer buffer) {
-      if (string.indexOf('"') != -1) {
-         final byte[] bytes = string.getBytes();
-         for (int i = 0; i < bytes.length; i++) {
-            if (bytes[i] == '"') {
-               buffer.put((byte) '\\');
+         for (int i = 0; i < stringFieldIndex; i++) {
+            writeJsonName(buffer, separator, stringNames[i]);
+            buffer.put((byte) '"');
+            Utf8.writeJsonEscaped(buffer, stringValues[i]);
+            buffer.put((byte) '"');
+            separator = ',';
+         }
+         for (int i = 0; i < longFieldIndex; i++) {
+            writeJsonName(buffer, separator, longNames[i]);
+            if (longUnsigned[i]) {
+               writeUnsignedLongToBuffer(longValues[i], buffer);
             }
-            buffer.put(bytes[i]);
+            else {
+               writeLongToBuffer(longValues[i], buffer);
+            }
+            separator = ',';
+         }
+         for (int i = 0; i < doubleFieldIndex; i++) {
+            writeJsonName(buffer, separator, doubleNames[i]);
+            writeJsonDouble(buffer, doubleValues[i], doubleFormats[i]);
+            separator = ',';
+         }
+         for (int i = 0; i < booleanFieldIndex; i++) {
+            writeJsonName(buffer, separator, booleanNames[i]);
+            buffer.put(booleanValues[i] ? JSON_TRUE : JSON_FALSE);
+            separator = ',';
          }
       }
-      else {
-         final int pos = buffer.position();
-         string.getBytes(0, string.length(), buffer.array(), pos);
-         buffer.position(pos + string.length());
-      }
-   }
-
-   private static boolean containsCommaSpace(final String string) {
-      for (int i = 0; i < string.length(); i++) {
-         final char c = string.charAt(i);
-         if (c == ' ' || c == ',' || c > '~') return true;
-      }
-      return false;
+      if (separator == '{') buffer.put(separator);
+      buffer.put((byte) '}').put((byte) '}');
    }
 
-   private static boolean containsCommaEqualSpace(final String string) {
-      for (int i = 0; i < string.length(); i++) {
-         final char c = string.charAt(i);
-         if (c == ' ' || c == ',' || c == '=' || c > '~') return true;
-      }
-      return false;
+   private static void writeJsonName(final ByteBuffer buffer, final byte separator, final String name) {
+      buffer.put(separator).put((byte) '"');
+      Utf8.writeJsonEscaped(buffer, name);
+      buffer.put((byte) '"').put((byte) ':');
    }
 
-   /*********************************************************************************************
-    * Miscellaneous
-    */
-
-   private static final void addFieldSeparator(final ByteBuffer buffer, final boolean firstFieldWritten) {
-      if (firstFieldWritten) {
-         buffer.put((byte) ',');
+   private static void writeJsonDouble(final ByteBuffer buffer, final double value, final DoubleFormat format) {
+      // JSON has no representation of NaN or the infinities
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+         buffer.put(JSON_NULL);
       }
       else {
-         buffer.put((byte) ' ');
-      }
-   }
-
-   private static final class ParallelTagArrayComparator implements PrimitiveArraySort.IntComparator {
-      private final StringPair[] tags;
-
-      private ParallelTagArrayComparator(final StringPair[] tags) {
-         this.tags = tags;
-      }
-
-      @Override
-      public int compare(final int a, final int b) {
-         return tags[a].name().compareTo(tags[b].name());
+         (format != null ? format : DoubleFormat.SHORTEST).write(value, buffer);
       }
    }
 
    /*********************************************************************************************
-    * Pair classes
+    * Escape handling
     */
 
-   private static final class StringPair {
-      private String name;
-      private String value;
+   private static final byte[] JSON_MEASUREMENT = "{\"measurement\":\"".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] JSON_TIMESTAMP = "\", \"timestamp\":".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] JSON_TAGS = ", \"tags\": ".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] JSON_FIELDS = "}, \"fields\": ".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] JSON_TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] JSON_FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] JSON_NULL = "null".getBytes(StandardCharsets.US_ASCII);
 
-      void setPair(final String name, final String value) {
-         this.name = name;
-         this.value = value;
-      }
-
-      void setPair(final StringPair other) {
-         this.name = other.name;
-         this.value = other.value;
-      }
-
-      String name() {
-         return name;
-      }
+   static final Utf8.EscapeSet TAG_VALUE_ESCAPES = Utf8.escapeSet(',', '=', ' ');
+   private static final Utf8.EscapeSet FIELD_VALUE_ESCAPES = Utf8.escapeSet('"');
 
-      String value() {
-         return value;
-      }
+   private static void escapeTagValue(final ByteBuffer buffer, final String string) {
+      Utf8.writeEscaped(buffer, string, TAG_VALUE_ESCAPES);
+   }
 
-      void reset() {
-         name = null;
-         value = null;
-      }
+   private static void escapeFieldKey(final ByteBuffer buffer, final String key) {
+      buffer.put(KeyCache.KEYS.get(key));
    }
 
-   private static final class LongPair {
-      private String name;
-      private long value;
+   private static void escapeFieldValue(final ByteBuffer buffer, final String value) {
+      Utf8.writeEscaped(buffer, value, FIELD_VALUE_ESCAPES);
+   }
 
-      void setPair(final String name, final long value) {
-         this.name = name;
-         this.value = value;
-      }
+   /*********************************************************************************************
+    * Miscellaneous
+    */
 
-      String name() {
-         return name;
+   private static final void addFieldSeparator(final ByteBuffer buffer, final boolean firstFieldWritten) {
+      if (firstFieldWritten) {
+         buffer.put((byte) ',');
       }
-
-      long value() {
-         return value;
+      else {
+         buffer.put((byte) ' ');
       }
    }
 
-   private static final class DoublePair {
-      private String name;
-      private double value;
-
-      void setPair(final String name, final double value) {
-         this.name = name;
-         this.value = value;
+   /**
+    * Per-thread buffers for rendering points as text, grown as needed and reused.
+    */
+   private static final class TextScratch {
+      private static final ThreadLocal<TextScratch> THREAD_SCRATCH = new ThreadLocal<>();
+
+      private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+      private ByteBuffer bytes = ByteBuffer.allocate(MAXIMUM_SERIALIZED_POINT_SIZE);
+      private CharBuffer chars = CharBuffer.allocate(MAXIMUM_SERIALIZED_POINT_SIZE);
+
+      static TextScratch get() {
+         TextScratch scratch = THREAD_SCRATCH.get();
+         if (scratch == null) {
+            scratch = new TextScratch();
+            THREAD_SCRATCH.set(scratch);
+         }
+         return scratch;
       }
 
-      String name() {
-         return name;
+      /**
+       * @return the flipped scratch byte buffer holding the rendered point
+       */
+      ByteBuffer renderBytes(final Point point, final Precision precision, final boolean json) {
+         for (;;) {
+            bytes.clear();
+            try {
+               point.render(bytes, precision, json);
+               bytes.flip();
+               return bytes;
+            }
+            catch (final BufferOverflowException e) {
+               bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+            }
+         }
       }
 
-      double value() {
-         return value;
+      /**
+       * @return the flipped scratch char buffer holding the rendered point
+       */
+      CharBuffer render(final Point point, final Precision precision, final boolean json) {
+         final ByteBuffer in = renderBytes(point, precision, json);
+         if (chars.capacity() < in.remaining()) {
+            // a UTF-8 byte never decodes to more than one char
+            chars = CharBuffer.allocate(bytes.capacity());
+         }
+         chars.clear();
+         decoder.reset();
+         decoder.decode(in, chars, true);
+         decoder.flush(chars);
+         chars.flip();
+         return chars;
       }
    }
 
-   private static final class BooleanPair {
-      private String name;
-      private boolean value;
-
-      void setPair(final String name, final boolean value) {
-         this.name = name;
-         this.value = value;
-      }
-
-      String name() {
-         return name;
-      }
+   private static final class ParallelTagArrayComparator implements PrimitiveArraySort.IntComparator {
+      // the tag keys of the point being sorted, set before each sort as the arrays may have grown
+      private byte[][] tagKeys;
 
-      boolean value() {
-         return value;
+      @Override
+      public int compare(final int a, final int b) {
+         return KeyCache.compare(tagKeys[a], tagKeys[b]);
       }
    }
 }
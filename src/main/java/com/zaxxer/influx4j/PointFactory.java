@@ -58,6 +58,18 @@ public class PointFactory {
       return point;
    }
 
+   /**
+    * Obtain a new {@link PointTemplate.Builder} to declare the tags and fields of a
+    * {@link PointTemplate} for the specified {@code measurement}.  Points created from the template
+    * are obtained from this factory.
+    *
+    * @param measurement the measurement name
+    * @return a new {@link PointTemplate.Builder} instance
+    */
+   public PointTemplate.Builder template(final String measurement) {
+      return new PointTemplate.Builder(this, measurement);
+   }
+
    void returnPoint(final Point point) {
       if (pointPool.size() < maxPoolSize) {
          pointPool.enqueue(point);
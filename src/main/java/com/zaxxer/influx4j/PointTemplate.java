@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A precompiled point shape: a measurement, its tag keys and its typed field keys, declared once
+ * and shared by every {@link Point} created from the template.  The escaped key bytes and the
+ * sorted order of the tags are resolved when the template is built, so serializing a templated
+ * point only writes its values and timestamp.
+ * <p>
+ * Tag values are set by tag index with {@link Point#setTag(int, String)}, and field values by
+ * field index with {@link Point#setLong(int, long)}, {@link Point#setDouble(int, double)},
+ * {@link Point#setString(int, String)} and {@link Point#setBoolean(int, boolean)}, where the
+ * indexes are the declaration order of the tags and fields.  Tags and fields that are not set are
+ * omitted.
+ * <pre>
+ * PointTemplate cpu = pointFactory.template("cpu")
+ *    .tag("host")              // tag 0
+ *    .doubleField("user")      // field 0
+ *    .doubleField("system")    // field 1
+ *    .longField("processes")   // field 2
+ *    .build();
+ *
+ * influxDB.write(cpu.createPoint()
+ *    .setTag(0, "server1")
+ *    .setDouble(0, 12.5)
+ *    .setDouble(1, 3.25)
+ *    .setLong(2, 191)
+ *    .timestamp());
+ * </pre>
+ * Templates are immutable and thread-safe.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class PointTemplate {
+   static final byte LONG = 0;
+   static final byte UNSIGNED = 1;
+   static final byte DOUBLE = 2;
+   static final byte STRING = 3;
+   static final byte BOOLEAN = 4;
+
+   private final PointFactory factory;
+
+   final String measurement;
+   final byte[] measurementBytes;
+
+   final String[] tagNames;
+   // the tag indexes in serialization (key) order, and their ",key=" bytes in the same order
+   final int[] tagOrder;
+   final byte[][] sortedTagPrefixes;
+
+   final String[] fieldNames;
+   final byte[] fieldTypes;
+   // the index of each field's slot among the fields of its storage type
+   final int[] fieldSlots;
+   // the "key=" bytes of each field
+   final byte[][] fieldPrefixes;
+   final DoubleFormat[] fieldFormats;
+
+   final int longCount;
+   final int doubleCount;
+   final int stringCount;
+   final int booleanCount;
+
+   private PointTemplate(final PointFactory factory, final Builder builder) {
+      this.factory = factory;
+      this.measurement = builder.measurement;
+      this.measurementBytes = KeyCache.MEASUREMENTS.get(measurement);
+
+      final int tagCount = builder.tags.size();
+      this.tagNames = builder.tags.toArray(new String[0]);
+      final byte[][] tagKeys = new byte[tagCount][];
+      final Integer[] order = new Integer[tagCount];
+      for (int i = 0; i < tagCount; i++) {
+         tagKeys[i] = KeyCache.KEYS.get(tagNames[i]);
+         order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> KeyCache.compare(tagKeys[a], tagKeys[b]));
+
+      this.tagOrder = new int[tagCount];
+      this.sortedTagPrefixes = new byte[tagCount][];
+      for (int i = 0; i < tagCount; i++) {
+         tagOrder[i] = order[i];
+         sortedTagPrefixes[i] = frame((byte) ',', tagKeys[order[i]]);
+      }
+
+      final int fieldCount = builder.fields.size();
+      this.fieldNames = new String[fieldCount];
+      this.fieldTypes = new byte[fieldCount];
+      this.fieldSlots = new int[fieldCount];
+      this.fieldPrefixes = new byte[fieldCount][];
+      this.fieldFormats = new DoubleFormat[fieldCount];
+
+      int longs = 0, doubles = 0, strings = 0, booleans = 0;
+      for (int i = 0; i < fieldCount; i++) {
+         final FieldDeclaration field = builder.fields.get(i);
+         fieldNames[i] = field.name;
+         fieldTypes[i] = field.type;
+         fieldFormats[i] = field.format;
+         fieldPrefixes[i] = frame((byte) 0, KeyCache.KEYS.get(field.name));
+         switch (field.type) {
+            case LONG:
+            case UNSIGNED:
+               fieldSlots[i] = longs++;
+               break;
+            case DOUBLE:
+               fieldSlots[i] = doubles++;
+               break;
+            case STRING:
+               fieldSlots[i] = strings++;
+               break;
+            default:
+               fieldSlots[i] = booleans++;
+         }
+      }
+
+      this.longCount = longs;
+      this.doubleCount = doubles;
+      this.stringCount = strings;
+      this.booleanCount = booleans;
+   }
+
+   /**
+    * Create a {@link Point} of this template, with no tag or field values set.
+    * <p>
+    * This method is <i>thread-safe</i> and may safely be called by multiple threads
+    * concurrently.
+    *
+    * @return a new {@link Point} instance, likely obtained from the internal pool of the
+    *         {@link PointFactory} that built this template
+    */
+   public Point createPoint() {
+      final Point point = factory.createPoint(measurement);
+      point.applyTemplate(this);
+      return point;
+   }
+
+   /**
+    * Get the measurement name of this template.
+    *
+    * @return the measurement name
+    */
+   public String getMeasurement() {
+      return measurement;
+   }
+
+   /**
+    * Get the number of tags declared by this template.
+    *
+    * @return the number of tags
+    */
+   public int getTagCount() {
+      return tagNames.length;
+   }
+
+   /**
+    * Get the number of fields declared by this template.
+    *
+    * @return the number of fields
+    */
+   public int getFieldCount() {
+      return fieldNames.length;
+   }
+
+   /**
+    * Get the index of the specified tag.
+    *
+    * @param tag the name of the tag
+    * @return the index of the tag, or -1
+    */
+   public int getTagIndex(final String tag) {
+      for (int i = 0; i < tagNames.length; i++) {
+         if (tagNames[i].equals(tag)) return i;
+      }
+      return -1;
+   }
+
+   /**
+    * Get the index of the specified field.
+    *
+    * @param field the name of the field
+    * @return the index of the field, or -1
+    */
+   public int getFieldIndex(final String field) {
+      for (int i = 0; i < fieldNames.length; i++) {
+         if (fieldNames[i].equals(field)) return i;
+      }
+      return -1;
+   }
+
+   @Override
+   public String toString() {
+      return "PointTemplate[" + measurement + ", tags=" + Arrays.toString(tagNames) + ", fields=" + Arrays.toString(fieldNames) + "]";
+   }
+
+   private static byte[] frame(final byte separator, final byte[] key) {
+      final int start = separator != 0 ? 1 : 0;
+      final byte[] bytes = new byte[start + key.length + 1];
+      if (start > 0) {
+         bytes[0] = separator;
+      }
+      System.arraycopy(key, 0, bytes, start, key.length);
+      bytes[bytes.length - 1] = '=';
+      return bytes;
+   }
+
+   private static final class FieldDeclaration {
+      private final String name;
+      private final byte type;
+      private final DoubleFormat format;
+
+      private FieldDeclaration(final String name, final byte type, final DoubleFormat format) {
+         this.name = name;
+         this.type = type;
+         this.format = format;
+      }
+   }
+
+   /**
+    * Builder for a {@link PointTemplate} instance.  Call {@link PointFactory#template(String)} to
+    * create an instance of the {@link PointTemplate.Builder}.
+    */
+   public static final class Builder {
+      private final PointFactory factory;
+      private final String measurement;
+      private final List<String> tags = new ArrayList<>();
+      private final List<FieldDeclaration> fields = new ArrayList<>();
+      private final Set<String> fieldNames = new HashSet<>();
+
+      Builder(final PointFactory factory, final String measurement) {
+         if (measurement == null || measurement.isEmpty()) {
+            throw new IllegalArgumentException("measurement cannot be null or empty");
+         }
+         this.factory = factory;
+         this.measurement = measurement;
+      }
+
+      /**
+       * Declare the next tag, whose index is the number of tags declared before it.
+       *
+       * @param tag the name of the tag
+       * @return this {@link Builder}
+       */
+      public Builder tag(final String tag) {
+         if (tag == null || tag.isEmpty()) {
+            throw new IllegalArgumentException("tag cannot be null or empty");
+         }
+         if (tags.contains(tag)) {
+            throw new IllegalArgumentException("Duplicate tag '" + tag + "'");
+         }
+         if (tags.size() == Point.MAX_TAG_COUNT) {
+            throw new IllegalArgumentException("A template cannot have more than " + Point.MAX_TAG_COUNT + " tags");
+         }
+         tags.add(tag);
+         return this;
+      }
+
+      /**
+       * Declare the next field as a long integer field.
+       *
+       * @param field the name of the field
+       * @return this {@link Builder}
+       */
+      public Builder longField(final String field) {
+         return field(field, LONG, null);
+      }
+
+      /**
+       * Declare the next field as an unsigned 64-bit integer field, set with
+       * {@link Point#setLong(int, long)}.
+       *
+       * @param field the name of the field
+       * @return this {@link Builder}
+       */
+      public Builder unsignedField(final String field) {
+         return field(field, UNSIGNED, null);
+      }
+
+      /**
+       * Declare the next field as a double field, written in the connection's default format.
+       *
+       * @param field the name of the field
+       * @return this {@link Builder}
+       */
+      public Builder doubleField(final String field) {
+         return field(field, DOUBLE, null);
+      }
+
+      /**
+       * Declare the next field as a double field, written in the specified format.
+       *
+       * @param field the name of the field
+       * @param format the format used to serialize the field
+       * @return this {@link Builder}
+       */
+      public Builder doubleField(final String field, final DoubleFormat format) {
+         if (format == null) {
+            throw new IllegalArgumentException("format cannot be null");
+         }
+         return field(field, DOUBLE, format);
+      }
+
+      /**
+       * Declare the next field as a string field.
+       *
+       * @param field the name of the field
+       * @return this {@link Builder}
+       */
+      public Builder stringField(final String field) {
+         return field(field, STRING, null);
+      }
+
+      /**
+       * Declare the next field as a boolean field.
+       *
+       * @param field the name of the field
+       * @return this {@link Builder}
+       */
+      public Builder booleanField(final String field) {
+         return field(field, BOOLEAN, null);
+      }
+
+      public PointTemplate build() {
+         if (fields.isEmpty()) {
+            throw new IllegalStateException("A template must declare at least one field");
+         }
+         return new PointTemplate(factory, this);
+      }
+
+      private Builder field(final String field, final byte type, final DoubleFormat format) {
+         if (field == null || field.isEmpty()) {
+            throw new IllegalArgumentException("field cannot be null or empty");
+         }
+         if (!fieldNames.add(field)) {
+            throw new IllegalArgumentException("Duplicate field '" + field + "'");
+         }
+         // the set fields of a point are tracked in a 64-bit mask
+         if (fields.size() == Math.min(Long.SIZE, Point.MAX_FIELD_COUNT)) {
+            throw new IllegalArgumentException("A template cannot have more than " + Math.min(Long.SIZE, Point.MAX_FIELD_COUNT) + " fields");
+         }
+         fields.add(new FieldDeclaration(field, type, format));
+         return this;
+      }
+   }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of serialized series key prefixes, ie. {@code measurement,tag1=v1,tag2=v2}, keyed by
+ * the measurement name and the tag names and values of a {@link Point}.  When a point with a
+ * previously seen tag set is serialized, the sorted and escaped prefix is copied in one shot.
+ * <p>
+ * Each serializing thread has its own LRU-bounded cache, whose capacity can be set with the
+ * {@code com.zaxxer.influx4j.seriesCacheSize} system property (default 4096, 0 disables the
+ * cache).  The hit and miss counters below are global, and can be used to size the cache.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class SeriesKeyCache {
+   private static final int MAX_SERIES = Integer.getInteger("com.zaxxer.influx4j.seriesCacheSize", 4096);
+
+   private static final LongAdder HITS = new LongAdder();
+   private static final LongAdder MISSES = new LongAdder();
+   private static final LongAdder EVICTIONS = new LongAdder();
+
+   private static final ThreadLocal<SeriesKeyCache> THREAD_SERIES_CACHE = new ThreadLocal<>();
+
+   private final LruMap series;
+   private final SeriesKey probe;
+
+   private SeriesKeyCache() {
+      this.probe = new SeriesKey(new String[16], 0);
+      this.series = new LruMap();
+   }
+
+   /**
+    * Get the number of serializations that were satisfied from the cache.
+    *
+    * @return the number of cache hits
+    */
+   public static long getHitCount() {
+      return HITS.sum();
+   }
+
+   /**
+    * Get the number of serializations of tagged points that were not satisfied from the cache.
+    *
+    * @return the number of cache misses
+    */
+   public static long getMissCount() {
+      return MISSES.sum();
+   }
+
+   /**
+    * Get the number of entries evicted because a cache was at capacity.  A steadily growing
+    * eviction count suggests that {@code com.zaxxer.influx4j.seriesCacheSize} is too small.
+    *
+    * @return the number of cache evictions
+    */
+   public static long getEvictionCount() {
+      return EVICTIONS.sum();
+   }
+
+   /**
+    * Get the cache of the calling thread.
+    *
+    * @return the cache of the calling thread, or {@code null} if the cache is disabled
+    */
+   static SeriesKeyCache get() {
+      if (MAX_SERIES <= 0) {
+         return null;
+      }
+
+      SeriesKeyCache cache = THREAD_SERIES_CACHE.get();
+      if (cache == null) {
+         cache = new SeriesKeyCache();
+         THREAD_SERIES_CACHE.set(cache);
+      }
+      return cache;
+   }
+
+   /**
+    * Look up the serialized prefix of the specified series.  If the lookup misses, the series
+    * is remembered so that the subsequent {@link #store(ByteBuffer, int)} call can cache it.
+    *
+    * @param measurement the measurement name
+    * @param tagNames the tag names, in insertion order
+    * @param tagValues the tag values, parallel to the names
+    * @param tagCount the number of tags
+    * @return the serialized prefix, or {@code null}
+    */
+   byte[] lookup(final String measurement, final String[] tagNames, final String[] tagValues, final int tagCount) {
+      probe.set(measurement, tagNames, tagValues, tagCount);
+
+      final byte[] prefix = series.get(probe);
+      if (prefix != null) {
+         HITS.increment();
+      }
+      else {
+         MISSES.increment();
+      }
+      return prefix;
+   }
+
+   /**
+    * Cache the prefix of the series of the last {@link #lookup}, which was just serialized into
+    * the buffer starting at the specified position.
+    *
+    * @param buffer the buffer containing the serialized prefix, ending at its current position
+    * @param start the position in the buffer where the prefix starts
+    */
+   void store(final ByteBuffer buffer, final int start) {
+      final byte[] prefix = new byte[buffer.position() - start];
+      if (buffer.hasArray()) {
+         System.arraycopy(buffer.array(), buffer.arrayOffset() + start, prefix, 0, prefix.length);
+      }
+      else {
+         for (int i = 0; i < prefix.length; i++) {
+            prefix[i] = buffer.get(start + i);
+         }
+      }
+
+      series.put(probe.copy(), prefix);
+   }
+
+   /**
+    * An access-ordered map, which evicts its least recently used entry beyond the capacity.
+    */
+   private static final class LruMap extends LinkedHashMap<SeriesKey, byte[]> {
+      private static final long serialVersionUID = 1L;
+
+      LruMap() {
+         super(64, 0.75f, true);
+      }
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<SeriesKey, byte[]> eldest) {
+         if (size() > MAX_SERIES) {
+            EVICTIONS.increment();
+            return true;
+         }
+         return false;
+      }
+   }
+
+   /**
+    * The identity of a series: the measurement name followed by the tag names and values.
+    */
+   private static final class SeriesKey {
+      private String[] strings;
+      private int length;
+      private int hash;
+
+      private SeriesKey(final String[] strings, final int length) {
+         this.strings = strings;
+         this.length = length;
+      }
+
+      void set(final String measurement, final String[] tagNames, final String[] tagValues, final int tagCount) {
+         final int len = 1 + tagCount * 2;
+         if (strings.length < len) {
+            strings = new String[len];
+         }
+
+         int h = measurement.hashCode();
+         strings[0] = measurement;
+         for (int i = 0, j = 1; i < tagCount; i++) {
+            final String name = tagNames[i];
+            final String value = tagValues[i];
+            strings[j++] = name;
+            strings[j++] = value;
+            h = 31 * (31 * h + name.hashCode()) + value.hashCode();
+         }
+
+         this.length = len;
+         this.hash = h;
+      }
+
+      SeriesKey copy() {
+         final SeriesKey copy = new SeriesKey(Arrays.copyOf(strings, length), length);
+         copy.hash = hash;
+         return copy;
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(final Object obj) {
+         if (this == obj) return true;
+         if (!(obj instanceof SeriesKey)) return false;
+
+         final SeriesKey other = (SeriesKey) obj;
+         if (hash != other.hash || length != other.length) return false;
+
+         for (int i = 0; i < length; i++) {
+            if (!strings[i].equals(other.strings[i])) return false;
+         }
+         return true;
+      }
+   }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+/**
+ * The transport of the write batches of a connection, in place of the default OkHttp client,
+ * see {@link InfluxDB.Builder#setTransport(Transport.Factory)}.  The batches of a connection
+ * are sent concurrently by its writer threads, so a transport must be thread-safe.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public interface Transport extends Closeable {
+   /**
+    * Send a batch of line protocol to the write endpoint.
+    *
+    * @param precision the precision of the timestamps of the batch, which replaces the
+    *        precision parameter of the write URL
+    * @param compressed true if the body is gzip compressed
+    * @param body the buffers of the request body, whose remaining bytes are sent in order
+    * @param count the number of buffers of the body
+    * @param error receives the response body of an unsuccessful write
+    * @return the HTTP status code of the response
+    * @throws IOException if the request could not be sent, or its response read
+    */
+   int write(Precision precision, boolean compressed, ByteBuffer[] body, int count, StringBuilder error) throws IOException;
+
+   /**
+    * A keep-alive HTTP/1.1 transport over blocking {@link java.nio.channels.SocketChannel}s,
+    * which sends the serialized batch with a gathering write and parses only the status line
+    * and framing headers of the response.  Supports the HTTP protocol only.
+    *
+    * @return a factory of NIO transports
+    */
+   static Factory nio() {
+      return NioTransport::new;
+   }
+
+   /**
+    * A transport that discards every batch and reports success, to benchmark the write path
+    * without the network.
+    *
+    * @return a factory of no-op transports
+    */
+   static Factory noop() {
+      return (writeUrl, authorization) -> new NoopTransport();
+   }
+
+   /**
+    * Creates the transport of a connection.
+    */
+   @FunctionalInterface
+   interface Factory {
+      /**
+       * @param writeUrl the write URL of the connection, with its database, retention policy,
+       *        consistency and precision parameters
+       * @param authorization the value of the Authorization header
+       * @return a new transport
+       * @throws IOException if the transport cannot be created
+       */
+      Transport create(URL writeUrl, String authorization) throws IOException;
+   }
+}
@@ -16,6 +16,7 @@
 
 package com.zaxxer.influx4j.util;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 import com.zaxxer.influx4j.util.fastdouble.FastDtoaBuffer;
@@ -56,10 +57,23 @@ public class FastValue2Buffer {
            1000000000000000000L };
    //      10000000000000000000L    -- too big for signed long
 
+   /** 2^53, above which a double has no fractional part and rounding the scaled value is inexact. */
+   private static final double MAX_EXACT_SCALED = 9007199254740992d;
+
    private static final ThreadLocal<FastDtoaBuffer> THREAD_FAST_DTOA_BUFFER = new ThreadLocal<>();
 
    private static final byte[] LONG_MINVALUE_BYTES = String.valueOf(Long.MIN_VALUE).getBytes();
 
+   /** The ASCII digits of 00 through 99, two bytes per value. */
+   static final byte[] DIGIT_PAIRS = new byte[200];
+
+   static {
+      for (int i = 0; i < 100; i++) {
+         DIGIT_PAIRS[i << 1] = (byte) ('0' + i / 10);
+         DIGIT_PAIRS[(i << 1) + 1] = (byte) ('0' + i % 10);
+      }
+   }
+
    private FastValue2Buffer() {
    }
 
@@ -73,6 +87,69 @@ public class FastValue2Buffer {
       dtoaBuffer.setBuffer(buffer).format(value);
    }
 
+   /**
+    * Write the shortest decimal representation of the value that rounds back to the same float.
+    *
+    * @param value the value to write
+    * @param buffer the buffer to write to
+    */
+   public static void writeFloatToBuffer(final float value, final ByteBuffer buffer) {
+      FastDtoaBuffer dtoaBuffer = THREAD_FAST_DTOA_BUFFER.get();
+      if (dtoaBuffer == null) {
+         dtoaBuffer = new FastDtoaBuffer();
+         THREAD_FAST_DTOA_BUFFER.set(dtoaBuffer);
+      }
+
+      dtoaBuffer.setBuffer(buffer).format(value);
+   }
+
+   /**
+    * Write the value rounded (half away from zero) to the specified number of fractional digits, omitting
+    * trailing fractional zeros (and the decimal point if no fractional digits remain).  Values
+    * whose scaled magnitude is 2<sup>53</sup> or more, where the double is no more precise than
+    * the requested digits, and non-finite values, are written with
+    * {@link #writeDoubleToBuffer(double, ByteBuffer)}.
+    *
+    * @param value the value to write
+    * @param fractionDigits the number of fractional digits, 0 to 17
+    * @param buffer the buffer to write to
+    */
+   public static void writeFixedDoubleToBuffer(final double value, int fractionDigits, final ByteBuffer buffer) {
+      long scale = fractionDigits == 0 ? 1L : PowersOf10[fractionDigits];
+      final double scaled = Math.abs(value) * scale;
+      if (!(scaled < MAX_EXACT_SCALED)) {
+         writeDoubleToBuffer(value, buffer);
+         return;
+      }
+
+      long units = Math.round(scaled);
+      if (units == 0) {
+         buffer.put((byte) '0');
+         return;
+      }
+
+      while (fractionDigits > 0 && units % 10 == 0) {
+         units /= 10;
+         scale /= 10;
+         fractionDigits--;
+      }
+
+      if (value < 0) {
+         buffer.put((byte) '-');
+      }
+
+      final long integer = units / scale;
+      writeDigits(integer, numberDigits(integer), buffer);
+      if (fractionDigits > 0) {
+         final long fraction = units - integer * scale;
+         buffer.put((byte) '.');
+         for (int zeros = fractionDigits - numberDigits(fraction); zeros > 0; zeros--) {
+            buffer.put((byte) '0');
+         }
+         writeDigits(fraction, numberDigits(fraction), buffer);
+      }
+   }
+
    public static void writeLongToBuffer(final long value, final ByteBuffer buffer) {
       final long v;
       if (value >= 0) {
@@ -87,31 +164,99 @@ public class FastValue2Buffer {
          buffer.put((byte) '-');
       }
 
-      final int offset = buffer.position();
-      final int len = numberDigits(v);
-      final byte[] bytes = buffer.array();
+      writeDigits(v, numberDigits(v), buffer);
+   }
+
+   /**
+    * Write the value, interpreted as an unsigned 64-bit integer, to the buffer.
+    *
+    * @param value the unsigned value
+    * @param buffer the buffer to write to
+    */
+   public static void writeUnsignedLongToBuffer(final long value, final ByteBuffer buffer) {
+      if (value >= 0) {
+         writeDigits(value, numberDigits(value), buffer);
+         return;
+      }
 
-      writeNumber(bytes, len, v, offset);
-      buffer.position(buffer.position() + len);
+      // Values of 2^63 and above: format the unsigned quotient by 10, which fits in a signed long,
+      // followed by the last digit
+      final long quotient = (value >>> 1) / 5;
+      final long lastDigit = value - quotient * 10;
+      writeDigits(quotient, numberDigits(quotient), buffer);
+      buffer.put((byte) ('0' + lastDigit));
+   }
+
+   private static void writeDigits(final long value, final int len, final ByteBuffer buffer) {
+      final int position = buffer.position();
+      if (buffer.remaining() < len) {
+         throw new BufferOverflowException();
+      }
+
+      if (buffer.hasArray()) {
+         writeDigits(buffer.array(), buffer.arrayOffset() + position + len, value);
+      }
+      else {
+         writeDigits(buffer, position + len, value);
+      }
+      buffer.position(position + len);
    }
 
-   private static void writeNumber(final byte[] buffer, final int len, final long value, final int offset) {
-      switch (len) {
-         case 1:
-            buffer[offset] = (byte) ('0' + value);
-            break;
-         default:
-            writeChar(buffer, len, value, offset);
-            break;
+   /**
+    * Write the digits of a non-negative value backwards from {@code end}, two digits per step.
+    */
+   static void writeDigits(final byte[] bytes, int end, long value) {
+      while (value > Integer.MAX_VALUE) {
+         final long quotient = value / 100;
+         final int pair = (int) (value - quotient * 100) << 1;
+         bytes[--end] = DIGIT_PAIRS[pair + 1];
+         bytes[--end] = DIGIT_PAIRS[pair];
+         value = quotient;
+      }
+
+      int v = (int) value;
+      while (v >= 100) {
+         final int quotient = v / 100;
+         final int pair = (v - quotient * 100) << 1;
+         bytes[--end] = DIGIT_PAIRS[pair + 1];
+         bytes[--end] = DIGIT_PAIRS[pair];
+         v = quotient;
+      }
+
+      if (v >= 10) {
+         bytes[--end] = DIGIT_PAIRS[(v << 1) + 1];
+         bytes[--end] = DIGIT_PAIRS[v << 1];
+      }
+      else {
+         bytes[--end] = (byte) ('0' + v);
       }
    }
 
-   private static void writeChar(final byte[] buffer, final int len, final long value, final int offset) {
-      final long div = value / 10L;
-      final long rem = value % 10L;
-      buffer[len - 1 + offset] = (byte) ('0' + rem);
+   private static void writeDigits(final ByteBuffer buffer, int end, long value) {
+      while (value > Integer.MAX_VALUE) {
+         final long quotient = value / 100;
+         final int pair = (int) (value - quotient * 100) << 1;
+         buffer.put(--end, DIGIT_PAIRS[pair + 1]);
+         buffer.put(--end, DIGIT_PAIRS[pair]);
+         value = quotient;
+      }
+
+      int v = (int) value;
+      while (v >= 100) {
+         final int quotient = v / 100;
+         final int pair = (v - quotient * 100) << 1;
+         buffer.put(--end, DIGIT_PAIRS[pair + 1]);
+         buffer.put(--end, DIGIT_PAIRS[pair]);
+         v = quotient;
+      }
 
-      writeNumber(buffer, len - 1, div, offset);
+      if (v >= 10) {
+         buffer.put(--end, DIGIT_PAIRS[(v << 1) + 1]);
+         buffer.put(--end, DIGIT_PAIRS[v << 1]);
+      }
+      else {
+         buffer.put(--end, (byte) ('0' + v));
+      }
    }
 
    private static int log2(long value) {
@@ -124,7 +269,7 @@ public class FastValue2Buffer {
       return DE_BRUIJN_TABLE[(int) (((value - (value >> 1)) * 0x07EDD5E59A4E28C2L) >>> 58)];
    }
 
-   private static int numberDigits(long value) {
+   static int numberDigits(long value) {
       final int t = (log2(value) + 1) * 1233 >> 12;
       final long pow10;
       if (t == 19) {
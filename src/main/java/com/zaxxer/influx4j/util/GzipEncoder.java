@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import okio.BufferedSink;
+
+/**
+ * A reusable gzip (RFC 1952) encoder.  Unlike {@link java.util.zip.GZIPOutputStream} or okio's
+ * {@code GzipSink}, a single instance (and its native {@link Deflater}) is reset and reused for
+ * every member it encodes, so encoding a batch does not allocate.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class GzipEncoder {
+   private static final int CHUNK_SIZE = 64 * 1024;
+   private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+   private final Deflater deflater;
+   private final CRC32 crc;
+   private final byte[] input;
+   private final byte[] output;
+
+   private long bytesIn;
+   private long bytesOut;
+
+   public GzipEncoder(final int level) {
+      this.deflater = new Deflater(level, true);
+      this.crc = new CRC32();
+      this.input = new byte[CHUNK_SIZE];
+      this.output = new byte[CHUNK_SIZE];
+   }
+
+   /**
+    * Start a new gzip member, writing the gzip header to the sink.
+    *
+    * @param sink the sink to write compressed output to
+    * @throws IOException if the sink throws
+    */
+   public void start(final BufferedSink sink) throws IOException {
+      deflater.reset();
+      crc.reset();
+      sink.write(HEADER);
+      bytesIn = 0;
+      bytesOut = HEADER.length;
+   }
+
+   /**
+    * Compress the remaining bytes of the source buffer, writing compressed output to the sink.
+    * The position of the source buffer is advanced to its limit.
+    *
+    * @param source the uncompressed bytes
+    * @param sink the sink to write compressed output to
+    * @throws IOException if the sink throws
+    */
+   public void write(final ByteBuffer source, final BufferedSink sink) throws IOException {
+      while (source.hasRemaining()) {
+         final byte[] bytes;
+         final int offset;
+         final int len;
+         if (source.hasArray()) {
+            bytes = source.array();
+            offset = source.arrayOffset() + source.position();
+            len = source.remaining();
+            source.position(source.limit());
+         }
+         else {
+            bytes = input;
+            offset = 0;
+            len = Math.min(source.remaining(), input.length);
+            source.get(input, 0, len);
+         }
+
+         crc.update(bytes, offset, len);
+         deflater.setInput(bytes, offset, len);
+         while (!deflater.needsInput()) {
+            deflate(sink);
+         }
+         bytesIn += len;
+      }
+   }
+
+   /**
+    * Finish the current gzip member, writing the remaining compressed output and the gzip
+    * trailer to the sink.
+    *
+    * @param sink the sink to write compressed output to
+    * @throws IOException if the sink throws
+    */
+   public void finish(final BufferedSink sink) throws IOException {
+      deflater.finish();
+      while (!deflater.finished()) {
+         deflate(sink);
+      }
+
+      sink.writeIntLe((int) crc.getValue());
+      sink.writeIntLe((int) bytesIn);
+      bytesOut += 8;
+   }
+
+   /**
+    * @return the number of uncompressed bytes in the current (or last) gzip member
+    */
+   public long getBytesIn() {
+      return bytesIn;
+   }
+
+   /**
+    * @return the number of compressed bytes, including header and trailer, of the current (or last)
+    *         gzip member
+    */
+   public long getBytesOut() {
+      return bytesOut;
+   }
+
+   /**
+    * Release the native resources of the underlying {@link Deflater}.  The encoder cannot be used
+    * afterwards.
+    */
+   public void end() {
+      deflater.end();
+   }
+
+   private void deflate(final BufferedSink sink) throws IOException {
+      final int len = deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH);
+      if (len > 0) {
+         sink.write(output, 0, len);
+         bytesOut += len;
+      }
+   }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static com.zaxxer.influx4j.util.FastValue2Buffer.DIGIT_PAIRS;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.numberDigits;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeDigits;
+import static com.zaxxer.influx4j.util.FastValue2Buffer.writeLongToBuffer;
+
+/**
+ * Writes timestamps incrementally.  A timestamp is split into its low-order nine digits and the
+ * digits above them, and the formatted high-order digits are retained.  Consecutive timestamps in
+ * a batch are usually within a second of each other at nanosecond precision (and within days at
+ * millisecond precision), so the high-order digits are usually copied as-is and only the low-order
+ * digits are formatted, as a fixed-length run without the length computation.
+ * <p>
+ * Each serializing thread has its own formatter.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+public final class TimestampFormatter {
+   private static final long LOW_DIVISOR = 1_000_000_000L;
+   private static final int LOW_DIGITS = 9;
+
+   private static final ThreadLocal<TimestampFormatter> THREAD_TIMESTAMP_FORMATTER = new ThreadLocal<>();
+
+   private final byte[] high = new byte[19 - LOW_DIGITS];
+   private long lastHigh = -1;
+   private int highLength;
+
+   // formatting space for buffers without an accessible backing array (ie. direct buffers)
+   private final byte[] scratch = new byte[LOW_DIGITS];
+
+   private TimestampFormatter() {
+   }
+
+   /**
+    * Get the formatter of the calling thread.
+    *
+    * @return the formatter of the calling thread
+    */
+   public static TimestampFormatter get() {
+      TimestampFormatter formatter = THREAD_TIMESTAMP_FORMATTER.get();
+      if (formatter == null) {
+         formatter = new TimestampFormatter();
+         THREAD_TIMESTAMP_FORMATTER.set(formatter);
+      }
+      return formatter;
+   }
+
+   /**
+    * Write the decimal digits of the timestamp to the buffer.
+    *
+    * @param timestamp the timestamp
+    * @param buffer the buffer to write to
+    */
+   public void write(final long timestamp, final ByteBuffer buffer) {
+      if (timestamp < LOW_DIVISOR) {
+         // negative, or too short to have high-order digits
+         writeLongToBuffer(timestamp, buffer);
+         return;
+      }
+
+      final long highValue = timestamp / LOW_DIVISOR;
+      if (highValue != lastHigh) {
+         highLength = numberDigits(highValue);
+         writeDigits(high, highLength, highValue);
+         lastHigh = highValue;
+      }
+
+      final int low = (int) (timestamp - highValue * LOW_DIVISOR);
+      final int length = highLength + LOW_DIGITS;
+      final int position = buffer.position();
+      if (buffer.remaining() < length) {
+         throw new BufferOverflowException();
+      }
+
+      if (buffer.hasArray()) {
+         final byte[] bytes = buffer.array();
+         final int offset = buffer.arrayOffset() + position;
+         System.arraycopy(high, 0, bytes, offset, highLength);
+         writeNineDigits(bytes, offset + length, low);
+         buffer.position(position + length);
+      }
+      else {
+         writeNineDigits(scratch, LOW_DIGITS, low);
+         buffer.put(high, 0, highLength);
+         buffer.put(scratch, 0, LOW_DIGITS);
+      }
+   }
+
+   /**
+    * Write exactly nine digits of the value, zero-padded, backwards from {@code end}.
+    */
+   private static void writeNineDigits(final byte[] bytes, final int end, int value) {
+      int quotient = value / 100;
+      int pair = (value - quotient * 100) << 1;
+      bytes[end - 1] = DIGIT_PAIRS[pair + 1];
+      bytes[end - 2] = DIGIT_PAIRS[pair];
+      value = quotient;
+
+      quotient = value / 100;
+      pair = (value - quotient * 100) << 1;
+      bytes[end - 3] = DIGIT_PAIRS[pair + 1];
+      bytes[end - 4] = DIGIT_PAIRS[pair];
+      value = quotient;
+
+      quotient = value / 100;
+      pair = (value - quotient * 100) << 1;
+      bytes[end - 5] = DIGIT_PAIRS[pair + 1];
+      bytes[end - 6] = DIGIT_PAIRS[pair];
+      value = quotient;
+
+      quotient = value / 100;
+      pair = (value - quotient * 100) << 1;
+      bytes[end - 7] = DIGIT_PAIRS[pair + 1];
+      bytes[end - 8] = DIGIT_PAIRS[pair];
+
+      bytes[end - 9] = (byte) ('0' + quotient);
+   }
+}
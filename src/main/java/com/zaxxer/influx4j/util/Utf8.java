@@ -18,7 +18,14 @@ package com.zaxxer.influx4j.util;
 import static java.lang.Character.MAX_SURROGATE;
 import static java.lang.Character.MIN_SURROGATE;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class Utf8 {
+   private static final ThreadLocal<char[]> THREAD_CHAR_BUFFER = new ThreadLocal<>();
+   private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
    public static boolean containsUnicode(final String string) {
       for (int i = 0; i < string.length(); i++) {
          if (string.charAt(i) > 0x7f) {
@@ -32,12 +39,11 @@ public class Utf8 {
    /**
     * Returns the number of bytes in the UTF-8-encoded form of {@code sequence}. For a string, this
     * method is equivalent to {@code string.getBytes(UTF_8).length}, but is more efficient in both
-    * time and space.
+    * time and space.  Like {@code getBytes(UTF_8)}, an unpaired surrogate is counted as the single
+    * {@code '?'} byte that replaces it.
     *
     * @param sequence the CharSequence to measure
     * @return the length in bytes of the UTF-8 representation of the CharSequence
-    * @throws IllegalArgumentException if {@code sequence} contains ill-formed UTF-16 (unpaired
-    *     surrogates)
     */
    public static int encodedLength(final CharSequence sequence) {
       // Warning to maintainers: this implementation is highly optimized.
@@ -80,14 +86,252 @@ public class Utf8 {
             utf8Length += 2;
             // jdk7+: if (Character.isSurrogate(c)) {
             if (MIN_SURROGATE <= c && c <= MAX_SURROGATE) {
-               // Check that we have a well-formed surrogate pair.
+               // A well-formed surrogate pair is 4 bytes, an unpaired surrogate is replaced by '?'
                if (Character.codePointAt(sequence, i) == c) {
-                  throw new IllegalArgumentException("Unpaired surrogate pair at index " +i);
+                  utf8Length -= 2;
+               }
+               else {
+                  i++;
                }
-               i++;
             }
          }
       }
       return utf8Length;
    }
+
+   /**
+    * Create an escape set for use with {@link #writeEscaped(ByteBuffer, String, EscapeSet)}.
+    * Only characters below {@code '@'} (0x40) can be escaped.
+    *
+    * @param chars the characters to escape
+    * @return the escape set
+    */
+   public static EscapeSet escapeSet(final char... chars) {
+      return new EscapeSet(chars);
+   }
+
+   /**
+    * Returns the number of bytes {@link #writeEscaped(ByteBuffer, String, EscapeSet)} writes for
+    * the specified string.
+    *
+    * @param string the string to measure
+    * @param escapes the escape set
+    * @return the length in bytes of the escaped UTF-8 representation of the string
+    */
+   public static int escapedLength(final String string, final EscapeSet escapes) {
+      int count = 0;
+      for (int i = 0; i < string.length(); i++) {
+         if (escapes.contains(string.charAt(i))) {
+            count++;
+         }
+      }
+      return encodedLength(string) + count;
+   }
+
+   /**
+    * Write the UTF-8 encoding of the string into the buffer, preceding every character in the
+    * escape set with a backslash.  Unpaired surrogates are written as {@code '?'}, as
+    * {@code string.getBytes(UTF_8)} does.  Nothing is allocated, and nothing is written if the
+    * buffer does not have enough space remaining.
+    * <p>
+    * The characters of the string are first copied in bulk into a per-thread scratch array, so
+    * that the encoding loop runs over a plain {@code char[]} rather than through
+    * {@link String#charAt(int)}, and escaping is folded into that single pass.
+    *
+    * @param buffer the buffer to write to
+    * @param string the string to write
+    * @param escapes the escape set
+    * @throws BufferOverflowException if the escaped string does not fit in the buffer
+    */
+   public static void writeEscaped(final ByteBuffer buffer, final String string, final EscapeSet escapes) {
+      final int len = string.length();
+      final int remaining = buffer.remaining();
+
+      // No character expands to more than 3 bytes, only check the exact length when it is close
+      if (remaining < len * 3 && remaining < escapedLength(string, escapes)) {
+         throw new BufferOverflowException();
+      }
+
+      final char[] chars = getCharBuffer(len);
+      string.getChars(0, len, chars, 0);
+
+      final int position = buffer.position();
+      if (buffer.hasArray()) {
+         final int offset = buffer.arrayOffset();
+         final int end = writeEscaped(buffer.array(), offset + position, chars, len, escapes.mask);
+         buffer.position(end - offset);
+      }
+      else {
+         buffer.position(writeEscapedDirect(buffer, position, chars, len, escapes.mask));
+      }
+   }
+
+   /**
+    * Write the UTF-8 encoding of the string into the buffer as the content of a JSON string,
+    * escaping quotes, backslashes and control characters.  Unpaired surrogates are written as
+    * {@code '?'}.
+    *
+    * @param buffer the buffer to write to
+    * @param string the string to write
+    * @throws BufferOverflowException if the escaped string does not fit in the buffer
+    */
+   public static void writeJsonEscaped(final ByteBuffer buffer, final String string) {
+      final int len = string.length();
+      for (int i = 0; i < len; i++) {
+         final char c = string.charAt(i);
+         if (c < 0x80) {
+            if (c >= ' ' && c != '"' && c != '\\') {
+               buffer.put((byte) c);
+               continue;
+            }
+
+            buffer.put((byte) '\\');
+            switch (c) {
+               case '"':
+               case '\\':
+                  buffer.put((byte) c);
+                  break;
+               case '\b':
+                  buffer.put((byte) 'b');
+                  break;
+               case '\f':
+                  buffer.put((byte) 'f');
+                  break;
+               case '\n':
+                  buffer.put((byte) 'n');
+                  break;
+               case '\r':
+                  buffer.put((byte) 'r');
+                  break;
+               case '\t':
+                  buffer.put((byte) 't');
+                  break;
+               default:
+                  buffer.put((byte) 'u').put((byte) '0').put((byte) '0');
+                  buffer.put(HEX_DIGITS[c >>> 4]).put(HEX_DIGITS[c & 0xf]);
+            }
+         }
+         else if (c < 0x800) {
+            buffer.put((byte) (0xc0 | (c >>> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+         }
+         else if (c < MIN_SURROGATE || c > MAX_SURROGATE) {
+            buffer.put((byte) (0xe0 | (c >>> 12)));
+            buffer.put((byte) (0x80 | ((c >>> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+         }
+         else {
+            final int codePoint = Character.codePointAt(string, i);
+            if (codePoint == c) {
+               buffer.put((byte) '?');
+               continue;
+            }
+            i++;
+            buffer.put((byte) (0xf0 | (codePoint >>> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+            buffer.put((byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+         }
+      }
+   }
+
+   private static char[] getCharBuffer(final int len) {
+      char[] chars = THREAD_CHAR_BUFFER.get();
+      if (chars == null || chars.length < len) {
+         chars = new char[Math.max(len, 256)];
+         THREAD_CHAR_BUFFER.set(chars);
+      }
+      return chars;
+   }
+
+   private static int writeEscaped(final byte[] bytes, int pos, final char[] chars, final int len, final long escapes) {
+      for (int i = 0; i < len; i++) {
+         final char c = chars[i];
+         if (c < 0x80) {
+            if (c < 64 && (escapes & (1L << c)) != 0) {
+               bytes[pos++] = '\\';
+            }
+            bytes[pos++] = (byte) c;
+         }
+         else if (c < 0x800) {
+            bytes[pos++] = (byte) (0xc0 | (c >>> 6));
+            bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+         }
+         else if (c < MIN_SURROGATE || c > MAX_SURROGATE) {
+            bytes[pos++] = (byte) (0xe0 | (c >>> 12));
+            bytes[pos++] = (byte) (0x80 | ((c >>> 6) & 0x3f));
+            bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+         }
+         else {
+            final int codePoint = Character.codePointAt(chars, i, len);
+            if (codePoint == c) {
+               bytes[pos++] = '?';
+               continue;
+            }
+            i++;
+            bytes[pos++] = (byte) (0xf0 | (codePoint >>> 18));
+            bytes[pos++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3f));
+            bytes[pos++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3f));
+            bytes[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+         }
+      }
+      return pos;
+   }
+
+   private static int writeEscapedDirect(final ByteBuffer buffer, int pos, final char[] chars, final int len, final long escapes) {
+      for (int i = 0; i < len; i++) {
+         final char c = chars[i];
+         if (c < 0x80) {
+            if (c < 64 && (escapes & (1L << c)) != 0) {
+               buffer.put(pos++, (byte) '\\');
+            }
+            buffer.put(pos++, (byte) c);
+         }
+         else if (c < 0x800) {
+            buffer.put(pos++, (byte) (0xc0 | (c >>> 6)));
+            buffer.put(pos++, (byte) (0x80 | (c & 0x3f)));
+         }
+         else if (c < MIN_SURROGATE || c > MAX_SURROGATE) {
+            buffer.put(pos++, (byte) (0xe0 | (c >>> 12)));
+            buffer.put(pos++, (byte) (0x80 | ((c >>> 6) & 0x3f)));
+            buffer.put(pos++, (byte) (0x80 | (c & 0x3f)));
+         }
+         else {
+            final int codePoint = Character.codePointAt(chars, i, len);
+            if (codePoint == c) {
+               buffer.put(pos++, (byte) '?');
+               continue;
+            }
+            i++;
+            buffer.put(pos++, (byte) (0xf0 | (codePoint >>> 18)));
+            buffer.put(pos++, (byte) (0x80 | ((codePoint >>> 12) & 0x3f)));
+            buffer.put(pos++, (byte) (0x80 | ((codePoint >>> 6) & 0x3f)));
+            buffer.put(pos++, (byte) (0x80 | (codePoint & 0x3f)));
+         }
+      }
+      return pos;
+   }
+
+   /**
+    * A set of ASCII characters below {@code '@'} to escape with a backslash, held as a bit mask
+    * indexed by character.
+    */
+   public static final class EscapeSet {
+      private final long mask;
+
+      private EscapeSet(final char... chars) {
+         long m = 0;
+         for (final char c : chars) {
+            if (c >= 64) {
+               throw new IllegalArgumentException("Cannot escape character " + c);
+            }
+            m |= 1L << c;
+         }
+         this.mask = m;
+      }
+
+      boolean contains(final char c) {
+         return c < 64 && (mask & (1L << c)) != 0;
+      }
+   }
 }
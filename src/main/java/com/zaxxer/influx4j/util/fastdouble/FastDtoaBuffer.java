@@ -14,6 +14,13 @@ public final class FastDtoaBuffer {
    private final DiyFp[] diyFps = new DiyFp[20];
    private int dipFpNdx;
 
+   // the longest formatted value, ie. "-0.00000" followed by 17 significant digits
+   private static final int MAX_FORMATTED_LENGTH = 25;
+
+   // formatting space for buffers without an accessible backing array (ie. direct buffers), or
+   // without room for the longest formatted value, which is then put with an overflow check
+   private final byte[] scratch = new byte[32];
+
    private ByteBuffer buffer;
    byte[] bytes;
    int offset;
@@ -28,8 +35,14 @@ public final class FastDtoaBuffer {
 
    public FastDtoaBuffer setBuffer(final ByteBuffer buffer) {
       this.buffer = buffer;
-      this.bytes = buffer.array();
-      this.offset = buffer.position();
+      if (buffer.hasArray() && buffer.remaining() >= MAX_FORMATTED_LENGTH) {
+         this.bytes = buffer.array();
+         this.offset = buffer.arrayOffset() + buffer.position();
+      }
+      else {
+         this.bytes = scratch;
+         this.offset = 0;
+      }
       this.end = 0;
       this.dipFpNdx = 0;
 
@@ -56,22 +69,69 @@ public final class FastDtoaBuffer {
       bytes[offset + (end - 1)]--;
    }
 
+   /**
+    * Write the shortest decimal representation of the value that rounds back to the same double
+    * to the buffer set with {@link #setBuffer(ByteBuffer)}.  This never allocates.
+    *
+    * @param value the value to format
+    */
    public void format(final double value) {
       if (value == 0d) {
          buffer.put((byte) '0');
       }
-      else if (FastDtoa.numberToBuffer(value, this)) {
-         // check for minus sign
-         int firstDigit = bytes[0] == '-' ? 1 : 0;
-         int decPoint = point - firstDigit;
-         if (decPoint < -5 || decPoint > 21) {
-            toExponentialFormat(firstDigit, decPoint);
-         } else {
-            toFixedFormat(firstDigit, decPoint);
-         }
+      else if (Double.isNaN(value)) {
+         buffer.put(NAN);
+      }
+      else if (Double.isInfinite(value)) {
+         buffer.put(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+      }
+      else {
+         RyuDouble.numberToBuffer(value, this);
+         formatDigits();
+      }
 
-         buffer.position(offset + end);
-         }
+      buffer = null;
+      bytes = null;
+   }
+
+   /**
+    * Write the shortest decimal representation of the value that rounds back to the same float
+    * to the buffer set with {@link #setBuffer(ByteBuffer)}.  This never allocates.
+    *
+    * @param value the value to format
+    */
+   public void format(final float value) {
+      if (value == 0f) {
+         buffer.put((byte) '0');
+      }
+      else if (Float.isNaN(value)) {
+         buffer.put(NAN);
+      }
+      else if (Float.isInfinite(value)) {
+         buffer.put(value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY);
+      }
+      else {
+         RyuDouble.floatToBuffer(value, this);
+         formatDigits();
+      }
+
+      buffer = null;
+      bytes = null;
+   }
+
+   /**
+    * Format the value with Grisu3, which gives up on about 0.5% of doubles and then falls back
+    * to {@link String#valueOf(double)}.  Retained for comparison with {@link #format(double)}.
+    *
+    * @param value the value to format
+    */
+   public void formatGrisu3(final double value) {
+      if (value == 0d) {
+         buffer.put((byte) '0');
+      }
+      else if (FastDtoa.numberToBuffer(value, this)) {
+         formatDigits();
+      }
       else {
          // grisu3 waved off formatting the double, so fallback to String.valueOf()
          buffer.put(String.valueOf(value).getBytes());
@@ -81,6 +141,24 @@ public final class FastDtoaBuffer {
       bytes = null;
    }
 
+   private void formatDigits() {
+      // check for minus sign
+      int firstDigit = bytes[offset] == '-' ? 1 : 0;
+      int decPoint = point - firstDigit;
+      if (decPoint < -5 || decPoint > 21) {
+         toExponentialFormat(firstDigit, decPoint);
+      } else {
+         toFixedFormat(firstDigit, decPoint);
+      }
+
+      if (bytes == scratch) {
+         buffer.put(scratch, 0, end);
+      }
+      else {
+         buffer.position(buffer.position() + end);
+      }
+   }
+
    @Override
    public String toString() {
       return "[chars:" + new String(bytes, offset, end) + ", point:" + point + "]";
@@ -143,4 +221,8 @@ public final class FastDtoaBuffer {
    }
 
    final static byte[] digits = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' };
+
+   private static final byte[] NAN = "NaN".getBytes();
+   private static final byte[] POSITIVE_INFINITY = "Infinity".getBytes();
+   private static final byte[] NEGATIVE_INFINITY = "-Infinity".getBytes();
 }
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j.util.fastdouble;
+
+import java.math.BigInteger;
+
+/**
+ * Shortest round-trip decimal conversion of doubles, after Ulf Adams' Ryu algorithm
+ * ("Ryu: fast float-to-string conversion", PLDI 2018, Apache License 2.0).  Unlike Grisu3,
+ * Ryu is complete: it produces the shortest correctly rounded digits for every finite double,
+ * so there is no fallback path.
+ * <p>
+ * The powers-of-five tables are held as four 31-bit limbs per entry, so that all of the
+ * multiplications fit in Java longs, and are computed once when the class is loaded.
+ *
+ * @author brett.wooldridge at gmail.com
+ */
+final class RyuDouble {
+   private static final int DOUBLE_MANTISSA_BITS = 52;
+   private static final long DOUBLE_MANTISSA_MASK = (1L << DOUBLE_MANTISSA_BITS) - 1;
+   private static final int DOUBLE_EXPONENT_BITS = 11;
+   private static final int DOUBLE_EXPONENT_MASK = (1 << DOUBLE_EXPONENT_BITS) - 1;
+   private static final int DOUBLE_EXPONENT_BIAS = (1 << (DOUBLE_EXPONENT_BITS - 1)) - 1;
+
+   private static final int FLOAT_MANTISSA_BITS = 23;
+   private static final int FLOAT_MANTISSA_MASK = (1 << FLOAT_MANTISSA_BITS) - 1;
+   private static final int FLOAT_EXPONENT_BITS = 8;
+   private static final int FLOAT_EXPONENT_MASK = (1 << FLOAT_EXPONENT_BITS) - 1;
+   private static final int FLOAT_EXPONENT_BIAS = (1 << (FLOAT_EXPONENT_BITS - 1)) - 1;
+
+   private static final int POS_TABLE_SIZE = 326;
+   private static final int NEG_TABLE_SIZE = 291;
+
+   private static final int LIMB_BITS = 31;
+   private static final long LIMB_MASK = (1L << LIMB_BITS) - 1;
+
+   // 5^i, normalized to POW5_BITCOUNT bits
+   private static final int POW5_BITCOUNT = 121;
+   private static final int[][] POW5_SPLIT = new int[POS_TABLE_SIZE][4];
+
+   // 2^(floor(log2(5^i)) + POW5_INV_BITCOUNT) / 5^i, rounded up
+   private static final int POW5_INV_BITCOUNT = 122;
+   private static final int[][] POW5_INV_SPLIT = new int[NEG_TABLE_SIZE][4];
+
+   private static final long[] POWERS_OF_10 = new long[18];
+
+   static {
+      final BigInteger mask = BigInteger.valueOf(LIMB_MASK);
+      for (int i = 0; i < POS_TABLE_SIZE; i++) {
+         final BigInteger pow = BigInteger.valueOf(5).pow(i);
+         final int pow5len = pow.bitLength();
+
+         for (int j = 0; j < 4; j++) {
+            POW5_SPLIT[i][j] = pow.shiftRight(pow5len - POW5_BITCOUNT + (3 - j) * LIMB_BITS).and(mask).intValue();
+         }
+
+         if (i < NEG_TABLE_SIZE) {
+            final BigInteger inv = BigInteger.ONE.shiftLeft(pow5len - 1 + POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE);
+            for (int j = 0; j < 4; j++) {
+               final BigInteger limb = inv.shiftRight((3 - j) * LIMB_BITS);
+               POW5_INV_SPLIT[i][j] = (j == 0 ? limb : limb.and(mask)).intValue();
+            }
+         }
+      }
+
+      POWERS_OF_10[0] = 1;
+      for (int i = 1; i < POWERS_OF_10.length; i++) {
+         POWERS_OF_10[i] = POWERS_OF_10[i - 1] * 10;
+      }
+   }
+
+   private RyuDouble() {
+   }
+
+   /**
+    * Append the sign and the shortest decimal digits of a finite, non-zero double to the buffer,
+    * and set the position of its decimal point, as {@link FastDtoa#numberToBuffer} does.
+    *
+    * @param value a finite, non-zero double
+    * @param buffer the buffer to append to
+    */
+   static void numberToBuffer(final double value, final FastDtoaBuffer buffer) {
+      final long bits = Double.doubleToRawLongBits(value);
+      final int ieeeExponent = (int) ((bits >>> DOUBLE_MANTISSA_BITS) & DOUBLE_EXPONENT_MASK);
+      final long ieeeMantissa = bits & DOUBLE_MANTISSA_MASK;
+
+      if (ieeeExponent == 0) {
+         toDecimal(bits < 0, ieeeMantissa, 1 - DOUBLE_EXPONENT_BIAS - DOUBLE_MANTISSA_BITS - 2, 1, buffer);
+      }
+      else {
+         toDecimal(bits < 0, ieeeMantissa | (1L << DOUBLE_MANTISSA_BITS),
+                   ieeeExponent - DOUBLE_EXPONENT_BIAS - DOUBLE_MANTISSA_BITS - 2,
+                   (ieeeMantissa != 0 || ieeeExponent <= 1) ? 1 : 0, buffer);
+      }
+   }
+
+   /**
+    * Append the sign and the shortest decimal digits that read back as the same float.  A float
+    * is exactly representable as a double, so the same algorithm applies, over the narrower
+    * interval of values that round to the float.
+    *
+    * @param value a finite, non-zero float
+    * @param buffer the buffer to append to
+    */
+   static void floatToBuffer(final float value, final FastDtoaBuffer buffer) {
+      final int bits = Float.floatToRawIntBits(value);
+      final int ieeeExponent = (bits >>> FLOAT_MANTISSA_BITS) & FLOAT_EXPONENT_MASK;
+      final int ieeeMantissa = bits & FLOAT_MANTISSA_MASK;
+
+      if (ieeeExponent == 0) {
+         toDecimal(bits < 0, ieeeMantissa, 1 - FLOAT_EXPONENT_BIAS - FLOAT_MANTISSA_BITS - 2, 1, buffer);
+      }
+      else {
+         toDecimal(bits < 0, ieeeMantissa | (1 << FLOAT_MANTISSA_BITS),
+                   ieeeExponent - FLOAT_EXPONENT_BIAS - FLOAT_MANTISSA_BITS - 2,
+                   (ieeeMantissa != 0 || ieeeExponent <= 1) ? 1 : 0, buffer);
+      }
+   }
+
+   /**
+    * @param negative true if the value is negative
+    * @param m2 the binary significand
+    * @param e2 the binary exponent, less two
+    * @param mmShift 1 unless the value is a power of two, whose lower neighbour is closer
+    * @param buffer the buffer to append to
+    */
+   private static void toDecimal(final boolean negative, final long m2, final int e2, final int mmShift, final FastDtoaBuffer buffer) {
+      final boolean even = (m2 & 1) == 0;
+
+      // Step 2: the interval of valid decimal representations, [mm, mp] * 2^e2
+      final long mv = 4 * m2;
+      final long mp = 4 * m2 + 2;
+      final long mm = 4 * m2 - 1 - mmShift;
+
+      // Step 3: convert to a decimal power base
+      long dv;
+      long dp;
+      long dm;
+      final int e10;
+      boolean dmIsTrailingZeros = false;
+      boolean dvIsTrailingZeros = false;
+      if (e2 >= 0) {
+         final int q = Math.max(0, ((e2 * 78913) >>> 18) - 1);
+         final int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+         final int i = -e2 + q + k;
+         dv = mulPow5InvDivPow2(mv, q, i);
+         dp = mulPow5InvDivPow2(mp, q, i);
+         dm = mulPow5InvDivPow2(mm, q, i);
+         e10 = q;
+
+         if (q <= 21) {
+            // Only one of mp, mv, and mm can be a multiple of 5, if any
+            if (mv % 5 == 0) {
+               dvIsTrailingZeros = multipleOfPowerOf5(mv, q);
+            }
+            else if (even) {
+               dmIsTrailingZeros = multipleOfPowerOf5(mm, q);
+            }
+            else if (multipleOfPowerOf5(mp, q)) {
+               dp--;
+            }
+         }
+      }
+      else {
+         final int q = Math.max(0, ((-e2 * 732923) >>> 20) - 1);
+         final int i = -e2 - q;
+         final int k = pow5bits(i) - POW5_BITCOUNT;
+         final int j = q - k;
+         dv = mulPow5DivPow2(mv, i, j);
+         dp = mulPow5DivPow2(mp, i, j);
+         dm = mulPow5DivPow2(mm, i, j);
+         e10 = q + e2;
+
+         if (q <= 1) {
+            // mv = 4 * m2, so it always has at least two trailing zero bits
+            dvIsTrailingZeros = true;
+            if (even) {
+               // mm = mv - 1 - mmShift, so it has one trailing zero bit iff mmShift == 1
+               dmIsTrailingZeros = mmShift == 1;
+            }
+            else {
+               // mp = mv + 2, so it always has at least one trailing zero bit
+               dp--;
+            }
+         }
+         else if (q < 63) {
+            // dv is exact iff mv * 5^i / 2^q is an integer
+            dvIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+         }
+      }
+
+      // Step 4: find the shortest decimal representation in the interval
+      int removed = 0;
+      int lastRemovedDigit = 0;
+      long output;
+      if (dmIsTrailingZeros || dvIsTrailingZeros) {
+         while (dp / 10 > dm / 10) {
+            dmIsTrailingZeros &= dm % 10 == 0;
+            dvIsTrailingZeros &= lastRemovedDigit == 0;
+            lastRemovedDigit = (int) (dv % 10);
+            dp /= 10;
+            dv /= 10;
+            dm /= 10;
+            removed++;
+         }
+
+         if (dmIsTrailingZeros && even) {
+            while (dm % 10 == 0) {
+               dvIsTrailingZeros &= lastRemovedDigit == 0;
+               lastRemovedDigit = (int) (dv % 10);
+               dp /= 10;
+               dv /= 10;
+               dm /= 10;
+               removed++;
+            }
+         }
+
+         if (dvIsTrailingZeros && lastRemovedDigit == 5 && dv % 2 == 0) {
+            // Round even if the exact number is .....50..0
+            lastRemovedDigit = 4;
+         }
+         output = dv + (((dv == dm && (!even || !dmIsTrailingZeros)) || lastRemovedDigit >= 5) ? 1 : 0);
+      }
+      else {
+         // The common case, where the interval bounds are not exact; remove two digits at a time
+         // while possible, the last removed digit decides the rounding
+         boolean roundUp = false;
+         while (dp / 100 > dm / 100) {
+            roundUp = dv % 100 >= 50;
+            dp /= 100;
+            dv /= 100;
+            dm /= 100;
+            removed += 2;
+         }
+         while (dp / 10 > dm / 10) {
+            roundUp = dv % 10 >= 5;
+            dp /= 10;
+            dv /= 10;
+            dm /= 10;
+            removed++;
+         }
+         output = dv + ((dv == dm || roundUp) ? 1 : 0);
+      }
+
+      int exponent = e10 + removed;
+      while (output % 10 == 0) {
+         output /= 10;
+         exponent++;
+      }
+
+      // Step 5: append the digits, and position the decimal point
+      if (negative) {
+         buffer.append((byte) '-');
+      }
+
+      final int length = decimalLength(output);
+      int pos = buffer.offset + buffer.end + length;
+      for (int i = 0; i < length; i++) {
+         buffer.bytes[--pos] = (byte) ('0' + output % 10);
+         output /= 10;
+      }
+      buffer.end += length;
+      buffer.point = buffer.end + exponent;
+   }
+
+   private static int pow5bits(final int e) {
+      // ceil(log2(5^e)), or 1 when e == 0
+      return e == 0 ? 1 : (int) ((e * 23219280L + 9999999L) / 10000000L);
+   }
+
+   private static int decimalLength(final long value) {
+      int length = 1;
+      while (length < POWERS_OF_10.length && value >= POWERS_OF_10[length]) {
+         length++;
+      }
+      return length;
+   }
+
+   private static boolean multipleOfPowerOf5(long value, final int q) {
+      int count = 0;
+      while (value > 0 && value % 5 == 0) {
+         value /= 5;
+         count++;
+      }
+      return count >= q;
+   }
+
+   /**
+    * Compute (m * 5^i) >> j, using the normalized 121-bit power of five.  m has at most 55 bits.
+    */
+   private static long mulPow5DivPow2(final long m, final int i, final int j) {
+      return mulShift(m, POW5_SPLIT[i], j);
+   }
+
+   /**
+    * Compute (m * 2^k / 5^q) >> j, using the 122-bit inverse power of five.  m has at most 55 bits.
+    */
+   private static long mulPow5InvDivPow2(final long m, final int q, final int j) {
+      return mulShift(m, POW5_INV_SPLIT[q], j);
+   }
+
+   private static long mulShift(final long m, final int[] limbs, final int j) {
+      final long mHigh = m >>> LIMB_BITS;
+      final long mLow = m & LIMB_MASK;
+      final long bits13 = mHigh * limbs[0];
+      final long bits03 = mLow * limbs[0];
+      final long bits12 = mHigh * limbs[1];
+      final long bits02 = mLow * limbs[1];
+      final long bits11 = mHigh * limbs[2];
+      final long bits01 = mLow * limbs[2];
+      final long bits10 = mHigh * limbs[3];
+      final long bits00 = mLow * limbs[3];
+
+      final int actualShift = j - 3 * LIMB_BITS - 21;
+      return ((((((((bits00 >>> LIMB_BITS) + bits01 + bits10) >>> LIMB_BITS)
+                  + bits02 + bits11) >>> LIMB_BITS)
+                  + bits03 + bits12) >>> 21)
+                  + (bits13 << 10)) >>> actualShift;
+   }
+}
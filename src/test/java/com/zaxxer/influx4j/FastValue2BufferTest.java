@@ -17,13 +17,20 @@
 package com.zaxxer.influx4j;
 
 import com.zaxxer.influx4j.util.FastValue2Buffer;
+import com.zaxxer.influx4j.util.TimestampFormatter;
+import com.zaxxer.influx4j.util.fastdouble.FastDtoaBuffer;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -151,6 +158,128 @@ public class FastValue2BufferTest
       }
    }
 
+   @Test
+   public void testLongDigitLengths() {
+      final ByteBuffer buffer = ByteBuffer.allocate(64);
+      final byte[] bytes = new byte[21];
+      final ThreadLocalRandom tlr = ThreadLocalRandom.current();
+
+      for (int i = 0; i < 1_000_000; i++) {
+         // Spread values evenly over every digit length
+         final long number = tlr.nextLong() >> tlr.nextInt(64);
+         buffer.clear();
+         FastValue2Buffer.writeLongToBuffer(number, buffer);
+
+         buffer.flip();
+         final int length = buffer.remaining();
+         buffer.get(bytes, 0, length);
+         Assert.assertEquals(String.valueOf(number), new String(bytes, 0, length));
+      }
+   }
+
+   @Test
+   public void testUnsignedLongs() {
+      final long[] edges = { 0L, 9L, 10L, Long.MAX_VALUE, Long.MIN_VALUE, -1L, -10L, -11L };
+      final ThreadLocalRandom tlr = ThreadLocalRandom.current();
+      final byte[] bytes = new byte[21];
+
+      for (final ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(64), ByteBuffer.allocateDirect(64) }) {
+         for (int i = 0; i < 100_000 + edges.length; i++) {
+            final long number = i < edges.length ? edges[i] : tlr.nextLong() >>> tlr.nextInt(64);
+            buffer.clear();
+            FastValue2Buffer.writeUnsignedLongToBuffer(number, buffer);
+
+            buffer.flip();
+            final int length = buffer.remaining();
+            buffer.get(bytes, 0, length);
+            Assert.assertEquals(Long.toUnsignedString(number), new String(bytes, 0, length));
+         }
+      }
+   }
+
+   @Test
+   public void testIncrementalTimestamps() {
+      final TimestampFormatter formatter = TimestampFormatter.get();
+      final Random random = new Random(1234);
+      final byte[] bytes = new byte[21];
+
+      for (final ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(64), ByteBuffer.allocateDirect(64) }) {
+         // walks across the low-order boundaries, and the 999999999 -> 1000000000 length change
+         final long[] starts = { 1_560_000_000_000_000_000L, 1_560_000_000_000L, 999_999_000L, 9_999_999_999_999_000L };
+         for (final long start : starts) {
+            long timestamp = start;
+            for (int i = 0; i < 20_000; i++) {
+               timestamp += random.nextInt(4) == 0 ? -random.nextInt(1000) : random.nextInt(1 << random.nextInt(31));
+               buffer.clear();
+               formatter.write(timestamp, buffer);
+
+               buffer.flip();
+               final int length = buffer.remaining();
+               buffer.get(bytes, 0, length);
+               Assert.assertEquals(String.valueOf(timestamp), new String(bytes, 0, length));
+            }
+         }
+      }
+
+      final ByteBuffer buffer = ByteBuffer.allocate(64);
+      for (final long timestamp : new long[] { 0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1_000_000_000L, 1_000_000_000L, 5L }) {
+         buffer.clear();
+         formatter.write(timestamp, buffer);
+         Assert.assertEquals(String.valueOf(timestamp), new String(buffer.array(), 0, buffer.position()));
+      }
+   }
+
+   @Test(expected = BufferOverflowException.class)
+   public void testLongOverflow() {
+      final ByteBuffer buffer = ByteBuffer.allocate(5);
+      FastValue2Buffer.writeLongToBuffer(123456, buffer);
+   }
+
+   @Test
+   public void testDirectBufferLongs() {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+      final byte[] bytes = new byte[21];
+      final ThreadLocalRandom tlr = ThreadLocalRandom.current();
+
+      buffer.put("influx4j,".getBytes());
+      FastValue2Buffer.writeLongToBuffer(123456, buffer);
+
+      buffer.flip();
+      buffer.get(bytes, 0, buffer.remaining());
+      Assert.assertEquals("influx4j,123456", new String(bytes, 0, 15));
+
+      for (int i = 0; i < 100_000; i++) {
+         final long number = tlr.nextLong();
+         buffer.clear();
+         FastValue2Buffer.writeLongToBuffer(number, buffer);
+
+         buffer.flip();
+         final int length = buffer.remaining();
+         buffer.get(bytes, 0, length);
+         Assert.assertEquals(String.valueOf(number), new String(bytes, 0, length));
+      }
+   }
+
+   @Test
+   public void testDirectBufferDoubles() {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+      final byte[] bytes = new byte[32];
+      final ThreadLocalRandom tlr = ThreadLocalRandom.current();
+
+      for (int i = 0; i < 100_000; i++) {
+         final double number = (tlr.nextDouble() - 0.5d) * Math.pow(10, tlr.nextInt(-30, 30));
+         buffer.clear();
+         buffer.put((byte) '=');
+         FastValue2Buffer.writeDoubleToBuffer(number, buffer);
+
+         buffer.flip();
+         final int length = buffer.remaining();
+         buffer.get(bytes, 0, length);
+         Assert.assertEquals('=', bytes[0]);
+         Assert.assertEquals(number, Double.parseDouble(new String(bytes, 1, length - 1)), 0d);
+      }
+   }
+
    @Test
    public void testDouble2Buffer1Digit() {
       final ByteBuffer buffer = ByteBuffer.allocate(64);
@@ -232,6 +361,139 @@ public class FastValue2BufferTest
       }
    }
 
+   @Test
+   public void testShortestRoundTripDoubles() {
+      final double[] edges = { Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL, -Double.MIN_VALUE,
+                               1e23, 1e22, 1e21, 1e-5, 1e-6, 1e-7, 9007199254740993d, 0.1d, 0.3d, 1d / 3d,
+                               2.2250738585072011e-308, 5e-324, 1.7976931348623157e308, 4.35d, 0.000123d,
+                               1.0e15, 123456789012345680d, 2.98023223876953125E-8, 5.764607523034235E39 };
+      final ThreadLocalRandom tlr = ThreadLocalRandom.current();
+
+      for (int i = 0; i < 1_000_000 + edges.length; i++) {
+         final double number = i < edges.length ? edges[i] : Double.longBitsToDouble(tlr.nextLong());
+         if (Double.isNaN(number) || Double.isInfinite(number)) continue;
+
+         final String ours = format(number, false);
+         Assert.assertEquals(ours, Double.doubleToLongBits(number), Double.doubleToLongBits(Double.parseDouble(ours)));
+
+         // no representation with one digit fewer reads back as the same double
+         final BigDecimal decimal = new BigDecimal(ours).stripTrailingZeros();
+         final int digits = decimal.precision();
+         if (digits > 1) {
+            for (final RoundingMode mode : new RoundingMode[] { RoundingMode.FLOOR, RoundingMode.CEILING }) {
+               final BigDecimal shorter = decimal.round(new MathContext(digits - 1, mode));
+               Assert.assertNotEquals(ours, number, shorter.doubleValue(), 0d);
+            }
+         }
+
+         // wherever Grisu3 succeeds it agrees, otherwise its String.valueOf() fallback is no shorter
+         final String grisu = format(number, true);
+         if (!grisu.equals(ours)) {
+            Assert.assertEquals(number, Double.parseDouble(grisu), 0d);
+            Assert.assertTrue(grisu, new BigDecimal(grisu).stripTrailingZeros().precision() >= digits);
+         }
+      }
+   }
+
+   @Test
+   public void testNonFiniteDoubles() {
+      Assert.assertEquals("NaN", format(Double.NaN, false));
+      Assert.assertEquals("Infinity", format(Double.POSITIVE_INFINITY, false));
+      Assert.assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY, false));
+   }
+
+   @Test
+   public void testFixedDoubles() {
+      Assert.assertEquals("21.46", fixed(21.456789, 2));
+      Assert.assertEquals("-21.46", fixed(-21.456789, 2));
+      Assert.assertEquals("21.5", fixed(21.5, 4));
+      Assert.assertEquals("21", fixed(21.0, 4));
+      Assert.assertEquals("22", fixed(21.5, 0));
+      Assert.assertEquals("0.05", fixed(0.0501, 3));
+      Assert.assertEquals("0.001", fixed(0.00123, 3));
+      Assert.assertEquals("1", fixed(0.9999, 3));
+      Assert.assertEquals("0", fixed(0.0004, 3));
+      Assert.assertEquals("0", fixed(-0.0004, 3));
+      Assert.assertEquals("0", fixed(-0d, 3));
+      Assert.assertEquals("0.12345678901234568", fixed(0.12345678901234568, 17));
+      Assert.assertEquals("8999999999999999", fixed(8999999999999999d, 2));
+      Assert.assertEquals("10000000000000000000", fixed(1e19, 0));
+      Assert.assertEquals("-1e+300", fixed(-1e300, 5));
+      Assert.assertEquals("NaN", fixed(Double.NaN, 5));
+      Assert.assertEquals("-Infinity", fixed(Double.NEGATIVE_INFINITY, 5));
+
+      final ByteBuffer direct = ByteBuffer.allocateDirect(64);
+      FastValue2Buffer.writeFixedDoubleToBuffer(-1234.0625, 3, direct);
+      direct.flip();
+      final byte[] bytes = new byte[direct.remaining()];
+      direct.get(bytes);
+      Assert.assertEquals("-1234.063", new String(bytes));
+   }
+
+   @Test
+   public void testRandomFixedDoubles() {
+      final Random random = new Random(4321);
+      for (int i = 0; i < 100_000; i++) {
+         final int digits = random.nextInt(7);
+         final double d = random.nextGaussian() * 1_000_000;
+         final String expected = BigDecimal.valueOf(Math.round(Math.abs(d) * Math.pow(10, digits)))
+            .movePointLeft(digits).stripTrailingZeros().toPlainString();
+         Assert.assertEquals(d < 0 && !"0".equals(expected) ? "-" + expected : expected, fixed(d, digits));
+      }
+   }
+
+   @Test
+   public void testShortestRoundTripFloats() {
+      final Random random = new Random(1234);
+      for (int i = 0; i < 1_000_000; i++) {
+         final float f = Float.intBitsToFloat(random.nextInt());
+         if (Float.isNaN(f) || Float.isInfinite(f)) {
+            continue;
+         }
+
+         final String s = formatFloat(f);
+         Assert.assertEquals(s, f, Float.parseFloat(s), 0f);
+         // the digits are never longer than Float.toString()'s, which is not always shortest
+         final String jdk = Float.toString(f);
+         Assert.assertTrue(s + " vs " + jdk, significantDigits(s) <= significantDigits(jdk));
+      }
+
+      Assert.assertEquals("0.1", formatFloat(0.1f));
+      Assert.assertEquals("-3.4028235e+38", formatFloat(-Float.MAX_VALUE));
+      Assert.assertEquals("1e-45", formatFloat(Float.MIN_VALUE));
+      Assert.assertEquals("16777216", formatFloat(16777216f));
+      Assert.assertEquals("NaN", formatFloat(Float.NaN));
+   }
+
+   private static int significantDigits(final String s) {
+      return new BigDecimal(s).stripTrailingZeros().precision();
+   }
+
+   private static String fixed(final double number, final int fractionDigits) {
+      final ByteBuffer buffer = ByteBuffer.allocate(64);
+      FastValue2Buffer.writeFixedDoubleToBuffer(number, fractionDigits, buffer);
+      return new String(buffer.array(), 0, buffer.position());
+   }
+
+   private static String formatFloat(final float number) {
+      final ByteBuffer buffer = ByteBuffer.allocate(64);
+      FastValue2Buffer.writeFloatToBuffer(number, buffer);
+      return new String(buffer.array(), 0, buffer.position());
+   }
+
+   private static final FastDtoaBuffer DTOA_BUFFER = new FastDtoaBuffer();
+
+   private static String format(final double number, final boolean grisu) {
+      final ByteBuffer buffer = ByteBuffer.allocate(64);
+      if (grisu) {
+         DTOA_BUFFER.setBuffer(buffer).formatGrisu3(number);
+      }
+      else {
+         DTOA_BUFFER.setBuffer(buffer).format(number);
+      }
+      return new String(buffer.array(), 0, buffer.position());
+   }
+
    private static String formatDouble(final double d, final String templateString) {
       final boolean useScientificNotation = templateString.contains("E");
       if (useScientificNotation) {
@@ -0,0 +1,1464 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.zaxxer.influx4j.InfluxDB.BackpressurePolicy;
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+/**
+ * Exercises the HTTP write path against a minimal in-process endpoint that records
+ * every write request it receives.
+ */
+public class HttpWriteTest {
+   private PointFactory pointFactory;
+   private HttpServer server;
+   private List<WriteRequest> requests;
+   private volatile boolean unavailable;
+
+   @Before
+   public void startServer() throws IOException {
+      pointFactory = PointFactory.builder().build();
+      requests = new CopyOnWriteArrayList<>();
+
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/query", exchange -> respond(exchange, 200, "{\"results\":[]}"));
+      server.createContext("/write", exchange -> {
+         requests.add(new WriteRequest(exchange));
+         respond(exchange, 204, null);
+      });
+      server.start();
+   }
+
+   @After
+   public void stopServer() {
+      server.stop(0);
+      pointFactory.flush();
+   }
+
+   @Test
+   public void testStagingWrite() throws Exception {
+      try (final InfluxDB influxDB = builder().build()) {
+         writePoints(influxDB, 100);
+         awaitLines(100);
+      }
+
+      assertLines(100);
+      Assert.assertNotEquals("chunked", requests.get(0).transferEncoding);
+   }
+
+   @Test
+   public void testStreamingWrite() throws Exception {
+      final List<Long> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setStreamingWrites(true)
+         .setMaximumBatchBytes(InfluxDB.MAXIMUM_SERIALIZED_POINT_SIZE)
+         .setInfluxDbListener((success, finalSequence) -> outcomes.add(finalSequence))
+         .build()) {
+         writePoints(influxDB, 2000);
+         awaitLines(2000);
+      }
+
+      assertLines(2000);
+      Assert.assertTrue("byte cap should split the points into several batches", requests.size() > 1);
+      Assert.assertEquals("chunked", requests.get(0).transferEncoding);
+      Assert.assertEquals(2000L, (long) outcomes.get(outcomes.size() - 1));
+      for (int i = 1; i < outcomes.size(); i++) {
+         Assert.assertTrue(outcomes.get(i) > outcomes.get(i - 1));
+      }
+   }
+
+   @Test
+   public void testStreamingPointCap() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setStreamingWrites(true)
+         .setMaximumBatchSize(10)
+         .build()) {
+         writePoints(influxDB, 95);
+         awaitLines(95);
+      }
+
+      assertLines(95);
+      for (final WriteRequest request : requests) {
+         Assert.assertTrue(request.lines().length <= 10);
+      }
+   }
+
+   @Test
+   public void testStreamingRejectedCarryOver() throws Exception {
+      // the first request is rejected, the points beyond its byte cap were never sent
+      final AtomicInteger rejectedLines = new AtomicInteger(-1);
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         if (rejectedLines.compareAndSet(-1, request.lines().length)) {
+            respond(exchange, 400, "{\"error\":\"partial write\"}");
+         }
+         else {
+            requests.add(request);
+            respond(exchange, 204, null);
+         }
+      });
+
+      try (final InfluxDB influxDB = builder()
+         .setStreamingWrites(true)
+         .setMaximumBatchBytes(InfluxDB.MAXIMUM_SERIALIZED_POINT_SIZE)
+         .setAutoFlushPeriod(500)
+         .build()) {
+         writePoints(influxDB, 2000);
+         final long deadline = System.currentTimeMillis() + 10_000;
+         while (rejectedLines.get() + lineCount() < 2000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+         }
+      }
+
+      Assert.assertTrue(rejectedLines.get() > 0 && rejectedLines.get() < 2000);
+      int i = rejectedLines.get();
+      for (final WriteRequest request : requests) {
+         for (final String line : request.lines()) {
+            Assert.assertEquals("testWrite,host=server" + (i % 4) + " count=" + i + "i " + TimeUnit.MILLISECONDS.toNanos(1_000_000L + i), line);
+            i++;
+         }
+      }
+      Assert.assertEquals(2000, i);
+   }
+
+   @Test
+   public void testGzipWrite() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setGzipCompression(true)
+         .setCompressionLevel(9)
+         .setCompressionThreshold(0)
+         .build()) {
+         writePoints(influxDB, 1000);
+         awaitLines(1000);
+      }
+
+      assertLines(1000);
+      for (final WriteRequest request : requests) {
+         Assert.assertEquals("gzip", request.contentEncoding);
+         Assert.assertTrue(request.rawLength < request.body.length);
+      }
+   }
+
+   @Test
+   public void testGzipThreshold() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setGzipCompression(true)
+         .setCompressionThreshold(1024 * 1024)
+         .build()) {
+         writePoints(influxDB, 10);
+         awaitLines(10);
+      }
+
+      assertLines(10);
+      Assert.assertNull(requests.get(0).contentEncoding);
+   }
+
+   @Test
+   public void testGzipStreamingWrite() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setStreamingWrites(true)
+         .setGzipCompression(true)
+         .setMaximumBatchSize(100)
+         .build()) {
+         writePoints(influxDB, 1000);
+         awaitLines(1000);
+      }
+
+      assertLines(1000);
+      Assert.assertTrue(requests.size() >= 10);
+      for (final WriteRequest request : requests) {
+         Assert.assertEquals("gzip", request.contentEncoding);
+      }
+   }
+
+   @Test
+   public void testAdaptivePrecision() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setAdaptivePrecision(true)
+         .setMaximumBatchSize(100)
+         .build()) {
+         writePoints(influxDB, 250);
+         awaitLines(250);
+      }
+
+      int i = 0;
+      for (final WriteRequest request : requests) {
+         Assert.assertTrue(request.query, request.query.contains("precision=ms"));
+         for (final String line : request.lines()) {
+            Assert.assertEquals("testWrite,host=server" + (i % 4) + " count=" + i + "i " + (1_000_000L + i), line);
+            i++;
+         }
+      }
+      Assert.assertEquals(250, i);
+   }
+
+   @Test
+   public void testAdaptivePrecisionMixed() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setAdaptivePrecision(true)
+         .setStreamingWrites(true)
+         .build()) {
+         influxDB.write(pointFactory.createPoint("testWrite").field("count", 0).timestamp(120, TimeUnit.SECONDS));
+         influxDB.write(pointFactory.createPoint("testWrite").field("count", 1).timestamp(180_000_000L, TimeUnit.MICROSECONDS));
+         awaitLines(2);
+         Thread.sleep(200);
+         influxDB.write(pointFactory.createPoint("testWrite").field("count", 2).timestamp(120_000_000_001L, TimeUnit.NANOSECONDS));
+         awaitLines(3);
+      }
+
+      Assert.assertEquals(2, requests.size());
+      Assert.assertTrue(requests.get(0).query, requests.get(0).query.contains("precision=m&") || requests.get(0).query.endsWith("precision=m"));
+      Assert.assertArrayEquals(new String[] { "testWrite count=0i 2", "testWrite count=1i 3" }, requests.get(0).lines());
+      Assert.assertTrue(requests.get(1).query, requests.get(1).query.contains("precision=n"));
+      Assert.assertArrayEquals(new String[] { "testWrite count=2i 120000000001" }, requests.get(1).lines());
+   }
+
+   @Test
+   public void testEagerSerialization() throws Exception {
+      final List<Long> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setEagerSerialization(true)
+         .setInfluxDbListener((success, finalSequence) -> outcomes.add(finalSequence))
+         .build()) {
+         writePoints(influxDB, 1000);
+         awaitLines(1000);
+      }
+
+      assertLines(1000);
+      Assert.assertEquals(1000L, (long) outcomes.get(outcomes.size() - 1));
+   }
+
+   @Test
+   public void testEagerSerializationDoubles() throws Exception {
+      // double fields of varying lengths reach the end of the segments at every offset
+      try (final InfluxDB influxDB = builder()
+         .setEagerSerialization(true)
+         .build()) {
+         for (int i = 0; i < 5000; i++) {
+            influxDB.write(pointFactory.createPoint("m").field("v", -i / 7d).timestamp(1_000_000L + i, TimeUnit.MILLISECONDS));
+         }
+         awaitLines(5000);
+      }
+
+      int i = 0;
+      for (final WriteRequest request : requests) {
+         for (final String line : request.lines()) {
+            final String[] parts = line.split(" ");
+            Assert.assertEquals(line, 3, parts.length);
+            Assert.assertEquals(line, -i / 7d, Double.parseDouble(parts[1].substring(2)), 0d);
+            Assert.assertEquals(line, String.valueOf(TimeUnit.MILLISECONDS.toNanos(1_000_000L + i)), parts[2]);
+            i++;
+         }
+      }
+      Assert.assertEquals(5000, i);
+   }
+
+   @Test
+   public void testEagerSerializationThreads() throws Exception {
+      final int threads = 4;
+      final int perThread = 2500;
+      try (final InfluxDB influxDB = builder()
+         .setEagerSerialization(true)
+         .setGzipCompression(true)
+         .setMaximumBatchSize(1000)
+         .build()) {
+         final Thread[] writers = new Thread[threads];
+         for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers[t] = new Thread(() -> {
+               for (int i = 0; i < perThread; i++) {
+                  influxDB.write(pointFactory.createPoint("testWrite")
+                     .tag("thread", String.valueOf(thread))
+                     .field("count", i)
+                     .timestamp(1_000_000L + i, TimeUnit.MILLISECONDS));
+               }
+            });
+            writers[t].start();
+         }
+         for (final Thread writer : writers) {
+            writer.join();
+         }
+         awaitLines(threads * perThread);
+      }
+
+      // the points of each thread arrive complete and in order
+      final int[] next = new int[threads];
+      for (final WriteRequest request : requests) {
+         Assert.assertTrue(request.lines().length <= 1000);
+         for (final String line : request.lines()) {
+            final int thread = line.charAt("testWrite,thread=".length()) - '0';
+            final int i = next[thread]++;
+            Assert.assertEquals("testWrite,thread=" + thread + " count=" + i + "i " + TimeUnit.MILLISECONDS.toNanos(1_000_000L + i), line);
+         }
+      }
+      for (int t = 0; t < threads; t++) {
+         Assert.assertEquals(perThread, next[t]);
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testEagerSerializationAdaptivePrecision() {
+      builder().setEagerSerialization(true).setAdaptivePrecision(true).build();
+   }
+
+   @Test
+   public void testWriterThreads() throws Exception {
+      final Set<Thread> listenerThreads = ConcurrentHashMap.newKeySet();
+      final AtomicLong lastSequence = new AtomicLong();
+      try (final InfluxDB influxDB = builder()
+         .setWriterThreads(4)
+         .setInfluxDbListener((success, finalSequence) -> {
+            listenerThreads.add(Thread.currentThread());
+            lastSequence.accumulateAndGet(finalSequence, Math::max);
+         })
+         .build()) {
+         writePoints(influxDB, 2000);
+         awaitLines(2000);
+      }
+
+      // round-robin spreads the points over every writer, in no particular order across writers
+      final List<String> lines = new ArrayList<>();
+      for (final WriteRequest request : requests) {
+         lines.addAll(Arrays.asList(request.lines()));
+      }
+      Assert.assertEquals(2000, new HashSet<>(lines).size());
+      Assert.assertEquals(4, listenerThreads.size());
+      Assert.assertEquals(2000L, lastSequence.get());
+   }
+
+   @Test
+   public void testSeriesOrdering() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setWriterThreads(4)
+         .setSeriesOrdering(true)
+         .setMaximumBatchSize(100)
+         .build()) {
+         writePoints(influxDB, 4000);
+         awaitLines(4000);
+      }
+
+      // the points of each series arrive complete and in order
+      final int[] next = new int[4];
+      for (final WriteRequest request : requests) {
+         for (final String line : request.lines()) {
+            final int host = line.charAt("testWrite,host=server".length()) - '0';
+            final int i = 4 * next[host]++ + host;
+            Assert.assertEquals("testWrite,host=server" + host + " count=" + i + "i " + TimeUnit.MILLISECONDS.toNanos(1_000_000L + i), line);
+         }
+      }
+      for (int host = 0; host < 4; host++) {
+         Assert.assertEquals(1000, next[host]);
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testEagerSerializationSeriesOrdering() {
+      builder().setEagerSerialization(true).setWriterThreads(2).setSeriesOrdering(true).build();
+   }
+
+   @Test
+   public void testMaximumFlushDelay() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setAutoFlushPeriod(10_000)
+         .setMaximumFlushDelay(0, TimeUnit.MILLISECONDS)
+         .build()) {
+         for (int i = 1; i <= 3; i++) {
+            final long startMs = System.currentTimeMillis();
+            writePoints(influxDB, 1);
+            awaitLines(i);
+            Assert.assertEquals(i, lineCount());
+            Assert.assertTrue("the point should not wait for the auto-flush", System.currentTimeMillis() - startMs < 5_000);
+         }
+      }
+   }
+
+   @Test
+   public void testFlushThreshold() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setAutoFlushPeriod(10_000)
+         .setFlushThreshold(100)
+         .build()) {
+         final long startMs = System.currentTimeMillis();
+         writePoints(influxDB, 100);
+         awaitLines(100);
+         Assert.assertTrue("the points should not wait for the auto-flush", System.currentTimeMillis() - startMs < 5_000);
+      }
+
+      assertLines(100);
+   }
+
+   @Test
+   public void testFlushThresholdBytes() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setAutoFlushPeriod(2_000)
+         .setFlushThresholdBytes(2_000)
+         .build()) {
+         // the first batch is flushed by the auto-flush, and sizes the points
+         writePoints(influxDB, 10);
+         awaitLines(10);
+
+         final int lineLength = requests.get(0).lines()[0].length() + 1;
+         final long startMs = System.currentTimeMillis();
+         for (int i = 0; i < 2_000 / lineLength; i++) {
+            influxDB.write(pointFactory.createPoint("testWrite")
+               .tag("host", "server0")
+               .field("count", i)
+               .timestamp(1_000_000L + i, TimeUnit.MILLISECONDS));
+         }
+         awaitLines(10 + 2_000 / lineLength);
+         Assert.assertEquals(10 + 2_000 / lineLength, lineCount());
+         Assert.assertTrue("the points should not wait for the auto-flush", System.currentTimeMillis() - startMs < 1_000);
+      }
+   }
+
+   @Test
+   public void testBackpressureDropNewest() throws Exception {
+      final List<LogRecord> records = new CopyOnWriteArrayList<>();
+      final Handler handler = new Handler() {
+         @Override
+         public void publish(final LogRecord record) {
+            if (record.getMessage().startsWith("Point queue overflow")) records.add(record);
+         }
+
+         @Override
+         public void flush() {
+         }
+
+         @Override
+         public void close() {
+         }
+      };
+
+      final Logger logger = Logger.getLogger(InfluxDB.class.getName());
+      logger.addHandler(handler);
+      try (final InfluxDB influxDB = overflowBuilder(BackpressurePolicy.DROP_NEWEST).build()) {
+         writePoints(influxDB, 20);
+         awaitLines(16);
+      }
+      finally {
+         logger.removeHandler(handler);
+      }
+
+      assertLines(16);
+
+      // the drops are aggregated, rather than logged per point
+      long dropped = 0;
+      for (final LogRecord record : records) {
+         dropped += (Long) record.getParameters()[0];
+      }
+      Assert.assertEquals(4, dropped);
+      Assert.assertTrue(records.size() < 4);
+   }
+
+   @Test
+   public void testBackpressureDropOldest() throws Exception {
+      try (final InfluxDB influxDB = overflowBuilder(BackpressurePolicy.DROP_OLDEST).build()) {
+         writePoints(influxDB, 20);
+         awaitLines(16);
+      }
+
+      Assert.assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19), counts());
+   }
+
+   @Test
+   public void testBackpressureBlock() throws Exception {
+      try (final InfluxDB influxDB = overflowBuilder(BackpressurePolicy.BLOCK)
+         .setBlockTimeout(5, TimeUnit.SECONDS)
+         .build()) {
+         writePoints(influxDB, 100);
+         awaitLines(100);
+      }
+
+      assertLines(100);
+   }
+
+   @Test
+   public void testBackpressureSample() throws Exception {
+      try (final InfluxDB influxDB = overflowBuilder(BackpressurePolicy.SAMPLE)
+         .setRetryWatermark(8)
+         .setSampleRate(Integer.MAX_VALUE)
+         .build()) {
+         writePoints(influxDB, 16);
+         awaitLines(9);
+      }
+
+      assertLines(9);
+   }
+
+   @Test
+   public void testBackpressureFallback() throws Exception {
+      final List<Long> overflowed = new ArrayList<>();
+      try (final InfluxDB influxDB = overflowBuilder(BackpressurePolicy.FALLBACK)
+         .setOverflowHandler(point -> {
+            overflowed.add(point.longField("count"));
+            point.close();
+         })
+         .build()) {
+         writePoints(influxDB, 20);
+         awaitLines(16);
+      }
+
+      assertLines(16);
+      Assert.assertEquals(Arrays.asList(16L, 17L, 18L, 19L), overflowed);
+   }
+
+   @Test
+   public void testEagerBackpressureDropNewest() throws Exception {
+      final CountDownLatch release = heldEndpoint();
+      final List<Long> failed = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = eagerOverflowBuilder(BackpressurePolicy.DROP_NEWEST)
+         .setInfluxDbListener((success, sequence) -> {
+            if (!success) failed.add(sequence);
+         })
+         .build()) {
+         writePoints(influxDB, 1100);
+         release.countDown();
+         awaitLines(1100 - failed.size());
+      }
+
+      // the segments that do not fit in the queue are dropped, and reported as failed
+      Assert.assertFalse(failed.isEmpty());
+      Assert.assertEquals(1100, lineCount() + failed.size());
+      assertLines(lineCount());
+   }
+
+   @Test
+   public void testEagerBackpressureBlock() throws Exception {
+      final CountDownLatch release = heldEndpoint();
+      final Thread releaser = new Thread(() -> {
+         try {
+            Thread.sleep(500);
+         }
+         catch (final InterruptedException e) {
+            // release now
+         }
+         release.countDown();
+      });
+      try (final InfluxDB influxDB = eagerOverflowBuilder(BackpressurePolicy.BLOCK)
+         .setBlockTimeout(10, TimeUnit.SECONDS)
+         .build()) {
+         releaser.start();
+         writePoints(influxDB, 1100);
+         awaitLines(1100);
+      }
+
+      assertLines(1100);
+   }
+
+   @Test
+   public void testEagerBackpressureFallback() throws Exception {
+      final CountDownLatch release = heldEndpoint();
+      final List<Long> overflowed = new ArrayList<>();
+      try (final InfluxDB influxDB = eagerOverflowBuilder(BackpressurePolicy.FALLBACK)
+         .setOverflowHandler(point -> {
+            overflowed.add(point.longField("count"));
+            point.close();
+         })
+         .build()) {
+         writePoints(influxDB, 1100);
+         release.countDown();
+         awaitLines(1100 - overflowed.size());
+      }
+
+      // the points written while the segment queue is full are handed over, rather than serialized
+      Assert.assertFalse(overflowed.isEmpty());
+      assertLines(1100 - overflowed.size());
+      Assert.assertEquals(1100L - overflowed.size(), (long) overflowed.get(0));
+      Assert.assertEquals(1099L, (long) overflowed.get(overflowed.size() - 1));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testBackpressureFallbackWithoutHandler() {
+      builder().setBackpressurePolicy(BackpressurePolicy.FALLBACK).build();
+   }
+
+   /**
+    * A connection with a 16 point queue, which is not flushed until the one second auto-flush.
+    */
+   InfluxDB.Builder overflowBuilder(final BackpressurePolicy policy) {
+      return builder()
+         .setAutoFlushPeriod(1_000)
+         .setQueueCapacity(16)
+         .setBackpressurePolicy(policy);
+   }
+
+   /**
+    * An eagerly serializing connection with a segment per point, so that the segment queue
+    * (1024 segments) fills while the write endpoint is held.
+    */
+   InfluxDB.Builder eagerOverflowBuilder(final BackpressurePolicy policy) {
+      return builder()
+         .setEagerSerialization(true)
+         .setMaximumBatchSize(1)
+         .setBackpressurePolicy(policy);
+   }
+
+   /**
+    * Replace the write endpoint with one that holds every request until the returned latch is
+    * released.
+    */
+   CountDownLatch heldEndpoint() {
+      final CountDownLatch release = new CountDownLatch(1);
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         try {
+            release.await(10, TimeUnit.SECONDS);
+         }
+         catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         requests.add(request);
+         respond(exchange, 204, null);
+      });
+      return release;
+   }
+
+   List<Integer> counts() {
+      final List<Integer> counts = new ArrayList<>();
+      for (final WriteRequest request : requests) {
+         for (final String line : request.lines()) {
+            final int start = line.indexOf(" count=") + " count=".length();
+            counts.add(Integer.parseInt(line.substring(start, line.indexOf('i', start))));
+         }
+      }
+      return counts;
+   }
+
+   @Test
+   public void testColumnsWrite() throws Exception {
+      final Columns columns = Columns.builder("testColumns")
+         .tag("zone", "b c")
+         .tag("host", "server1")
+         .timestamps(new long[] { 1000, 2000, 3000 }, TimeUnit.MILLISECONDS)
+         .field("value", new double[] { 1.5, -2.25, 3 })
+         .field("count", new long[] { 1, 2, 3 })
+         .field("ok", new boolean[] { true, false, true })
+         .field("ratio", new double[] { 0.12345, 0.5, 1 }, DoubleFormat.fixed(2))
+         .build();
+
+      final List<Long> outcomes = new CopyOnWriteArrayList<>();
+      final long lastSequence;
+      try (final InfluxDB influxDB = builder().build()) {
+         influxDB.write(pointFactory.createPoint("testWrite").field("count", 0).timestamp(1, TimeUnit.SECONDS));
+         lastSequence = influxDB.writeColumns(columns, (success, sequence) -> {
+            Assert.assertTrue(success);
+            outcomes.add(sequence);
+         });
+         awaitLines(4);
+      }
+
+      Assert.assertEquals(4, lastSequence);
+      Assert.assertEquals(1, outcomes.size());
+      Assert.assertEquals(4L, (long) outcomes.get(0));
+
+      final WriteRequest request = requests.get(requests.size() - 1);
+      Assert.assertArrayEquals(new String[] {
+         "testColumns,host=server1,zone=b\\ c value=1.5,count=1i,ok=t,ratio=0.12 1000000000",
+         "testColumns,host=server1,zone=b\\ c value=-2.25,count=2i,ok=f,ratio=0.5 2000000000",
+         "testColumns,host=server1,zone=b\\ c value=3,count=3i,ok=t,ratio=1 3000000000" }, request.lines());
+   }
+
+   @Test
+   public void testColumnsBatchSplit() throws Exception {
+      final int rows = 95;
+      final long[] timestamps = new long[rows];
+      final long[] counts = new long[rows];
+      for (int i = 0; i < rows; i++) {
+         timestamps[i] = 1_000_000L + i;
+         counts[i] = i;
+      }
+
+      final List<Long> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setMaximumBatchSize(10)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(sequence))
+         .build()) {
+         final Columns columns = Columns.builder("testWrite")
+            .tag("host", "server0")
+            .timestamps(timestamps, TimeUnit.MILLISECONDS)
+            .field("count", counts)
+            .build();
+
+         Assert.assertEquals(rows, influxDB.writeColumns(columns));
+         awaitLines(rows);
+         Thread.sleep(200);
+
+         // a columns can be written again once its outcome has been reported
+         Assert.assertEquals(rows + 3, influxDB.writeColumns(Columns.builder("testWrite")
+            .tag("host", "server0")
+            .timestamps(timestamps, TimeUnit.MILLISECONDS)
+            .field("count", counts)
+            .rows(3)
+            .build()));
+         awaitLines(rows + 3);
+         Thread.sleep(200);
+      }
+
+      int i = 0;
+      for (final WriteRequest request : requests) {
+         Assert.assertTrue(request.lines().length <= 10);
+         for (final String line : request.lines()) {
+            final int row = i < rows ? i : i - rows;
+            Assert.assertEquals("testWrite,host=server0 count=" + row + "i " + TimeUnit.MILLISECONDS.toNanos(1_000_000L + row), line);
+            i++;
+         }
+      }
+      Assert.assertEquals(rows + 3, i);
+      Assert.assertEquals(Arrays.asList((long) rows, (long) rows + 3), outcomes);
+   }
+
+   @Test
+   public void testColumnsAdaptivePrecision() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setAdaptivePrecision(true)
+         .build()) {
+         influxDB.writeColumns(Columns.builder("testWrite")
+            .timestamps(new long[] { 120, 180 }, TimeUnit.SECONDS)
+            .field("count", new long[] { 0, 1 })
+            .build());
+         awaitLines(2);
+      }
+
+      Assert.assertEquals(1, requests.size());
+      Assert.assertTrue(requests.get(0).query, requests.get(0).query.contains("precision=m"));
+      Assert.assertArrayEquals(new String[] { "testWrite count=0i 2", "testWrite count=1i 3" }, requests.get(0).lines());
+   }
+
+   @Test
+   public void testSendBuffers() throws Exception {
+      final CountDownLatch release = new CountDownLatch(1);
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         try {
+            release.await(10, TimeUnit.SECONDS);
+         }
+         catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         requests.add(request);
+         respond(exchange, 204, null);
+      });
+
+      final AtomicLong overflows = new AtomicLong();
+      try (final InfluxDB influxDB = builder()
+         .setQueueCapacity(16)
+         .setMaximumBatchSize(16)
+         .setBackpressurePolicy(BackpressurePolicy.FALLBACK)
+         .setOverflowHandler(point -> {
+            overflows.incrementAndGet();
+            point.close();
+         })
+         .build()) {
+         // the first batch is held in flight by the server
+         writePoints(influxDB, 0, 16);
+         Thread.sleep(300);
+         // the second batch is serialized into the free buffer, emptying the queue for the third
+         writePoints(influxDB, 16, 16);
+         Thread.sleep(300);
+         writePoints(influxDB, 32, 16);
+         Assert.assertEquals(0, overflows.get());
+
+         release.countDown();
+         awaitLines(48);
+      }
+
+      assertLines(48);
+   }
+
+   @Test
+   public void testSenderSurvivesUnexpectedException() throws Exception {
+      // the first batch fails with an unexpected exception, the sender keeps sending those that follow
+      final AtomicInteger writes = new AtomicInteger();
+      final Transport.Factory failingOnce = (writeUrl, authorization) -> {
+         final Transport noop = Transport.noop().create(writeUrl, authorization);
+         return new Transport() {
+            @Override
+            public int write(final Precision precision, final boolean compressed, final ByteBuffer[] body, final int count, final StringBuilder error) throws IOException {
+               if (writes.getAndIncrement() == 0) {
+                  throw new IllegalStateException("unexpected");
+               }
+               return noop.write(precision, compressed, body, count, error);
+            }
+
+            @Override
+            public void close() throws IOException {
+               noop.close();
+            }
+         };
+      };
+
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setTransport(failingOnce)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 0, 10);
+         Thread.sleep(300);
+         writePoints(influxDB, 10, 10);
+         final long deadline = System.currentTimeMillis() + 10_000;
+         while (outcomes.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+         }
+      }
+
+      Assert.assertEquals(Arrays.asList(false, true), outcomes);
+   }
+
+   @Test
+   public void testAsynchronousWrites() throws Exception {
+      // a server that handles requests concurrently, and slowly
+      server.stop(0);
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.setExecutor(Executors.newCachedThreadPool());
+      final AtomicInteger concurrent = new AtomicInteger();
+      final AtomicInteger maxConcurrent = new AtomicInteger();
+      server.createContext("/query", exchange -> respond(exchange, 200, "{\"results\":[]}"));
+      server.createContext("/write", exchange -> {
+         final int current = concurrent.incrementAndGet();
+         maxConcurrent.accumulateAndGet(current, Math::max);
+         try {
+            requests.add(new WriteRequest(exchange));
+            Thread.sleep(100);
+            respond(exchange, 204, null);
+         }
+         catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         finally {
+            concurrent.decrementAndGet();
+         }
+      });
+      server.start();
+
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setAsynchronousWrites(true)
+         .setMaximumRequestsInFlight(3)
+         .setMaximumBatchSize(10)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 200);
+         awaitLines(200);
+
+         final String result = influxDB.queryAsync(Query.builder().setCommand("SHOW DATABASES").setDatabase("influx4j").build())
+                                       .get(10, TimeUnit.SECONDS);
+         Assert.assertEquals("{\"results\":[]}", result);
+      }
+
+      Assert.assertTrue("batches should be in flight concurrently", maxConcurrent.get() > 1);
+      Assert.assertTrue(maxConcurrent.get() <= 3);
+      Assert.assertEquals(requests.size(), outcomes.size());
+      Assert.assertFalse(outcomes.contains(false));
+
+      // the batches of a writer may complete out of order, but every point is written once
+      final Set<String> lines = new HashSet<>();
+      for (final WriteRequest request : requests) {
+         lines.addAll(Arrays.asList(request.lines()));
+      }
+      Assert.assertEquals(200, lines.size());
+      Assert.assertEquals(200, lineCount());
+   }
+
+   @Test
+   public void testAsynchronousRejected() throws Exception {
+      final AtomicInteger attempts = new AtomicInteger();
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         requests.add(new WriteRequest(exchange));
+         attempts.incrementAndGet();
+         respond(exchange, 400, "{\"error\":\"unable to parse\"}");
+      });
+
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setAsynchronousWrites(true)
+         .setMaximumBatchSize(10)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 20);
+         awaitLines(20);
+      }
+
+      // a batch rejected with a client error is dropped, never sent again
+      Assert.assertEquals(20, lineCount());
+      Assert.assertEquals(attempts.get(), outcomes.size());
+      Assert.assertFalse(outcomes.contains(true));
+   }
+
+   @Test
+   public void testAsynchronousServerErrorRetried() throws Exception {
+      final AtomicInteger attempts = new AtomicInteger();
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         if (attempts.incrementAndGet() == 1) {
+            respond(exchange, 503, "{\"error\":\"service unavailable\"}");
+         }
+         else {
+            requests.add(request);
+            respond(exchange, 204, null);
+         }
+      });
+
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setAsynchronousWrites(true)
+         .setMaximumBatchSize(10)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 10);
+         awaitLines(10);
+      }
+
+      assertLines(10);
+      Assert.assertEquals(2, attempts.get());
+      Assert.assertEquals(Arrays.asList(true), outcomes);
+   }
+
+   @Test
+   public void testAsynchronousRetryOffDispatcher() throws Exception {
+      final AtomicLong failedLines = new AtomicLong();
+      unavailable = true;
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         if (unavailable) {
+            failedLines.addAndGet(request.lines().length);
+            respond(exchange, 500, "{\"error\":\"timeout\"}");
+         }
+         else {
+            requests.add(request);
+            respond(exchange, 204, null);
+         }
+      });
+
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setAsynchronousWrites(true)
+         .setMaximumRequestsInFlight(1)
+         .setMaximumBatchSize(10)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 10);
+         // the asynchronous write, and at least one retry
+         awaitFailures(failedLines, 20);
+
+         // the batch is retried by the writer thread, the only dispatcher slot stays free for queries
+         final String result = influxDB.queryAsync(Query.builder().setCommand("SHOW DATABASES").setDatabase("influx4j").build())
+                                       .get(2, TimeUnit.SECONDS);
+         Assert.assertEquals("{\"results\":[]}", result);
+
+         unavailable = false;
+         awaitLines(10);
+      }
+
+      assertLines(10);
+      Assert.assertEquals(Arrays.asList(true), outcomes);
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testHttp2PriorKnowledgeRequiresHttp() {
+      builder().setConnection("127.0.0.1", server.getAddress().getPort(), InfluxDB.Protocol.HTTPS)
+               .setHttp2PriorKnowledge(true)
+               .build();
+   }
+
+   @Test
+   public void testNioTransport() throws Exception {
+      final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         remotePorts.add(exchange.getRemoteAddress().getPort());
+         requests.add(new WriteRequest(exchange));
+         respond(exchange, 204, null);
+      });
+
+      final List<Long> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setTransport(Transport.nio())
+         .setMaximumBatchSize(100)
+         .setInfluxDbListener((success, finalSequence) -> outcomes.add(finalSequence))
+         .build()) {
+         writePoints(influxDB, 1000);
+         awaitLines(1000);
+      }
+
+      assertLines(1000);
+      Assert.assertTrue(requests.size() >= 10);
+      Assert.assertTrue(requests.get(0).query, requests.get(0).query.contains("precision=n"));
+      Assert.assertEquals(1000L, (long) outcomes.get(outcomes.size() - 1));
+      Assert.assertTrue("connections should be kept alive", remotePorts.size() < requests.size());
+   }
+
+   @Test
+   public void testNioTransportGzip() throws Exception {
+      try (final InfluxDB influxDB = builder()
+         .setTransport(Transport.nio())
+         .setGzipCompression(true)
+         .setCompressionThreshold(0)
+         .setEagerSerialization(true)
+         .build()) {
+         writePoints(influxDB, 1000);
+         awaitLines(1000);
+      }
+
+      assertLines(1000);
+      for (final WriteRequest request : requests) {
+         Assert.assertEquals("gzip", request.contentEncoding);
+      }
+   }
+
+   @Test
+   public void testNioTransportRetry() throws Exception {
+      // the first two writes time out, the error response is read before the connection is reused
+      final AtomicInteger timeouts = new AtomicInteger(2);
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         if (timeouts.getAndDecrement() > 0) {
+            respond(exchange, 500, "{\"error\":\"timeout\"}");
+         }
+         else {
+            requests.add(request);
+            respond(exchange, 204, null);
+         }
+      });
+
+      try (final InfluxDB influxDB = builder()
+         .setTransport(Transport.nio())
+         .build()) {
+         writePoints(influxDB, 10);
+         awaitLines(10);
+      }
+
+      assertLines(10);
+      Assert.assertEquals(1, requests.size());
+   }
+
+   @Test
+   public void testNioTransportSegments() throws Exception {
+      // uncompressed eager batches span several 32KB segments, each sent as a buffer of the body
+      try (final InfluxDB influxDB = builder()
+         .setTransport(Transport.nio())
+         .setEagerSerialization(true)
+         .setAutoFlushPeriod(500)
+         .build()) {
+         writePoints(influxDB, 5000);
+         awaitLines(5000);
+      }
+
+      assertLines(5000);
+      int largest = 0;
+      for (final WriteRequest request : requests) {
+         largest = Math.max(largest, request.body.length);
+      }
+      Assert.assertTrue("a batch should span several segments: " + largest, largest > 32 * 1024);
+   }
+
+   @Test
+   public void testNoopTransportSegments() throws Exception {
+      final AtomicLong lastSequence = new AtomicLong();
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setTransport(Transport.noop())
+         .setEagerSerialization(true)
+         .setWriterThreads(4)
+         .setInfluxDbListener((success, sequence) -> {
+            outcomes.add(success);
+            lastSequence.accumulateAndGet(sequence, Math::max);
+         })
+         .build()) {
+         writePoints(influxDB, 20_000);
+         final long deadline = System.currentTimeMillis() + 10_000;
+         while (lastSequence.get() < 20_000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+         }
+      }
+
+      Assert.assertEquals(20_000L, lastSequence.get());
+      Assert.assertFalse(outcomes.contains(false));
+   }
+
+   @Test
+   public void testNioTransportNoResendAfterRequest() throws Exception {
+      // a raw endpoint that answers the first request, and closes the connection after reading the second
+      final AtomicInteger received = new AtomicInteger();
+      try (final ServerSocket endpoint = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+         final Thread acceptor = new Thread(() -> {
+            try {
+               while (!endpoint.isClosed()) {
+                  try (final Socket socket = endpoint.accept()) {
+                     final InputStream in = socket.getInputStream();
+                     readRawRequest(in);
+                     received.incrementAndGet();
+                     socket.getOutputStream().write("HTTP/1.1 204 No Content\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                     readRawRequest(in);
+                     received.incrementAndGet();
+                  }
+               }
+            }
+            catch (final IOException e) {
+               // closed
+            }
+         });
+         acceptor.setDaemon(true);
+         acceptor.start();
+
+         final URL writeUrl = new URL("http://127.0.0.1:" + endpoint.getLocalPort() + "/write?db=influx4j&precision=n");
+         final ByteBuffer[] body = { ByteBuffer.wrap("m v=1i 1\n".getBytes(StandardCharsets.UTF_8)) };
+         try (final Transport transport = Transport.nio().create(writeUrl, "Basic aW5mbHV4NGo6aW5mbHV4NGo=")) {
+            Assert.assertEquals(204, transport.write(Precision.NANOSECOND, false, body, 1, new StringBuilder()));
+            body[0].rewind();
+            try {
+               transport.write(Precision.NANOSECOND, false, body, 1, new StringBuilder());
+               Assert.fail("Expected IOException");
+            }
+            catch (final IOException e) {
+               // expected
+            }
+         }
+
+         // the second request was written in full on the pooled connection, so it is not sent again
+         Thread.sleep(200);
+         Assert.assertEquals(2, received.get());
+      }
+   }
+
+   @Test
+   public void testNoopTransport() throws Exception {
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setTransport(Transport.noop())
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 1000);
+         final long deadline = System.currentTimeMillis() + 10_000;
+         while (outcomes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+         }
+      }
+
+      Assert.assertTrue(requests.isEmpty());
+      Assert.assertFalse(outcomes.isEmpty());
+      Assert.assertFalse(outcomes.contains(false));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testTransportRequiresSerializedBatches() {
+      builder().setTransport(Transport.nio())
+               .setStreamingWrites(true)
+               .build();
+   }
+
+   @Test
+   public void testSpoolReplay() throws Exception {
+      final AtomicLong failedLines = unavailableEndpoint();
+      final Path directory = Files.createTempDirectory("influx4j-spool");
+      final List<String> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setMaximumBatchSize(10)
+         .setSpoolDirectory(directory)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success + ":" + sequence))
+         .build()) {
+         writePoints(influxDB, 0, 60);
+         awaitFailures(failedLines, 10);
+         Thread.sleep(300);
+         Assert.assertEquals(0, lineCount());
+         Assert.assertTrue(outcomes.isEmpty());
+
+         // batches written while the spool drains are sent after the spooled batches
+         unavailable = false;
+         writePoints(influxDB, 60, 40);
+         awaitLines(100);
+         Thread.sleep(200);
+      }
+      finally {
+         deleteDirectory(directory);
+      }
+
+      assertLines(100);
+      Assert.assertEquals("true:100", outcomes.get(outcomes.size() - 1));
+      for (final String outcome : outcomes) {
+         Assert.assertTrue(outcome, outcome.startsWith("true:"));
+      }
+   }
+
+   @Test
+   public void testSpoolRestart() throws Exception {
+      final AtomicLong failedLines = unavailableEndpoint();
+      final Path directory = Files.createTempDirectory("influx4j-spool");
+      try {
+         try (final InfluxDB influxDB = builder().setSpoolDirectory(directory).build()) {
+            writePoints(influxDB, 0, 50);
+            awaitFailures(failedLines, 50);
+            Thread.sleep(200);
+         }
+         Assert.assertEquals(0, lineCount());
+
+         // the spooled points are replayed by the next connection on the spool, exactly once
+         unavailable = false;
+         try (final InfluxDB influxDB = builder().setSpoolDirectory(directory).build()) {
+            awaitLines(50);
+            writePoints(influxDB, 50, 50);
+            awaitLines(100);
+            Thread.sleep(200);
+         }
+         try (final InfluxDB influxDB = builder().setSpoolDirectory(directory).build()) {
+            Thread.sleep(300);
+         }
+      }
+      finally {
+         deleteDirectory(directory);
+      }
+
+      assertLines(100);
+   }
+
+   @Test
+   public void testSpoolRejectedBatch() throws Exception {
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         if (request.lines()[0].contains("count=0i")) {
+            respond(exchange, 400, "{\"error\":\"partial write: field type conflict\"}");
+         }
+         else {
+            requests.add(request);
+            respond(exchange, 204, null);
+         }
+      });
+
+      final Path directory = Files.createTempDirectory("influx4j-spool");
+      final List<Boolean> outcomes = new CopyOnWriteArrayList<>();
+      try (final InfluxDB influxDB = builder()
+         .setMaximumBatchSize(10)
+         .setSpoolDirectory(directory)
+         .setInfluxDbListener((success, sequence) -> outcomes.add(success))
+         .build()) {
+         writePoints(influxDB, 0, 10);
+         Thread.sleep(300);
+         writePoints(influxDB, 10, 10);
+         awaitLines(10);
+         Thread.sleep(200);
+      }
+      finally {
+         deleteDirectory(directory);
+      }
+
+      // a batch rejected by the server is dropped rather than spooled
+      Assert.assertEquals(Arrays.asList(false, true), outcomes);
+      Assert.assertEquals(1, requests.size());
+      Assert.assertTrue(requests.get(0).lines()[0].contains("count=10i"));
+   }
+
+   InfluxDB.Builder builder() {
+      return InfluxDB.builder()
+         .setConnection("127.0.0.1", server.getAddress().getPort(), InfluxDB.Protocol.HTTP)
+         .setUsername("influx4j")
+         .setPassword("influx4j")
+         .setDatabase("influx4j")
+         .setAutoFlushPeriod(100);
+   }
+
+   void writePoints(final InfluxDB influxDB, final int count) {
+      writePoints(influxDB, 0, count);
+   }
+
+   void writePoints(final InfluxDB influxDB, final int from, final int count) {
+      for (int i = from; i < from + count; i++) {
+         influxDB.write(pointFactory.createPoint("testWrite")
+            .tag("host", "server" + (i % 4))
+            .field("count", i)
+            .timestamp(1_000_000L + i, TimeUnit.MILLISECONDS));
+      }
+   }
+
+   void awaitLines(final int count) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 10_000;
+      while (lineCount() < count && System.currentTimeMillis() < deadline) {
+         Thread.sleep(20);
+      }
+   }
+
+   int lineCount() {
+      int lines = 0;
+      for (final WriteRequest request : requests) {
+         lines += request.lines().length;
+      }
+      return lines;
+   }
+
+   void assertLines(final int count) {
+      int i = 0;
+      for (final WriteRequest request : requests) {
+         for (final String line : request.lines()) {
+            Assert.assertEquals("testWrite,host=server" + (i % 4) + " count=" + i + "i " + TimeUnit.MILLISECONDS.toNanos(1_000_000L + i), line);
+            i++;
+         }
+      }
+      Assert.assertEquals(count, i);
+   }
+
+   /**
+    * Replace the write endpoint with one that fails with a 503 while {@link #unavailable} is set.
+    *
+    * @return the count of the lines of the failed writes
+    */
+   AtomicLong unavailableEndpoint() {
+      final AtomicLong failedLines = new AtomicLong();
+      unavailable = true;
+      server.removeContext("/write");
+      server.createContext("/write", exchange -> {
+         final WriteRequest request = new WriteRequest(exchange);
+         if (unavailable) {
+            failedLines.addAndGet(request.lines().length);
+            respond(exchange, 503, "{\"error\":\"service unavailable\"}");
+         }
+         else {
+            requests.add(request);
+            respond(exchange, 204, null);
+         }
+      });
+      return failedLines;
+   }
+
+   static void awaitFailures(final AtomicLong failedLines, final int count) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 10_000;
+      while (failedLines.get() < count && System.currentTimeMillis() < deadline) {
+         Thread.sleep(20);
+      }
+   }
+
+   static void deleteDirectory(final Path directory) throws IOException {
+      try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+         for (final Path file : files) {
+            Files.delete(file);
+         }
+      }
+      Files.delete(directory);
+   }
+
+   /**
+    * Read a request with a content length from a raw connection.
+    */
+   private static void readRawRequest(final InputStream in) throws IOException {
+      final StringBuilder head = new StringBuilder();
+      while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+         final int b = in.read();
+         if (b < 0) throw new IOException("closed");
+         head.append((char) b);
+      }
+
+      int contentLength = 0;
+      for (final String header : head.toString().split("\r\n")) {
+         if (header.toLowerCase().startsWith("content-length:")) {
+            contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+         }
+      }
+      for (int i = 0; i < contentLength; i++) {
+         if (in.read() < 0) throw new IOException("closed");
+      }
+   }
+
+   private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+      final byte[] bytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+      exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+      if (bytes.length > 0) {
+         exchange.getResponseBody().write(bytes);
+      }
+      exchange.close();
+   }
+
+   static final class WriteRequest {
+      final String query;
+      final String transferEncoding;
+      final String contentEncoding;
+      final int rawLength;
+      final byte[] body;
+
+      WriteRequest(final HttpExchange exchange) throws IOException {
+         this.query = exchange.getRequestURI().getQuery();
+         this.transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+         this.contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+         final byte[] raw = readFully(exchange.getRequestBody());
+         this.rawLength = raw.length;
+         this.body = "gzip".equals(contentEncoding) ? readFully(new GZIPInputStream(new ByteArrayInputStream(raw))) : raw;
+      }
+
+      private static byte[] readFully(final InputStream is) throws IOException {
+         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+         try {
+            final byte[] chunk = new byte[8192];
+            int read;
+            while ((read = is.read(chunk)) > 0) {
+               baos.write(chunk, 0, read);
+            }
+         }
+         finally {
+            is.close();
+         }
+         return baos.toByteArray();
+      }
+
+      String[] lines() {
+         final String text = new String(body, StandardCharsets.UTF_8);
+         return text.isEmpty() ? new String[0] : text.split("\n");
+      }
+   }
+}
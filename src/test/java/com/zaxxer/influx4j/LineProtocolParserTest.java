@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2019, Brett Wooldridge.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zaxxer.influx4j;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class LineProtocolParserTest {
+   private PointFactory pointFactory;
+
+   @Before
+   public void createFactory() {
+      pointFactory = PointFactory.builder().initialSize(1).build();
+   }
+
+   @After
+   public void shutdownFactory() {
+      pointFactory.flush();
+   }
+
+   @Test
+   public void testRoundTrip() {
+      final Point original = pointFactory.createPoint("round trip")
+            .tag("host", "server,01")
+            .tag("region", "us=west")
+            .field("string", "This \"is\" a \\ test")
+            .field("long", -42)
+            .fieldUnsigned("unsigned", -1L)
+            .field("double", 3.14)
+            .field("boolean", true)
+            .timestamp(1557000000123456789L, TimeUnit.NANOSECONDS);
+
+      final ByteBuffer buffer = ByteBuffer.allocate(256);
+      original.write(buffer, Precision.NANOSECOND);
+      original.close();
+      buffer.flip();
+      final String line = string(buffer);
+
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      try (final Point point = parser.next(buffer)) {
+         Assert.assertEquals("round trip", point.measurement());
+         Assert.assertEquals("server,01", point.tag("host"));
+         Assert.assertEquals("us=west", point.tag("region"));
+         Assert.assertEquals("This \"is\" a \\ test", point.stringField("string"));
+         Assert.assertEquals(Long.valueOf(-42), point.longField("long"));
+         Assert.assertEquals(Long.valueOf(-1L), point.longField("unsigned"));
+         Assert.assertTrue(point.isUnsignedLongField(point.getLongFieldIndex("unsigned")));
+         Assert.assertEquals(3.14, point.doubleField("double"), 0d);
+         Assert.assertTrue(point.booleanField("boolean"));
+         Assert.assertEquals(1557000000123456789L, point.getTimestamp(Precision.NANOSECOND));
+
+         final ByteBuffer rewritten = ByteBuffer.allocate(256);
+         point.write(rewritten, Precision.NANOSECOND);
+         rewritten.flip();
+         Assert.assertEquals(line, string(rewritten));
+      }
+      Assert.assertNull(parser.next(buffer));
+   }
+
+   @Test
+   public void testEscapes() {
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      try (final Point point = parser.next(buffer("sp\\ ace\\,comma,t\\ a\\=g=v\\,a\\ l\\=ue f\\,i\\=e\\ ld=\"a\\\"b\" 1"))) {
+         Assert.assertEquals("sp ace,comma", point.measurement());
+         Assert.assertEquals("v,a l=ue", point.tag("t a=g"));
+         Assert.assertEquals("a\"b", point.stringField("f,i=e ld"));
+      }
+
+      // a string field value may contain every other character unescaped
+      try (final Point point = parser.next(buffer("m s=\"a, b=c \\d\""))) {
+         Assert.assertEquals("a, b=c \\d", point.stringField("s"));
+      }
+   }
+
+   @Test
+   public void testFieldTypes() {
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      final String line = "m min=-9223372036854775808i,max=9223372036854775807i,u=18446744073709551615u,"
+                          + "t1=t,t2=T,t3=true,t4=True,t5=TRUE,f1=f,f2=F,f3=false,f4=False,f5=FALSE,"
+                          + "d1=1,d2=-0.5,d3=1.5e3,d4=2E-2,d5=+7.";
+      try (final Point point = parser.next(buffer(line))) {
+         Assert.assertEquals(Long.valueOf(Long.MIN_VALUE), point.longField("min"));
+         Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), point.longField("max"));
+         Assert.assertEquals(Long.valueOf(-1L), point.longField("u"));
+         for (int i = 1; i <= 5; i++) {
+            Assert.assertTrue(point.booleanField("t" + i));
+            Assert.assertFalse(point.booleanField("f" + i));
+         }
+         Assert.assertEquals(1d, point.doubleField("d1"), 0d);
+         Assert.assertEquals(-0.5d, point.doubleField("d2"), 0d);
+         Assert.assertEquals(1500d, point.doubleField("d3"), 0d);
+         Assert.assertEquals(0.02d, point.doubleField("d4"), 0d);
+         Assert.assertEquals(7d, point.doubleField("d5"), 0d);
+      }
+   }
+
+   @Test
+   public void testDoubles() {
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      final String[] values = {
+         "0", "0.1", "123.456", "-98765.4321", "1e22", "1e-22", "0.30000000000000004", "1.7976931348623157e308",
+         "4.9e-324", "2.2250738585072014E-308", "123456789012345678901234567890", "9007199254740993",
+         "0.000000000000000000000000001", "3.141592653589793238462643383279"
+      };
+      for (final String value : values) {
+         try (final Point point = parser.next(buffer("m d=" + value))) {
+            Assert.assertEquals(value, Double.parseDouble(value), point.doubleField("d"), 0d);
+         }
+      }
+   }
+
+   @Test
+   public void testPrecision() {
+      for (final Precision precision : Precision.values()) {
+         final LineProtocolParser parser = new LineProtocolParser(pointFactory, precision);
+         try (final Point point = parser.next(buffer("m v=1i 1234"))) {
+            Assert.assertEquals(1234L, point.getTimestamp(precision));
+
+            final ByteBuffer buffer = ByteBuffer.allocate(64);
+            point.write(buffer, precision);
+            buffer.flip();
+            Assert.assertEquals("m v=1i 1234\n", string(buffer));
+         }
+      }
+
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.SECOND);
+      try (final Point point = parser.next(buffer("m v=1i 2"))) {
+         final ByteBuffer buffer = ByteBuffer.allocate(64);
+         point.write(buffer, Precision.MILLISECOND);
+         buffer.flip();
+         Assert.assertEquals("m v=1i 2000\n", string(buffer));
+      }
+   }
+
+   @Test
+   public void testMissingTimestamp() {
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      final long before = System.currentTimeMillis();
+      try (final Point point = parser.next(buffer("m v=1i"))) {
+         final ByteBuffer buffer = ByteBuffer.allocate(64);
+         point.write(buffer, Precision.MILLISECOND);
+         buffer.flip();
+         final String line = string(buffer);
+         final long timestamp = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1, line.length() - 1));
+         Assert.assertTrue(timestamp >= before && timestamp <= System.currentTimeMillis());
+      }
+   }
+
+   @Test
+   public void testBlankLinesAndComments() {
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      final ByteBuffer buffer = buffer("\n# a comment\r\n  \r\na v=1i 1\r\n\n   # another\nb v=2i 2\n\n");
+
+      try (final Point point = parser.next(buffer)) {
+         Assert.assertEquals("a", point.measurement());
+         Assert.assertEquals(1L, point.getTimestamp(Precision.NANOSECOND));
+      }
+      try (final Point point = parser.next(buffer)) {
+         Assert.assertEquals("b", point.measurement());
+         Assert.assertEquals(2L, point.getTimestamp(Precision.NANOSECOND));
+      }
+      Assert.assertNull(parser.next(buffer));
+      Assert.assertFalse(buffer.hasRemaining());
+   }
+
+   @Test
+   public void testInvalidLines() {
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      final String[] invalid = {
+         "m", "m ", ",t=v f=1", "m,t f=1", "m,t= f=1", "m f", "m f=", "m =1", "m f=1 x", "m f=1 1 2",
+         "m f=\"open", "m f=\"s\"x", "m f=1.2.3", "m f=abc", "m f=9223372036854775808i", "m f=-1u",
+         "m f=18446744073709551616u", "m f=1e", "m f=1i 9223372036854775808"
+      };
+      for (final String line : invalid) {
+         final ByteBuffer buffer = buffer(line + "\nvalid v=1i\n");
+         try {
+            parser.next(buffer);
+            Assert.fail("Expected IllegalArgumentException for: " + line);
+         }
+         catch (final IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith(line));
+         }
+
+         // the invalid line is skipped
+         try (final Point point = parser.next(buffer)) {
+            Assert.assertEquals("valid", point.measurement());
+         }
+      }
+   }
+
+   @Test
+   public void testValidateOnly() {
+      final LineProtocolParser parser = new LineProtocolParser();
+      final ByteBuffer buffer = buffer("a,t=v f=1i 1\nb s=\"x\"\n");
+      Assert.assertTrue(parser.validateNext(buffer));
+      Assert.assertTrue(parser.validateNext(buffer));
+      Assert.assertFalse(parser.validateNext(buffer));
+
+      try {
+         parser.validateNext(buffer("c f=x"));
+         Assert.fail("Expected IllegalArgumentException");
+      }
+      catch (final IllegalArgumentException e) {
+         Assert.assertTrue(e.getMessage().contains("line 3"));
+      }
+
+      try {
+         parser.next(buffer("a f=1"));
+         Assert.fail("Expected IllegalStateException");
+      }
+      catch (final IllegalStateException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testChannel() throws IOException {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 20_000; i++) {
+         sb.append("cpu,host=server").append(i % 10).append(" value=").append(i).append("i,load=").append(i / 4.0)
+           .append(' ').append(i).append('\n');
+      }
+      sb.append("last value=-1i");
+      final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+      final List<String> hosts = new ArrayList<>();
+      final long[] sum = new long[1];
+      final LineProtocolParser parser = new LineProtocolParser(pointFactory, Precision.NANOSECOND);
+      final long count = parser.parse(Channels.newChannel(new ByteArrayInputStream(bytes)), point -> {
+         if (point.getTimestamp(Precision.NANOSECOND) < 10) {
+            hosts.add(point.tag("host"));
+         }
+         sum[0] += point.longField("value");
+         point.close();
+      });
+
+      Assert.assertEquals(20_001, count);
+      Assert.assertEquals(20_000L * 19_999 / 2 - 1, sum[0]);
+      Assert.assertEquals("server0", hosts.get(0));
+      Assert.assertEquals("server9", hosts.get(9));
+
+      Assert.assertEquals(20_001, new LineProtocolParser().validate(Channels.newChannel(new ByteArrayInputStream(bytes))));
+   }
+
+   private static ByteBuffer buffer(final String lines) {
+      return ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private static String string(final ByteBuffer buffer) {
+      return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+   }
+}
@@ -22,9 +22,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.zaxxer.influx4j.InfluxDB.Precision;
+import com.zaxxer.influx4j.util.Utf8;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.System.identityHashCode;
@@ -134,6 +138,196 @@ public class LineProtocolTest {
       Assert.assertEquals(tsString("testMeasurement long=123456i", timestamp), buffer2string(buffer));
    }
 
+   @Test
+   public void testFieldUnsigned() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+
+      final long timestamp = timestampNs();
+      final Point point = pointFactory.createPoint("testMeasurement")
+              .fieldUnsigned("counter", -1L)
+              .fieldUnsigned("small", 42L)
+              .field("signed", -1L)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS);
+      point.write(buffer, Precision.NANOSECOND);
+
+      Assert.assertEquals(tsString("testMeasurement counter=18446744073709551615u,small=42u,signed=-1i", timestamp), buffer2string(buffer));
+      Assert.assertTrue(point.isUnsignedLongField(0));
+      Assert.assertFalse(point.isUnsignedLongField(2));
+      Assert.assertEquals(Long.valueOf(-1L), point.longField("counter"));
+   }
+
+   @Test
+   public void testFieldDoubleFormats() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+
+      final long timestamp = timestampNs();
+      final Point point = pointFactory.createPoint("testMeasurement")
+              .field("fixed", 21.456789d, DoubleFormat.fixed(2))
+              .field("float", 0.1d, DoubleFormat.FLOAT32)
+              .field("default", 1.1d / 3)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS);
+
+      point.write(buffer, Precision.NANOSECOND);
+      Assert.assertEquals(tsString("testMeasurement fixed=21.46,float=0.1,default=0.3666666666666667", timestamp), buffer2string(buffer));
+
+      buffer.clear();
+      point.write(buffer, Precision.NANOSECOND, DoubleFormat.fixed(3));
+      Assert.assertEquals(tsString("testMeasurement fixed=21.46,float=0.1,default=0.367", timestamp), buffer2string(buffer));
+
+      buffer.clear();
+      point.write(buffer, Precision.NANOSECOND, DoubleFormat.FLOAT32);
+      Assert.assertEquals(tsString("testMeasurement fixed=21.46,float=0.1,default=0.36666667", timestamp), buffer2string(buffer));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testFixedFormatRange() {
+      DoubleFormat.fixed(DoubleFormat.MAX_FRACTION_DIGITS + 1);
+   }
+
+   @Test
+   public void testTemplate() throws IOException {
+      final PointTemplate template = pointFactory.template("test measurement")
+              .tag("zebra")
+              .tag("apple")
+              .tag("mouse")
+              .doubleField("double")
+              .longField("long")
+              .stringField("string")
+              .booleanField("boolean")
+              .unsignedField("unsigned")
+              .doubleField("fixed", DoubleFormat.fixed(1))
+              .build();
+
+      final long timestamp = timestampNs();
+      final ByteBuffer buffer = ByteBuffer.allocate(256);
+      try (final Point point = template.createPoint()) {
+         point.setTag(0, "cafe")
+              .setTag(1, "rare 7")
+              .setDouble(0, 12345.6789d)
+              .setLong(1, 12345)
+              .setString(2, "This is a \"string\"")
+              .setBoolean(3, true)
+              .setLong(4, -1L)
+              .setDouble(5, 2.25d)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS);
+
+         point.check();
+         point.write(buffer, Precision.NANOSECOND);
+         Assert.assertEquals(tsString("test\\ measurement,apple=rare\\ 7,zebra=cafe double=12345.6789,long=12345i,"
+                                      + "string=\"This is a \\\"string\\\"\",boolean=t,unsigned=18446744073709551615u,fixed=2.3", timestamp),
+                             buffer2string(buffer));
+         Assert.assertEquals(Double.valueOf(12345.6789d), point.doubleField("double"));
+         Assert.assertEquals("cafe", point.tag("zebra"));
+         Assert.assertSame(template, point.getTemplate());
+      }
+
+      // the same point built by name serializes identically, apart from field order
+      buffer.clear();
+      try (final Point point = pointFactory.createPoint("test measurement")
+              .tag("mouse", "beer")
+              .tag("zebra", "cafe")
+              .tag("apple", "rare")
+              .field("double", 1.5d)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS)) {
+         Assert.assertNull(point.getTemplate());
+         point.write(buffer, Precision.NANOSECOND);
+      }
+      final String expected = buffer2string(buffer);
+
+      buffer.clear();
+      try (final Point point = template.createPoint()) {
+         point.setTag(2, "beer").setTag(1, "rare").setTag(0, "cafe").setDouble(0, 1.5d).timestamp(timestamp, TimeUnit.NANOSECONDS);
+         point.write(buffer, Precision.NANOSECOND);
+      }
+      Assert.assertEquals(expected, buffer2string(buffer));
+   }
+
+   @Test
+   public void testTemplateUnsetFields() throws IOException {
+      final PointTemplate template = pointFactory.template("testMeasurement")
+              .tag("host")
+              .longField("a")
+              .stringField("b")
+              .longField("c")
+              .build();
+
+      final long timestamp = timestampNs();
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+      try (final Point point = template.createPoint()) {
+         try {
+            point.timestamp(timestamp, TimeUnit.NANOSECONDS).check();
+            Assert.fail("a point without fields should not pass check()");
+         }
+         catch (final IllegalStateException e) {
+            // expected
+         }
+
+         point.setLong(2, 3).setString(1, "b").setString(1, null);
+         point.write(buffer, Precision.NANOSECOND);
+         Assert.assertEquals(tsString("testMeasurement c=3i", timestamp), buffer2string(buffer));
+
+         final Point copy = point.copy();
+         Assert.assertEquals(0, copy.getTagCount());
+         copy.close();
+      }
+
+      // a pooled point is returned untemplated
+      final Point point = pointFactory.createPoint("plain");
+      Assert.assertNull(point.getTemplate());
+      point.tag("host", "server1").field("a", 1L);
+      point.close();
+   }
+
+   @Test
+   public void testTemplateMisuse() {
+      final PointTemplate template = pointFactory.template("testMeasurement")
+              .tag("host")
+              .longField("a")
+              .build();
+
+      try (final Point point = template.createPoint()) {
+         try {
+            point.setDouble(0, 1d);
+            Assert.fail("setDouble() of a long field should fail");
+         }
+         catch (final IllegalArgumentException e) {
+            // expected
+         }
+
+         try {
+            point.setLong(1, 1L);
+            Assert.fail("setLong() beyond the declared fields should fail");
+         }
+         catch (final IndexOutOfBoundsException e) {
+            // expected
+         }
+
+         try {
+            point.field("b", 1L);
+            Assert.fail("field() of a templated point should fail");
+         }
+         catch (final IllegalStateException e) {
+            // expected
+         }
+      }
+
+      try (final Point point = pointFactory.createPoint("testMeasurement")) {
+         point.setLong(0, 1L);
+         Assert.fail("setLong() of an untemplated point should fail");
+      }
+      catch (final IllegalStateException e) {
+         // expected
+      }
+
+      try {
+         pointFactory.template("testMeasurement").longField("a").doubleField("a");
+         Assert.fail("duplicate fields should fail");
+      }
+      catch (final IllegalArgumentException e) {
+         // expected
+      }
+   }
+
    @Test
    public void testFieldDouble() throws IOException {
       final ByteBuffer buffer = ByteBuffer.allocate(128);
@@ -249,6 +443,187 @@ public class LineProtocolTest {
       Assert.assertEquals(tsString("testMeasurement,apple=1,mouse=2,table=3,zebra=4 boolean=t", timestamp), buffer2string(buffer));
    }
 
+   @Test
+   public void testTagByteOrdering() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+
+      // UTF-16 (String.compareTo) orders the surrogate pair first, UTF-8 bytes order U+FF61 first
+      final long timestamp = timestampNs();
+      pointFactory.createPoint("testMeasurement")
+              .tag("\uD83D\uDE00", "2")
+              .tag("\uFF61", "1")
+              .tag("a", "0")
+              .field("boolean", true)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS)
+              .write(buffer, Precision.NANOSECOND);
+
+      Assert.assertEquals(tsString("testMeasurement,a=0,\uFF61=1,\uD83D\uDE00=2 boolean=t", timestamp), buffer2string(buffer));
+   }
+
+   @Test
+   public void testUnicodeKeys() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+
+      final long timestamp = timestampNs();
+      pointFactory.createPoint("m\u00e9s ure")
+              .tag("t\u00e4g,1", "one")
+              .field("f\u00eeeld=", 1)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS)
+              .write(buffer, Precision.NANOSECOND);
+
+      Assert.assertEquals(tsString("m\u00e9s\\ ure,t\u00e4g\\,1=one f\u00eeeld\\==1i", timestamp), buffer2string(buffer));
+   }
+
+   @Test
+   public void testUnicodeValues() throws IOException {
+      final String tagValue = "caf\u00e9 \u6771\u4eac,\uD83D\uDE00=x";
+      final String fieldValue = "\u00fcber \"\u6771\u4eac\" \uD83D\uDE00";
+      final String expected = tsString("testMeasurement,tag1=caf\u00e9\\ \u6771\u4eac\\,\uD83D\uDE00\\=x string=\"\u00fcber \\\"\u6771\u4eac\\\" \uD83D\uDE00\"", 1L);
+
+      for (final ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(128), ByteBuffer.allocateDirect(128) }) {
+         pointFactory.createPoint("testMeasurement")
+                 .tag("tag1", tagValue)
+                 .field("string", fieldValue)
+                 .timestamp(1L, TimeUnit.NANOSECONDS)
+                 .write(buffer, Precision.NANOSECOND);
+
+         Assert.assertEquals(expected, buffer2string(buffer));
+      }
+   }
+
+   @Test
+   public void testUnpairedSurrogate() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+      pointFactory.createPoint("testMeasurement")
+              .tag("tag1", "a\uD83Db")
+              .field("string", "\uDE00")
+              .timestamp(1L, TimeUnit.NANOSECONDS)
+              .write(buffer, Precision.NANOSECOND);
+
+      Assert.assertEquals(tsString("testMeasurement,tag1=a?b string=\"?\"", 1L), buffer2string(buffer));
+   }
+
+   @Test
+   public void testEscapedLength() {
+      final Utf8.EscapeSet escapes = Utf8.escapeSet(',', '=', ' ');
+      for (final String string : new String[] { "", "plain", "a b,c=d", "caf\u00e9", "\u6771\u4eac", "\uD83D\uDE00 x", "a\uD83Db", "\uDE00" }) {
+         final ByteBuffer buffer = ByteBuffer.allocate(64);
+         Utf8.writeEscaped(buffer, string, escapes);
+         Assert.assertEquals(string, Utf8.escapedLength(string, escapes), buffer.position());
+         Assert.assertEquals(string, string.getBytes(StandardCharsets.UTF_8).length, Utf8.encodedLength(string));
+      }
+   }
+
+   @Test
+   public void testEscapeScanning() {
+      final Utf8.EscapeSet escapes = Utf8.escapeSet(',', '=', ' ');
+      final char[] alphabet = { 'a', 'z', '0', ',', '=', ' ', '"', '\u00e9', '\u6771' };
+      final Random random = new Random(42);
+
+      for (int n = 0; n < 500; n++) {
+         final char[] chars = new char[random.nextInt(40)];
+         for (int i = 0; i < chars.length; i++) {
+            chars[i] = alphabet[random.nextInt(n % 2 == 0 ? 3 : alphabet.length)];
+         }
+         final String string = new String(chars);
+         final String expected = string.replace(",", "\\,").replace("=", "\\=").replace(" ", "\\ ");
+
+         for (final ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(160), ByteBuffer.allocateDirect(160) }) {
+            buffer.put((byte) 'x');
+            Utf8.writeEscaped(buffer, string, escapes);
+            Assert.assertEquals("x" + expected, buffer2string(buffer));
+         }
+      }
+   }
+
+   @Test
+   public void testEscapedOverflow() {
+      final ByteBuffer buffer = ByteBuffer.allocate(8);
+      buffer.put((byte) 'x');
+      try {
+         Utf8.writeEscaped(buffer, "\u6771,\u4eac", Utf8.escapeSet(','));
+         Assert.fail("Expected BufferOverflowException");
+      }
+      catch (final BufferOverflowException e) {
+         Assert.assertEquals(1, buffer.position());
+      }
+
+      Utf8.writeEscaped(buffer, "\u6771,", Utf8.escapeSet(','));
+      Assert.assertEquals(6, buffer.position());
+   }
+
+   @Test
+   public void testSeriesKeyCache() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(128);
+      final long timestamp = timestampNs();
+
+      final long hits = SeriesKeyCache.getHitCount();
+      final long misses = SeriesKeyCache.getMissCount();
+
+      for (int i = 0; i < 3; i++) {
+         buffer.clear();
+         try (Point point = pointFactory.createPoint("testSeriesKeyCache")
+                 .tag("zebra", "4")
+                 .tag("apple", "1")
+                 .field("long", i)
+                 .timestamp(timestamp, TimeUnit.NANOSECONDS)) {
+            point.write(buffer, Precision.NANOSECOND);
+         }
+         Assert.assertEquals(tsString("testSeriesKeyCache,apple=1,zebra=4 long=" + i + "i", timestamp), buffer2string(buffer));
+      }
+
+      Assert.assertEquals(misses + 1, SeriesKeyCache.getMissCount());
+      Assert.assertEquals(hits + 2, SeriesKeyCache.getHitCount());
+
+      // a different tag value is a different series
+      buffer.clear();
+      try (Point point = pointFactory.createPoint("testSeriesKeyCache")
+              .tag("zebra", "5")
+              .tag("apple", "1")
+              .field("long", 3)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS)) {
+         point.write(buffer, Precision.NANOSECOND);
+      }
+      Assert.assertEquals(tsString("testSeriesKeyCache,apple=1,zebra=5 long=3i", timestamp), buffer2string(buffer));
+      Assert.assertEquals(misses + 2, SeriesKeyCache.getMissCount());
+   }
+
+   @Test
+   public void testDirectBuffer() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+
+      final long timestamp = timestampNs();
+      pointFactory.createPoint("com,ma")
+              .tag("zebra", "4")
+              .tag("apple", "sp ace")
+              .field("string", "This \"is\" a test")
+              .field("long", -123456)
+              .field("double", -123456.789d)
+              .field("boolean", true)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS)
+              .write(buffer, Precision.NANOSECOND);
+
+      Assert.assertEquals(tsString("com\\,ma,apple=sp\\ ace,zebra=4 string=\"This \\\"is\\\" a test\",long=-123456i,double=-123456.789,boolean=t", timestamp),
+                          buffer2string(buffer));
+   }
+
+   @Test
+   public void testSlicedBuffer() throws IOException {
+      final ByteBuffer backing = ByteBuffer.allocate(256);
+      backing.position(17);
+      final ByteBuffer buffer = backing.slice();
+
+      final long timestamp = timestampNs();
+      pointFactory.createPoint("testMeasurement")
+              .tag("tag1", "one")
+              .field("long", 42)
+              .field("double", -0.5d)
+              .timestamp(timestamp, TimeUnit.NANOSECONDS)
+              .write(buffer, Precision.NANOSECOND);
+
+      Assert.assertEquals(tsString("testMeasurement,tag1=one long=42i,double=-0.5", timestamp), buffer2string(buffer));
+   }
+
    // @Test
    public void testPointReset() throws IOException {
       final ByteBuffer buffer = ByteBuffer.allocate(128);
@@ -289,6 +664,72 @@ public class LineProtocolTest {
       }
    }
 
+   @Test
+   public void testGrowingTagsAndFields() {
+      final ByteBuffer buffer = ByteBuffer.allocate(8192);
+      final long timestamp = timestampNs();
+
+      final Point point1 = pointFactory.createPoint("testMeasurement");
+      final StringBuilder expected = new StringBuilder("testMeasurement");
+      for (int i = 0; i < 100; i++) {
+         // zero-padded so that the sorted tag order is the insertion order
+         point1.tag(String.format("tag%03d", i), "v" + i);
+         expected.append(String.format(",tag%03d=v%d", i, i));
+      }
+      expected.append(' ');
+      final StringBuilder longs = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+         point1.field("long" + i, i);
+         longs.append(',').append("long").append(i).append('=').append(i).append('i');
+      }
+      for (int i = 0; i < 10; i++) {
+         point1.field("double" + i, i + 0.5).field("string" + i, "s" + i).field("boolean" + i, i % 2 == 0);
+      }
+
+      Assert.assertEquals(100, point1.getTagCount());
+      Assert.assertEquals(130, point1.getFieldCount());
+      Assert.assertEquals("v99", point1.tag("tag099"));
+      Assert.assertEquals(Long.valueOf(99), point1.longField("long99"));
+      Assert.assertEquals(Double.valueOf(9.5), point1.doubleField("double9"));
+      Assert.assertEquals("s9", point1.stringField("string9"));
+      Assert.assertEquals(Boolean.FALSE, point1.booleanField("boolean9"));
+      Assert.assertNull(point1.longFieldName(100));
+
+      point1.timestamp(timestamp, TimeUnit.NANOSECONDS).write(buffer, Precision.NANOSECOND);
+      final String line = buffer2string(buffer);
+      Assert.assertTrue(line.startsWith(expected.toString()));
+      Assert.assertTrue(line.contains(longs));
+      point1.close();
+      buffer.clear();
+
+      // the pooled point is reused, with no tags or fields
+      final Point point2 = pointFactory.createPoint("testMeasurement2")
+            .tag("host", "a")
+            .field("long", 1)
+            .timestamp(timestamp, TimeUnit.NANOSECONDS);
+
+      Assert.assertEquals(identityHashCode(point1), identityHashCode(point2));
+      Assert.assertNull(point2.tag("tag000"));
+      point2.write(buffer, Precision.NANOSECOND);
+      point2.close();
+
+      Assert.assertEquals(tsString("testMeasurement2,host=a long=1i", timestamp), buffer2string(buffer));
+   }
+
+   @Test
+   public void testTagLimit() {
+      try (final Point point = pointFactory.createPoint("testMeasurement")) {
+         for (int i = 0; i < Point.MAX_TAG_COUNT; i++) {
+            point.tag("tag" + i, "v");
+         }
+         point.tag("oneTooMany", "v");
+         Assert.fail("Expected IllegalStateException");
+      }
+      catch (final IllegalStateException e) {
+         Assert.assertTrue(e.getMessage().contains(String.valueOf(Point.MAX_TAG_COUNT)));
+      }
+   }
+
    @Test
    public void testJsonSerialization() {
       final long timestamp = 1526493357619L;
@@ -307,7 +748,9 @@ public class LineProtocolTest {
    }
 
    private String buffer2string(final ByteBuffer buffer) {
-      return new String(buffer.array(), 0, buffer.position());
+      final byte[] bytes = new byte[buffer.position()];
+      ((ByteBuffer) buffer.duplicate().flip()).get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
    }
 
    private static long timestampNs() {
@@ -20,6 +20,13 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.zaxxer.influx4j.InfluxDB.Precision;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
 public class PointTest {
    private PointFactory pointFactory;
 
@@ -130,6 +137,118 @@ public class PointTest {
       Assert.assertEquals(tsString("testRemoveLastTagThenAdd,animal=2,apple=1,zebra=4 field=\"foo\"", point.getTimestamp()), point.toString());
    }
 
+   @Test
+   public void testMultipleBooleanFields() throws Exception {
+      final Point point = pointFactory.createPoint("testMultipleBooleanFields")
+         .field("a", true)
+         .field("b", false)
+         .timestamp(1, TimeUnit.MILLISECONDS);
+
+      Assert.assertEquals("testMultipleBooleanFields a=t,b=f 1\n", point.toString());
+   }
+
+   @Test
+   public void testWriteTo() throws Exception {
+      final Point point = pointFactory.createPoint("testWriteTo")
+         .tag("host", "server 1")
+         .field("value", 42)
+         .timestamp(1500000000000L, TimeUnit.MILLISECONDS);
+
+      final String expected = "testWriteTo,host=server\\ 1 value=42i 1500000000\n";
+      final int length = expected.length();
+
+      final ByteBuffer small = ByteBuffer.allocate(length - 1);
+      small.put((byte) 'x');
+      Assert.assertEquals(-length, point.writeTo(small, Precision.SECOND));
+      Assert.assertEquals(1, small.position());
+
+      final ByteBuffer exact = ByteBuffer.allocateDirect(length);
+      Assert.assertEquals(length, point.writeTo(exact, Precision.SECOND));
+      Assert.assertFalse(exact.hasRemaining());
+      exact.flip();
+      Assert.assertEquals(expected, StandardCharsets.UTF_8.decode(exact).toString());
+   }
+
+   @Test
+   public void testWriteToTruncated() throws Exception {
+      final Point point = pointFactory.createPoint("m")
+         .field("d", 1.2345678901234)
+         .timestamp(1000, TimeUnit.MILLISECONDS);
+
+      final String expected = "m d=1.2345678901234 1000\n";
+      final int length = expected.length();
+
+      // every size that is too small, including those that end inside the double field
+      for (int size = 0; size < length; size++) {
+         for (final ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(size), ByteBuffer.allocateDirect(size) }) {
+            Assert.assertEquals("size " + size, -length, point.writeTo(buffer, Precision.MILLISECOND));
+            Assert.assertEquals("size " + size, 0, buffer.position());
+         }
+      }
+
+      final ByteBuffer exact = ByteBuffer.allocate(length);
+      Assert.assertEquals(length, point.writeTo(exact, Precision.MILLISECOND));
+      exact.flip();
+      Assert.assertEquals(expected, StandardCharsets.UTF_8.decode(exact).toString());
+   }
+
+   @Test
+   public void testWriteJsonTo() throws Exception {
+      final Point point = pointFactory.createPoint("json\"Test")
+         .tag("host", "line\nbreak")
+         .field("string", "caf\u00e9 \"\\ \u0001")
+         .field("long", -7)
+         .fieldUnsigned("unsigned", -1L)
+         .field("double", 2.5)
+         .field("nan", Double.NaN)
+         .field("boolean", true)
+         .timestamp(1234, TimeUnit.MILLISECONDS);
+
+      final String expected = "{\"measurement\":\"json\\\"Test\", \"timestamp\":1234, "
+         + "\"tags\": {\"host\":\"line\\nbreak\"}, "
+         + "\"fields\": {\"string\":\"caf\u00e9 \\\"\\\\ \\u0001\",\"long\":-7,\"unsigned\":18446744073709551615,"
+         + "\"double\":2.5,\"nan\":null,\"boolean\":true}}";
+      Assert.assertEquals(expected, point.toJson());
+
+      final ByteBuffer buffer = ByteBuffer.allocate(512);
+      final int length = point.writeJsonTo(buffer);
+      Assert.assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, length);
+      buffer.flip();
+      Assert.assertEquals(expected, StandardCharsets.UTF_8.decode(buffer).toString());
+
+      Assert.assertEquals(-length, point.writeJsonTo(ByteBuffer.allocate(16)));
+
+      final StringBuilder sb = new StringBuilder("> ");
+      Assert.assertEquals(expected.length(), point.writeJsonTo(sb));
+      Assert.assertEquals("> " + expected, sb.toString());
+
+      final StringWriter writer = new StringWriter();
+      point.writeJsonTo(writer);
+      Assert.assertEquals(expected, writer.toString());
+   }
+
+   @Test
+   public void testTemplatedJson() throws Exception {
+      final PointTemplate template = pointFactory.template("cpu")
+         .tag("host")
+         .tag("region")
+         .doubleField("user")
+         .longField("processes")
+         .booleanField("idle")
+         .build();
+
+      final Point point = template.createPoint()
+         .setTag(0, "server1")
+         .setLong(1, 191)
+         .timestamp(5, TimeUnit.MILLISECONDS);
+
+      Assert.assertEquals("{\"measurement\":\"cpu\", \"timestamp\":5, \"tags\": {\"host\":\"server1\"}, "
+                          + "\"fields\": {\"processes\":191}}", point.toJson());
+
+      final Point empty = pointFactory.createPoint("empty").timestamp(5, TimeUnit.MILLISECONDS);
+      Assert.assertEquals("{\"measurement\":\"empty\", \"timestamp\":5, \"tags\": {}, \"fields\": {}}", empty.toJson());
+   }
+
    private static String tsString(final String str, final long timestamp) {
       return str + " " + timestamp + "\n";
    }